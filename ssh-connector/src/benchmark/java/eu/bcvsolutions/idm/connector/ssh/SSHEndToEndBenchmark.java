@@ -0,0 +1,301 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+
+/**
+ * End-to-end benchmark konektoru proti SSH serveru běžícímu v procesu ({@link SSHStubServer}).
+ * Postupně spustí fáze handshake, create, get, update, authenticate, list a delete se zadaným
+ * počtem vláken a pro každou fázi vypíše počet operací za sekundu a latenci (p50, p99).
+ * <p>
+ * Fáze handshake měří samotné navázání spojení (test konektoru vždy navazuje novou relaci),
+ * ostatní fáze používají relace z poolu a měří tedy otevření kanálu, běh skriptu a zpracování
+ * výstupu. Rozdíl mezi nimi odpovídá ceně handshake na operaci.
+ * <p>
+ * Spuštění: <code>mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=eu.bcvsolutions.idm.connector.ssh.SSHEndToEndBenchmark
+ * -Dbenchmark=threads=8,objects=1000,attributes=10</code>
+ * <p>
+ * Parametry (oddělené čárkou):
+ * <ul>
+ * <li>threads - počet souběžných vláken (výchozí 4),</li>
+ * <li>objects - počet účtů, se kterými pracují fáze create, get, update, authenticate a delete (výchozí 1000),</li>
+ * <li>attributes - počet atributů účtu (výchozí 8),</li>
+ * <li>valueLength - délka hodnoty atributu (výchozí 32),</li>
+ * <li>handshakes - počet navázání spojení ve fázi handshake (výchozí 100),</li>
+ * <li>listings - počet výpisů všech účtů ve fázi list (výchozí 20),</li>
+ * <li>poolSize - maximální počet relací v poolu (výchozí počet vláken).</li>
+ * </ul>
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHEndToEndBenchmark {
+
+	private static final String PASSWORD = "Pa55;w\"ord";
+
+	private final int threads;
+	private final int objects;
+	private final int attributes;
+	private final int valueLength;
+	private final int handshakes;
+	private final int listings;
+	private final int poolSize;
+
+	private SSHConnector[] connectors;
+
+	public SSHEndToEndBenchmark(Map<String, String> params) {
+		threads = getInt(params, "threads", 4);
+		objects = getInt(params, "objects", 1000);
+		attributes = getInt(params, "attributes", 8);
+		valueLength = getInt(params, "valueLength", 32);
+		handshakes = getInt(params, "handshakes", 100);
+		listings = getInt(params, "listings", 20);
+		poolSize = getInt(params, "poolSize", threads);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String arg : args) {
+			for (String param : arg.split(",")) {
+				int index = param.indexOf('=');
+				//Hodnoty bez "=" (napr. vychozi regularni vyraz pro JMH) ignorujeme.
+				if (index > 0) {
+					params.put(param.substring(0, index).trim(), param.substring(index + 1).trim());
+				}
+			}
+		}
+		SSHStubServer server = new SSHStubServer();
+		server.start();
+		try {
+			new SSHEndToEndBenchmark(params).run(server);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private void run(SSHStubServer server) throws Exception {
+		SSHConfiguration cfg = server.createConfiguration();
+		cfg.setSessionPoolMaxSize(poolSize);
+		cfg.setMultiValueAttributes(new String[] {"attribute1"});
+
+		System.out.println(String.format("threads=%d, objects=%d, attributes=%d, valueLength=%d, poolSize=%d",
+				threads, objects, attributes, valueLength, poolSize));
+		System.out.println(String.format("%-14s %8s %12s %10s %10s %8s", "phase", "ops", "ops/s", "p50 [ms]",
+				"p99 [ms]", "errors"));
+
+		//Kazde vlakno ma vlastni instanci konektoru, relace sdili pres pool stejne konfigurace.
+		connectors = new SSHConnector[threads];
+		for (int i = 0; i < threads; i++) {
+			connectors[i] = new SSHConnector();
+			connectors[i].init(cfg);
+		}
+		try {
+			runPhase("handshake", handshakes, new Operation() {
+				public void run(SSHConnector connector, int index) {
+					connector.test();
+				}
+			});
+			runPhase("create", objects, new Operation() {
+				public void run(SSHConnector connector, int index) {
+					connector.create(ObjectClass.ACCOUNT, createAttributes(index, 0), null);
+				}
+			});
+			runPhase("get", objects, new Operation() {
+				public void run(SSHConnector connector, int index) {
+					String query = connector.createFilterTranslator(ObjectClass.ACCOUNT, null)
+							.translate(new EqualsFilter(new Uid(getAccountId(index)))).get(0);
+					CountingHandler handler = new CountingHandler();
+					connector.executeQuery(ObjectClass.ACCOUNT, query, handler, null);
+					handler.verify(1);
+				}
+			});
+			runPhase("update", objects, new Operation() {
+				public void run(SSHConnector connector, int index) {
+					Set<Attribute> attrs = createAttributes(index, 1);
+					attrs.remove(AttributeUtil.getNameFromAttributes(attrs));
+					connector.update(ObjectClass.ACCOUNT, new Uid(getAccountId(index)), attrs, null);
+				}
+			});
+			runPhase("authenticate", objects, new Operation() {
+				public void run(SSHConnector connector, int index) {
+					connector.authenticate(ObjectClass.ACCOUNT, getAccountId(index),
+							new GuardedString(PASSWORD.toCharArray()), null);
+				}
+			});
+			runPhase("list", listings, new Operation() {
+				public void run(SSHConnector connector, int index) {
+					CountingHandler handler = new CountingHandler();
+					connector.executeQuery(ObjectClass.ACCOUNT, null, handler, null);
+					handler.verify(objects);
+				}
+			});
+			runPhase("delete", objects, new Operation() {
+				public void run(SSHConnector connector, int index) {
+					connector.delete(ObjectClass.ACCOUNT, new Uid(getAccountId(index)), null);
+				}
+			});
+		} finally {
+			for (SSHConnector connector : connectors) {
+				connector.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Metoda spustí zadaný počet operací ve všech vláknech a vypíše výsledky fáze.
+	 *
+	 * @param phase název fáze.
+	 * @param count počet operací.
+	 * @param operation operace.
+	 */
+	private void runPhase(String phase, final int count, final Operation operation) throws Exception {
+		final long[] latencies = new long[count];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Future<?>[] workers = new Future<?>[threads];
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			final SSHConnector connector = connectors[i];
+			workers[i] = executor.submit(new Runnable() {
+				public void run() {
+					int index;
+					while ((index = next.getAndIncrement()) < count) {
+						long opStart = System.nanoTime();
+						try {
+							operation.run(connector, index);
+						} catch (RuntimeException ex) {
+							if (errors.getAndIncrement() == 0) {
+								ex.printStackTrace();
+							}
+						}
+						latencies[index] = System.nanoTime() - opStart;
+					}
+				}
+			});
+		}
+		for (Future<?> worker : workers) {
+			worker.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		Arrays.sort(latencies);
+		double opsPerSecond = count == 0 ? 0 : count / (elapsed / 1e9);
+		System.out.println(String.format("%-14s %8d %12.1f %10.3f %10.3f %8d", phase, count, opsPerSecond,
+				percentile(latencies, 0.50), percentile(latencies, 0.99), errors.get()));
+	}
+
+	/**
+	 * @return Percentil seřazených latencí v milisekundách.
+	 */
+	private static double percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	private static String getAccountId(int index) {
+		return "user" + index;
+	}
+
+	/**
+	 * Metoda vytvoří atributy účtu. Hodnoty obsahují oddělovač a uvozovky, které je nutné
+	 * "eskejpovat".
+	 *
+	 * @param index pořadí účtu.
+	 * @param version verze hodnot (pro update).
+	 */
+	private Set<Attribute> createAttributes(int index, int version) {
+		Set<Attribute> attrs = new HashSet<Attribute>();
+		attrs.add(new Name(getAccountId(index)));
+		attrs.add(AttributeBuilder.buildPassword(PASSWORD.toCharArray()));
+		for (int i = 1; i < attributes; i++) {
+			StringBuilder value = new StringBuilder("v").append(version).append("; \"").append(i).append("\" ");
+			while (value.length() < valueLength) {
+				value.append((char) ('a' + value.length() % 26));
+			}
+			attrs.add(AttributeBuilder.build("attribute" + i, value.toString()));
+		}
+		return attrs;
+	}
+
+	private static int getInt(Map<String, String> params, String name, int defaultValue) {
+		String value = params.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	/**
+	 * Operace prováděná v jedné fázi benchmarku.
+	 */
+	private interface Operation {
+
+		/**
+		 * @param connector konektor vlákna.
+		 * @param index pořadí operace ve fázi.
+		 */
+		void run(SSHConnector connector, int index);
+	}
+
+	/**
+	 * Handler, který ověří, že vyhledávání vrátilo očekávaný počet objektů.
+	 */
+	private static class CountingHandler implements ResultsHandler {
+
+		private int count = 0;
+
+		public boolean handle(ConnectorObject object) {
+			count++;
+			return true;
+		}
+
+		private void verify(int expected) {
+			if (count != expected) {
+				throw new IllegalStateException("Expected " + expected + " objects, found " + count + ".");
+			}
+		}
+	}
+
+}
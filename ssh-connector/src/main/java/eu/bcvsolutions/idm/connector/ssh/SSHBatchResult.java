@@ -0,0 +1,73 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Výsledek zpracování jednoho objektu v dávkové operaci.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHBatchResult {
+
+	private final Uid uid;
+	private final String error;
+
+	/**
+	 * Konstruktor třídy SSHBatchResult.
+	 *
+	 * @param uid Uid vytvořeného, změněného nebo smazaného objektu (může být null).
+	 * @param error chybová zpráva, pokud operace s objektem selhala, jinak null.
+	 */
+	public SSHBatchResult(Uid uid, String error) {
+		this.uid = uid;
+		this.error = error;
+	}
+
+	/**
+	 * @return Uid objektu nebo null, pokud ho skript nevrátil.
+	 */
+	public Uid getUid() {
+		return uid;
+	}
+
+	/**
+	 * @return Chybová zpráva nebo null, pokud operace proběhla v pořádku.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return true, pokud operace s objektem proběhla v pořádku.
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return isSuccess() ? "OK " + uid : "ERROR " + error;
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Jistič (circuit breaker) připojení k jednomu hostiteli. Sleduje po sobě jdoucí neúspěšné
+ * pokusy o připojení a po dosažení prahu hostitele odpojí:
+ * <ul>
+ * <li>CLOSED - hostitel je dostupný, operace se k němu připojují,</li>
+ * <li>OPEN - hostitel je nedostupný, operace selžou okamžitě bez pokusu o připojení,</li>
+ * <li>HALF_OPEN - po uplynutí intervalu se k hostiteli pustila jedna zkušební operace,
+ * ostatní operace stále selhávají okamžitě.</li>
+ * </ul>
+ * Úspěšné připojení (zkušební operace i jakékoli jiné) jistič opět sepne, neúspěšná
+ * zkušební operace jej znovu rozepne na další interval. Pokud zkušební operace do uplynutí
+ * intervalu výsledek nezaznamená, pustí se další. Jistič nemá žádné vlastní vlákno, na
+ * nepoužívaného hostitele se tedy nikdo nepřipojuje.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHCircuitBreaker {
+
+	private static final Log log = Log.getLog(SSHCircuitBreaker.class);
+
+	/**
+	 * Stav jističe.
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+	private final int threshold;
+	private final long probeInterval;
+	private State state = State.CLOSED;
+	private int failures = 0;
+	//Cas rozepnuti jistice nebo spusteni posledni zkusebni operace.
+	private long openedAt = 0;
+
+	/**
+	 * Konstruktor třídy SSHCircuitBreaker.
+	 *
+	 * @param name název hostitele (pro logování).
+	 * @param threshold počet po sobě jdoucích neúspěšných připojení, po kterém se jistič
+	 * rozepne (0 jistič vypíná).
+	 * @param probeInterval interval mezi zkušebními operacemi v milisekundách.
+	 */
+	public SSHCircuitBreaker(String name, int threshold, long probeInterval) {
+		this.name = name;
+		this.threshold = threshold;
+		this.probeInterval = probeInterval;
+	}
+
+	/**
+	 * @return true, pokud je jistič sepnut a hostitel je dostupný.
+	 */
+	public synchronized boolean isClosed() {
+		return state == State.CLOSED;
+	}
+
+	/**
+	 * Metoda rozhodne, zda se operace může k hostiteli připojit. U rozepnutého jističe po
+	 * uplynutí intervalu propustí jednu zkušební operaci a přejde do stavu HALF_OPEN.
+	 *
+	 * @return true, pokud se operace může k hostiteli připojit.
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.CLOSED) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		if (now - openedAt < probeInterval) {
+			return false;
+		}
+		log.info("Trying host {0} with a trial operation.", name);
+		state = State.HALF_OPEN;
+		openedAt = now;
+		return true;
+	}
+
+	/**
+	 * @return Aktuální stav jističe.
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Metoda zaznamená úspěšné připojení a jistič sepne.
+	 */
+	public synchronized void recordSuccess() {
+		failures = 0;
+		if (state != State.CLOSED) {
+			log.info("Host {0} is available again, circuit breaker closed.", name);
+			state = State.CLOSED;
+		}
+	}
+
+	/**
+	 * Metoda zaznamená neúspěšné připojení. Po dosažení prahu jistič rozepne, neúspěšná
+	 * zkušební operace jej rozepne znovu.
+	 */
+	public synchronized void recordFailure() {
+		failures++;
+		if (state == State.HALF_OPEN
+				|| state == State.CLOSED && threshold > 0 && failures >= threshold) {
+			if (state == State.CLOSED) {
+				log.warn("Host {0} failed {1} times in a row, circuit breaker opened.", name, String.valueOf(failures));
+			}
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.identityconnectors.common.logging.Log;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.Session;
+
+/**
+ * Neblokující spouštění skriptů na koncovém systému. Metody pouze otevřou kanál, předají
+ * skriptu příkaz a ihned vrátí výsledek ({@link SSHCommandFuture}), který dokončí vlákno
+ * relace JSch ve chvíli, kdy koncový systém uzavře kanál. Na běžící skripty tedy nečeká žádné
+ * vlákno a několik vláken může obsluhovat stovky souběžně běžících skriptů.
+ * <p>
+ * Jako pojistku pro případ, že by JSch kanál neuzavřel korektně (např. při přerušení relace),
+ * kontroluje jedno sdílené vlákno jednou za sekundu stav kanálů běžících skriptů. Stejné vlákno
+ * ukončuje skripty, kterým vypršel časový limit (viz {@link SSHCommandFuture#expire()}).
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHCommandEngine {
+
+	private static final Log log = Log.getLog(SSHCommandEngine.class);
+	private static final String ENCODING = "UTF-8";
+	private static final long CHECK_INTERVAL = 1000;
+
+	//Vysledky skriptu bezicich v samostatnem kanale.
+	private static final Set<SSHCommandFuture> RUNNING = new HashSet<SSHCommandFuture>();
+	private static Timer monitor;
+
+	private SSHCommandEngine() {
+	}
+
+	/**
+	 * Metoda spustí skript v novém kanále zadané relace. Příkaz se skriptu zapíše na standardní
+	 * vstup, na doběhnutí skriptu se nečeká.
+	 *
+	 * @param session relace, ve které se skript spustí.
+	 * @param script cesta ke skriptu na koncovém systému.
+	 * @param scriptParams parametry (příkazy) předávané skriptu (CSV nebo jednoduché řetězce).
+	 * @param timeout časový limit skriptu v milisekundách (0 bez limitu).
+	 * @return Výsledek skriptu. Pokud se skript nepodařilo spustit, je výsledek dokončen chybou.
+	 * Podle {@link SSHCommandFuture#isStarted()} se pozná, zda chyba nastala až po připojení kanálu.
+	 */
+	public static SSHCommandFuture execute(Session session, String script, String scriptParams, long timeout) {
+		final SSHCommandFuture future = new SSHCommandFuture();
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		ChannelExec channel = null;
+		try {
+			channel = (ChannelExec) session.openChannel("exec");
+			channel.setCommand(script);
+			future.attach(channel);
+			watch(future, timeout);
+			channel.connect((int) Math.min(timeout, Integer.MAX_VALUE));
+			//Pozadavek exec je odeslan, skript uz mohl byt spusten.
+			future.markStarted();
+			if (scriptParams != null && !scriptParams.equals("")) {
+				future.setBytesOut(writeCommand(channel, scriptParams));
+			}
+		} catch (Exception ex) {
+			//Vysledek dokoncime drive, nez uzavreni kanalu dokonci vysledek navratovym kodem.
+			if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+				future.expire();
+			} else {
+				future.fail(ex);
+			}
+			if (channel != null) {
+				channel.disconnect();
+			}
+		}
+		return future;
+	}
+
+	/**
+	 * Metoda předá skript ke spuštění dispečerovi běžícímu v zadané relaci (viz {@link SSHDispatcher}).
+	 * Výsledek dokončí vlákno, které čte odpovědi dispečera.
+	 *
+	 * @param session relace, ve které běží dispečer.
+	 * @param dispatcher příkaz, kterým se dispečer spouští.
+	 * @param script cesta ke skriptu na koncovém systému.
+	 * @param scriptParams parametry (příkazy) předávané skriptu.
+	 * @param timeout časový limit skriptu v milisekundách (0 bez limitu). Po jeho vypršení
+	 * skript dál běží v dispečerovi, jeho odpověď se zahodí.
+	 * @return Výsledek skriptu.
+	 */
+	public static SSHCommandFuture dispatch(Session session, String dispatcher, String script, String scriptParams,
+			long timeout) {
+		SSHCommandFuture future = new SSHCommandFuture();
+		scheduleDeadline(future, timeout);
+		try {
+			SSHDispatcher instance = SSHDispatcher.getDispatcher(session, dispatcher);
+			future.markStarted();
+			future.setBytesOut(instance.submit(script, scriptParams, future));
+		} catch (Exception ex) {
+			future.fail(ex);
+		}
+		return future;
+	}
+
+	/**
+	 * Metoda zapíše příkaz na standardní vstup skriptu a vstup uzavře.
+	 *
+	 * @param channel kanál skriptu.
+	 * @param command příkaz (ve formátu CSV).
+	 * @return Počet zapsaných bajtů.
+	 * @throws IOException
+	 */
+	private static int writeCommand(Channel channel, String command) throws IOException {
+		OutputStream out = channel.getOutputStream();
+		byte[] data = command.getBytes(ENCODING);
+		try {
+			out.write(data);
+			out.flush();
+		} catch (IOException ioExc) {
+			log.error(ioExc.getMessage());
+		} finally {
+			out.close();
+		}
+		return data.length;
+	}
+
+	/**
+	 * Metoda zařadí výsledek mezi kontrolované, po jeho dokončení se z nich opět vyřadí.
+	 * 
+	 * @param future výsledek skriptu.
+	 * @param timeout časový limit skriptu v milisekundách (0 bez limitu).
+	 */
+	private static void watch(final SSHCommandFuture future, long timeout) {
+		synchronized (RUNNING) {
+			getMonitor();
+			RUNNING.add(future);
+		}
+		future.addListener(new Runnable() {
+			public void run() {
+				synchronized (RUNNING) {
+					RUNNING.remove(future);
+				}
+			}
+		});
+		scheduleDeadline(future, timeout);
+	}
+
+	/**
+	 * Metoda naplánuje ukončení skriptu po vypršení časového limitu. Po dokončení skriptu
+	 * se naplánované ukončení zruší.
+	 * 
+	 * @param future výsledek skriptu.
+	 * @param timeout časový limit skriptu v milisekundách (0 bez limitu).
+	 */
+	private static void scheduleDeadline(final SSHCommandFuture future, long timeout) {
+		if (timeout <= 0) {
+			return;
+		}
+		final TimerTask deadline = new TimerTask() {
+			@Override
+			public void run() {
+				if (future.expire()) {
+					log.warn("Command did not finish within the timeout and was terminated.");
+				}
+			}
+		};
+		synchronized (RUNNING) {
+			getMonitor().schedule(deadline, timeout);
+		}
+		future.addListener(new Runnable() {
+			public void run() {
+				deadline.cancel();
+			}
+		});
+	}
+
+	/**
+	 * @return Sdílené vlákno kontroly běžících skriptů (volat se zámkem RUNNING).
+	 */
+	private static Timer getMonitor() {
+		if (monitor == null) {
+			monitor = new Timer("ssh-command-monitor", true);
+			monitor.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					checkRunning();
+				}
+			}, CHECK_INTERVAL, CHECK_INTERVAL);
+		}
+		return monitor;
+	}
+
+	/**
+	 * Metoda dokončí výsledky skriptů, jejichž kanál je již uzavřený.
+	 */
+	private static void checkRunning() {
+		List<SSHCommandFuture> running;
+		synchronized (RUNNING) {
+			running = new ArrayList<SSHCommandFuture>(RUNNING);
+			//Odstranime zrusene limity dokoncenych skriptu.
+			monitor.purge();
+		}
+		for (SSHCommandFuture future : running) {
+			Channel channel = future.getChannel();
+			if (channel.isClosed()) {
+				future.complete(channel.getExitStatus());
+			}
+		}
+	}
+
+}
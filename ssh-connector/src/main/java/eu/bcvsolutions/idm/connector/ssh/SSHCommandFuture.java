@@ -0,0 +1,509 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.identityconnectors.common.logging.Log;
+
+import com.jcraft.jsch.Channel;
+
+/**
+ * Výsledek skriptu spuštěného na koncovém systému (viz {@link SSHCommandEngine}). Výsledkem
+ * je návratový kód skriptu, standardní výstup se čte proudem {@link #getOutput()}.
+ * <p>
+ * Výstup skriptu zapisuje do výsledku vlákno relace JSch ve chvíli, kdy data dorazí. Data se
+ * ukládají do omezeného bufferu ({@link #OUTPUT_BUFFER_SIZE}), dokud je čtenář nepřečte. Pokud
+ * je buffer plný, zápis čeká a vlákno relace přestane přijímat data, koncový systém tak
+ * neposílá další data, dokud je čtenář nezpracuje (stejně jako u proudů JSch). Čeká tím ale
+ * i ostatní kanály téže relace, výstup je tedy nutné číst průběžně. Výsledek se dokončí
+ * ve chvíli, kdy koncový systém uzavře kanál. Na dokončení tedy nečeká žádné vlákno, čtenář
+ * výstupu může výstup zpracovávat souběžně s během skriptu.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHCommandFuture implements Future<Integer> {
+
+	private static final Log log = Log.getLog(SSHCommandFuture.class);
+	private static final String ENCODING = "UTF-8";
+
+	/** Velikost bufferu výstupu skriptu v bajtech. */
+	public static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private final OutputBuffer output = new OutputBuffer();
+	private final ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+	private final List<Runnable> listeners = new ArrayList<Runnable>();
+
+	private volatile Channel channel;
+	private volatile long bytesOut = 0;
+	private volatile boolean started = false;
+	private boolean done = false;
+	private boolean cancelled = false;
+	private boolean timedOut = false;
+	private int exitStatus = -1;
+	private Throwable failure;
+
+	SSHCommandFuture() {
+	}
+
+	/**
+	 * Metoda připojí k výsledku kanál, ve kterém skript běží. Výstupy kanálu se zapisují
+	 * do výsledku a uzavření chybového výstupu (JSch ho uzavře při uzavření kanálu) výsledek
+	 * dokončí.
+	 *
+	 * @param channel kanál skriptu (před připojením).
+	 */
+	void attach(final Channel channel) {
+		this.channel = channel;
+		channel.setInputStream(null);
+		channel.setOutputStream(output.sink);
+		channel.setExtOutputStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				errorOutput.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				errorOutput.write(b, off, len);
+			}
+
+			@Override
+			public void close() {
+				complete(channel.getExitStatus());
+			}
+		});
+	}
+
+	/**
+	 * @param bytesOut počet bajtů zapsaných na vstup skriptu.
+	 */
+	void setBytesOut(long bytesOut) {
+		this.bytesOut = bytesOut;
+	}
+
+	/**
+	 * Metoda označí skript jako spuštěný. Volá se, jakmile mohl koncový systém skript spustit
+	 * (kanál je připojen nebo se požadavek začal předávat dispečerovi).
+	 */
+	void markStarted() {
+		started = true;
+	}
+
+	/**
+	 * @return true, pokud koncový systém mohl skript spustit. Skript výsledku, který selhal
+	 * a nebyl spuštěn, lze bezpečně spustit znovu.
+	 */
+	boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * @return Kanál skriptu nebo null, pokud skript neběží v samostatném kanále.
+	 */
+	Channel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Metoda dokončí výsledek s daným návratovým kódem. Pokud je výsledek již dokončen,
+	 * nic se nestane.
+	 *
+	 * @param exitStatus návratový kód skriptu.
+	 */
+	void complete(int exitStatus) {
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			this.exitStatus = exitStatus;
+			done = true;
+		}
+		finish();
+	}
+
+	/**
+	 * Metoda připojí část standardního výstupu skriptu, který nezapisuje kanál (dispečer).
+	 * Pokud je buffer výstupu plný, čeká na čtenáře. Po dokončení výsledku se data zahazují.
+	 *
+	 * @param b data.
+	 * @param off začátek dat.
+	 * @param len délka dat.
+	 */
+	void appendOutput(byte[] b, int off, int len) {
+		//Zapis ceka na ctenare, nesmi tedy drzet zamek vysledku (cancel by cekal na zapis).
+		output.append(b, off, len);
+	}
+
+	/**
+	 * Metoda připojí část chybového výstupu skriptu, který nezapisuje kanál (dispečer).
+	 *
+	 * @param b data.
+	 * @param off začátek dat.
+	 * @param len délka dat.
+	 */
+	void appendError(byte[] b, int off, int len) {
+		errorOutput.write(b, off, len);
+	}
+
+	/**
+	 * Metoda ukončí výsledek chybou (skript se nepodařilo spustit nebo spojení selhalo).
+	 *
+	 * @param failure příčina chyby.
+	 */
+	void fail(Throwable failure) {
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			this.failure = failure;
+			done = true;
+		}
+		finish();
+	}
+
+	/**
+	 * Metoda přeruší skript (uzavře jeho kanál). Dosud nepřečtený výstup se zahodí.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			cancelled = true;
+			done = true;
+		}
+		terminate();
+		return true;
+	}
+
+	/**
+	 * Metoda ukončí skript, kterému vypršel časový limit. Procesu skriptu se pošle signál
+	 * TERM a kanál se uzavře, výsledek skončí jako přerušený. Příznak vypršení se nastaví
+	 * pouze v případě, že skript do té doby neskončil sám.
+	 *
+	 * @return false, pokud byl výsledek již dokončen.
+	 */
+	boolean expire() {
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			timedOut = true;
+			cancelled = true;
+			done = true;
+		}
+		Channel current = channel;
+		if (current != null) {
+			try {
+				current.sendSignal("TERM");
+			} catch (Exception ex) {
+				//Kanal uz neexistuje nebo server signaly nepodporuje, staci ho uzavrit.
+			}
+		}
+		terminate();
+		return true;
+	}
+
+	/**
+	 * Metoda zahodí nepřečtený výstup, uzavře kanál a dokončí přerušený výsledek.
+	 */
+	private void terminate() {
+		output.discard();
+		Channel current = channel;
+		if (current != null) {
+			current.disconnect();
+		}
+		finish();
+	}
+
+	private void finish() {
+		output.close();
+		latch.countDown();
+		List<Runnable> toRun;
+		synchronized (listeners) {
+			toRun = new ArrayList<Runnable>(listeners);
+			listeners.clear();
+		}
+		for (Runnable listener : toRun) {
+			run(listener);
+		}
+	}
+
+	/**
+	 * Metoda zaregistruje akci, která se provede po dokončení výsledku (i neúspěšném). Akce
+	 * běží ve vlákně, které výsledek dokončilo (typicky vlákno relace JSch), musí tedy být
+	 * krátká a nesmí blokovat. Pokud je výsledek již dokončen, akce se provede ihned.
+	 *
+	 * @param listener akce.
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (listeners) {
+			if (latch.getCount() > 0) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		run(listener);
+	}
+
+	private static void run(Runnable listener) {
+		try {
+			listener.run();
+		} catch (RuntimeException ex) {
+			log.warn("Command completion listener failed. {0}", ex.getMessage());
+		}
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return true, pokud byl skript ukončen kvůli vypršení časového limitu.
+	 */
+	public synchronized boolean isTimedOut() {
+		return timedOut;
+	}
+
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	/**
+	 * Metoda čeká na dokončení skriptu.
+	 *
+	 * @return Návratový kód skriptu.
+	 */
+	public Integer get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return getResult();
+	}
+
+	/**
+	 * Metoda čeká na dokončení skriptu nejvýše zadanou dobu.
+	 *
+	 * @return Návratový kód skriptu.
+	 */
+	public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException("Command did not finish in time.");
+		}
+		return getResult();
+	}
+
+	private synchronized Integer getResult() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException("Command was cancelled.");
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return exitStatus;
+	}
+
+	/**
+	 * @return Příčina chyby, pokud je výsledek dokončen chybou, jinak null.
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Proud se standardním výstupem skriptu. Čtení blokuje, dokud nedorazí další data
+	 * nebo dokud se výsledek nedokončí. Výstup lze přečíst pouze jednou.
+	 *
+	 * @return Standardní výstup skriptu.
+	 */
+	public InputStream getOutput() {
+		return output.source;
+	}
+
+	/**
+	 * @return Chybový výstup skriptu (úplný až po dokončení výsledku).
+	 */
+	public String getErrorOutput() {
+		try {
+			return errorOutput.toString(ENCODING);
+		} catch (UnsupportedEncodingException ex) {
+			return errorOutput.toString();
+		}
+	}
+
+	/**
+	 * @return Počet bajtů zapsaných na vstup skriptu.
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * @return Počet bajtů, které skript zapsal na standardní výstup.
+	 */
+	public long getBytesIn() {
+		return output.getTotal();
+	}
+
+	/**
+	 * Omezený paměťový buffer výstupu skriptu. Zápis čeká, dokud je buffer plný, čtení čeká
+	 * na data. Po uzavření nebo zahození bufferu se další zápisy zahazují.
+	 */
+	private static class OutputBuffer {
+
+		private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+		private int position = 0;
+		//Pocet neprectenych bajtu.
+		private int buffered = 0;
+		private long total = 0;
+		private boolean closed = false;
+
+		private final OutputStream sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+				append(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				append(b, off, len);
+			}
+
+			@Override
+			public void close() {
+				OutputBuffer.this.close();
+			}
+		};
+
+		private final InputStream source = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return OutputBuffer.this.read(b, off, len);
+			}
+
+			@Override
+			public int available() {
+				return OutputBuffer.this.available();
+			}
+		};
+
+		private synchronized void append(byte[] b, int off, int len) {
+			while (len > 0) {
+				while (!closed && buffered >= OUTPUT_BUFFER_SIZE) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						//Vlakno relace se preruseni pri odpojovani relace, data uz nikdo neprecte.
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (closed) {
+					return;
+				}
+				int count = Math.min(len, OUTPUT_BUFFER_SIZE - buffered);
+				byte[] chunk = new byte[count];
+				System.arraycopy(b, off, chunk, 0, count);
+				chunks.add(chunk);
+				buffered += count;
+				total += count;
+				off += count;
+				len -= count;
+				notifyAll();
+			}
+		}
+
+		private synchronized int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (chunks.isEmpty()) {
+				if (closed) {
+					return -1;
+				}
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while reading command output.");
+				}
+			}
+			int read = 0;
+			while (read < len && !chunks.isEmpty()) {
+				byte[] chunk = chunks.getFirst();
+				int count = Math.min(len - read, chunk.length - position);
+				System.arraycopy(chunk, position, b, off + read, count);
+				read += count;
+				position += count;
+				if (position == chunk.length) {
+					chunks.removeFirst();
+					position = 0;
+				}
+			}
+			buffered -= read;
+			//Uvolnilo se misto, zapisujici vlakno muze pokracovat.
+			notifyAll();
+			return read;
+		}
+
+		private synchronized int available() {
+			return buffered;
+		}
+
+		private synchronized long getTotal() {
+			return total;
+		}
+
+		private synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		private synchronized void discard() {
+			chunks.clear();
+			position = 0;
+			buffered = 0;
+			close();
+		}
+	}
+
+}
@@ -21,6 +21,9 @@
 
 package eu.bcvsolutions.idm.connector.ssh;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.spi.AbstractConfiguration;
@@ -31,13 +34,31 @@ import org.identityconnectors.framework.spi.ConfigurationProperty;
  * 
  * @author Jaromír Mlejnek
  */
-public class SSHConfiguration extends AbstractConfiguration {			    
+public class SSHConfiguration extends AbstractConfiguration implements Cloneable {			    
        
     public static final int DEFAULT_PORT = 22;    
     public static final char DELIMITER = ';'; 
     public static final char DEFAULT_MULTIATTRIBUTE_SEPARATOR = ',';
     public static final int CONNECTION_TIMEOUT = 10000;  
     public static final String DEFAULT_EXCAPE_MODE = SSHMessages.SSH_ESCAPE_MODE_DOUBLED;
+    public static final int DEFAULT_SESSION_POOL_MIN_SIZE = 0;
+    public static final int DEFAULT_SESSION_POOL_MAX_SIZE = 4;
+    public static final long DEFAULT_SESSION_IDLE_TIMEOUT = 60000;
+    public static final long DEFAULT_SESSION_MAX_LIFETIME = 600000;
+    public static final int DEFAULT_MAX_CHANNELS_PER_SESSION = 10;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_OBJECT_CACHE_TTL = 0;
+    public static final int DEFAULT_OBJECT_CACHE_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_SCHEMA_CACHE_TTL = 86400000;
+    public static final boolean DEFAULT_METRICS_ENABLED = true;
+    public static final int DEFAULT_PARALLEL_FETCH_THREADS = 0;
+    public static final boolean DEFAULT_PARALLEL_FETCH_ORDERED = true;
+    public static final String DEFAULT_HOST_SELECTION_POLICY = SSHMessages.SSH_HOST_SELECTION_ROUND_ROBIN;
+    public static final long DEFAULT_HOST_RETRY_INTERVAL = 30000;
+    public static final boolean DEFAULT_FLEET_MODE = false;
+    public static final int DEFAULT_FLEET_PARALLELISM = 16;
+    public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 3;
+    public static final long DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL = 10000;
     
     private String host;
     private int port = DEFAULT_PORT;        
@@ -62,12 +83,39 @@ public class SSHConfiguration extends AbstractConfiguration {
     private String updateGroup;
     
     private String listObjects;
+    private String listObjectsFull;
+    private String sync;
+    private String dispatcher;
+    private int batchSize = DEFAULT_BATCH_SIZE;
     private String attributesSchema;
     
     private String escapeMode = DEFAULT_EXCAPE_MODE;
     private String[] multiValueAttributes;
     private char multiValueAttributesSeparator = DEFAULT_MULTIATTRIBUTE_SEPARATOR;
     
+    private int sessionPoolMinSize = DEFAULT_SESSION_POOL_MIN_SIZE;
+    private int sessionPoolMaxSize = DEFAULT_SESSION_POOL_MAX_SIZE;
+    private long sessionIdleTimeout = DEFAULT_SESSION_IDLE_TIMEOUT;
+    private long sessionMaxLifetime = DEFAULT_SESSION_MAX_LIFETIME;
+    private int maxChannelsPerSession = DEFAULT_MAX_CHANNELS_PER_SESSION;
+    private long objectCacheTtl = DEFAULT_OBJECT_CACHE_TTL;
+    private int objectCacheMaxEntries = DEFAULT_OBJECT_CACHE_MAX_ENTRIES;
+    private String schemaCacheDirectory;
+    private long schemaCacheTtl = DEFAULT_SCHEMA_CACHE_TTL;
+    private boolean metricsEnabled = DEFAULT_METRICS_ENABLED;
+    private int parallelFetchThreads = DEFAULT_PARALLEL_FETCH_THREADS;
+    private boolean parallelFetchOrdered = DEFAULT_PARALLEL_FETCH_ORDERED;
+    private String[] hosts;
+    private String hostSelectionPolicy = DEFAULT_HOST_SELECTION_POLICY;
+    private long hostRetryInterval = DEFAULT_HOST_RETRY_INTERVAL;
+    private boolean fleetMode = DEFAULT_FLEET_MODE;
+    private int fleetParallelism = DEFAULT_FLEET_PARALLELISM;
+    private String search;
+    private int circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+    private long circuitBreakerProbeInterval = DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL;
+    private long operationTimeout = 0;
+    private String[] operationTimeouts;
+    
     //!!! CO SE BUDE MUSET VZDY ZADAVAT !!!
     
     @ConfigurationProperty(order = 1,
@@ -240,6 +288,189 @@ public class SSHConfiguration extends AbstractConfiguration {
 		return authenticate;
 	}
     
+    //POOL RELACI
+    @ConfigurationProperty(order = 24,
+    		displayMessageKey = "SSH_SESSION_POOL_MIN_SIZE_NAME",
+    		helpMessageKey = "SSH_SESSION_POOL_MIN_SIZE_HELP")
+    public int getSessionPoolMinSize() {
+		return sessionPoolMinSize;
+	}
+    
+    @ConfigurationProperty(order = 25,
+    		displayMessageKey = "SSH_SESSION_POOL_MAX_SIZE_NAME",
+    		helpMessageKey = "SSH_SESSION_POOL_MAX_SIZE_HELP")
+    public int getSessionPoolMaxSize() {
+		return sessionPoolMaxSize;
+	}
+    
+    @ConfigurationProperty(order = 26,
+    		displayMessageKey = "SSH_SESSION_IDLE_TIMEOUT_NAME",
+    		helpMessageKey = "SSH_SESSION_IDLE_TIMEOUT_HELP")
+    public long getSessionIdleTimeout() {
+		return sessionIdleTimeout;
+	}
+    
+    @ConfigurationProperty(order = 27,
+    		displayMessageKey = "SSH_SESSION_MAX_LIFETIME_NAME",
+    		helpMessageKey = "SSH_SESSION_MAX_LIFETIME_HELP")
+    public long getSessionMaxLifetime() {
+		return sessionMaxLifetime;
+	}
+    
+    @ConfigurationProperty(order = 28,
+    		displayMessageKey = "SSH_MAX_CHANNELS_PER_SESSION_NAME",
+    		helpMessageKey = "SSH_MAX_CHANNELS_PER_SESSION_HELP")
+    public int getMaxChannelsPerSession() {
+		return maxChannelsPerSession;
+	}
+    
+    @ConfigurationProperty(order = 29,
+    		displayMessageKey = "SSH_SCRIPT_LISTOBJECTSFULL_NAME",
+    		helpMessageKey = "SSH_SCRIPT_LISTOBJECTSFULL_HELP")
+    public String getListObjectsFull() {
+		return listObjectsFull;
+	}
+    
+    @ConfigurationProperty(order = 30,
+    		displayMessageKey = "SSH_SCRIPT_SYNC_NAME",
+    		helpMessageKey = "SSH_SCRIPT_SYNC_HELP")
+    public String getSync() {
+		return sync;
+	}
+    
+    @ConfigurationProperty(order = 31,
+    		displayMessageKey = "SSH_SCRIPT_DISPATCHER_NAME",
+    		helpMessageKey = "SSH_SCRIPT_DISPATCHER_HELP")
+    public String getDispatcher() {
+		return dispatcher;
+	}
+    
+    @ConfigurationProperty(order = 32,
+    		displayMessageKey = "SSH_BATCH_SIZE_NAME",
+    		helpMessageKey = "SSH_BATCH_SIZE_HELP")
+    public int getBatchSize() {
+		return batchSize;
+	}
+    
+    @ConfigurationProperty(order = 33,
+    		displayMessageKey = "SSH_OBJECT_CACHE_TTL_NAME",
+    		helpMessageKey = "SSH_OBJECT_CACHE_TTL_HELP")
+    public long getObjectCacheTtl() {
+		return objectCacheTtl;
+	}
+    
+    @ConfigurationProperty(order = 34,
+    		displayMessageKey = "SSH_OBJECT_CACHE_MAX_ENTRIES_NAME",
+    		helpMessageKey = "SSH_OBJECT_CACHE_MAX_ENTRIES_HELP")
+    public int getObjectCacheMaxEntries() {
+		return objectCacheMaxEntries;
+	}
+    
+    @ConfigurationProperty(order = 35,
+    		displayMessageKey = "SSH_SCHEMA_CACHE_DIRECTORY_NAME",
+    		helpMessageKey = "SSH_SCHEMA_CACHE_DIRECTORY_HELP")
+    public String getSchemaCacheDirectory() {
+		return schemaCacheDirectory;
+	}
+    
+    @ConfigurationProperty(order = 36,
+    		displayMessageKey = "SSH_SCHEMA_CACHE_TTL_NAME",
+    		helpMessageKey = "SSH_SCHEMA_CACHE_TTL_HELP")
+    public long getSchemaCacheTtl() {
+		return schemaCacheTtl;
+	}
+    
+    @ConfigurationProperty(order = 37,
+    		displayMessageKey = "SSH_METRICS_ENABLED_NAME",
+    		helpMessageKey = "SSH_METRICS_ENABLED_HELP")
+    public boolean getMetricsEnabled() {
+		return metricsEnabled;
+	}
+    
+    @ConfigurationProperty(order = 38,
+    		displayMessageKey = "SSH_PARALLEL_FETCH_THREADS_NAME",
+    		helpMessageKey = "SSH_PARALLEL_FETCH_THREADS_HELP")
+    public int getParallelFetchThreads() {
+		return parallelFetchThreads;
+	}
+    
+    @ConfigurationProperty(order = 39,
+    		displayMessageKey = "SSH_PARALLEL_FETCH_ORDERED_NAME",
+    		helpMessageKey = "SSH_PARALLEL_FETCH_ORDERED_HELP")
+    public boolean getParallelFetchOrdered() {
+		return parallelFetchOrdered;
+	}
+    
+    @ConfigurationProperty(order = 40,
+    		displayMessageKey = "SSH_HOSTS_NAME",
+    		helpMessageKey = "SSH_HOSTS_HELP")
+    public String[] getHosts() {
+		return hosts;
+	}
+    
+    @ConfigurationProperty(order = 41,
+    		displayMessageKey = "SSH_HOST_SELECTION_POLICY_NAME",
+    		helpMessageKey = "SSH_HOST_SELECTION_POLICY_HELP")
+    public String getHostSelectionPolicy() {
+		return hostSelectionPolicy;
+	}
+    
+    @ConfigurationProperty(order = 42,
+    		displayMessageKey = "SSH_HOST_RETRY_INTERVAL_NAME",
+    		helpMessageKey = "SSH_HOST_RETRY_INTERVAL_HELP")
+    public long getHostRetryInterval() {
+		return hostRetryInterval;
+	}
+    
+    @ConfigurationProperty(order = 43,
+    		displayMessageKey = "SSH_FLEET_MODE_NAME",
+    		helpMessageKey = "SSH_FLEET_MODE_HELP")
+    public boolean getFleetMode() {
+		return fleetMode;
+	}
+    
+    @ConfigurationProperty(order = 44,
+    		displayMessageKey = "SSH_FLEET_PARALLELISM_NAME",
+    		helpMessageKey = "SSH_FLEET_PARALLELISM_HELP")
+    public int getFleetParallelism() {
+		return fleetParallelism;
+	}
+    
+    @ConfigurationProperty(order = 45,
+    		displayMessageKey = "SSH_SCRIPT_SEARCH_NAME",
+    		helpMessageKey = "SSH_SCRIPT_SEARCH_HELP")
+    public String getSearch() {
+		return search;
+	}
+    
+    @ConfigurationProperty(order = 46,
+    		displayMessageKey = "SSH_CIRCUIT_BREAKER_THRESHOLD_NAME",
+    		helpMessageKey = "SSH_CIRCUIT_BREAKER_THRESHOLD_HELP")
+    public int getCircuitBreakerThreshold() {
+		return circuitBreakerThreshold;
+	}
+    
+    @ConfigurationProperty(order = 47,
+    		displayMessageKey = "SSH_CIRCUIT_BREAKER_PROBE_INTERVAL_NAME",
+    		helpMessageKey = "SSH_CIRCUIT_BREAKER_PROBE_INTERVAL_HELP")
+    public long getCircuitBreakerProbeInterval() {
+		return circuitBreakerProbeInterval;
+	}
+    
+    @ConfigurationProperty(order = 48,
+    		displayMessageKey = "SSH_OPERATION_TIMEOUT_NAME",
+    		helpMessageKey = "SSH_OPERATION_TIMEOUT_HELP")
+    public long getOperationTimeout() {
+		return operationTimeout;
+	}
+    
+    @ConfigurationProperty(order = 49,
+    		displayMessageKey = "SSH_OPERATION_TIMEOUTS_NAME",
+    		helpMessageKey = "SSH_OPERATION_TIMEOUTS_HELP")
+    public String[] getOperationTimeouts() {
+		return operationTimeouts;
+	}
+    
     public void setHost(String host) {
 		this.host = host;
 	}
@@ -316,6 +547,22 @@ public class SSHConfiguration extends AbstractConfiguration {
 		this.listObjects = listObjects;
 	}
     
+    public void setListObjectsFull(String listObjectsFull) {
+		this.listObjectsFull = listObjectsFull;
+	}
+    
+    public void setSync(String sync) {
+		this.sync = sync;
+	}
+    
+    public void setDispatcher(String dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+    
+    public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+    
     public void setAttributesSchema(String attributesSchema) {
 		this.attributesSchema = attributesSchema;
 	}
@@ -332,6 +579,94 @@ public class SSHConfiguration extends AbstractConfiguration {
 			char multiValueAttributesSeparator) {
 		this.multiValueAttributesSeparator = multiValueAttributesSeparator;
 	}
+    
+    public void setSessionPoolMinSize(int sessionPoolMinSize) {
+		this.sessionPoolMinSize = sessionPoolMinSize;
+	}
+    
+    public void setSessionPoolMaxSize(int sessionPoolMaxSize) {
+		this.sessionPoolMaxSize = sessionPoolMaxSize;
+	}
+    
+    public void setSessionIdleTimeout(long sessionIdleTimeout) {
+		this.sessionIdleTimeout = sessionIdleTimeout;
+	}
+    
+    public void setSessionMaxLifetime(long sessionMaxLifetime) {
+		this.sessionMaxLifetime = sessionMaxLifetime;
+	}
+    
+    public void setMaxChannelsPerSession(int maxChannelsPerSession) {
+		this.maxChannelsPerSession = maxChannelsPerSession;
+	}
+    
+    public void setObjectCacheTtl(long objectCacheTtl) {
+		this.objectCacheTtl = objectCacheTtl;
+	}
+    
+    public void setObjectCacheMaxEntries(int objectCacheMaxEntries) {
+		this.objectCacheMaxEntries = objectCacheMaxEntries;
+	}
+    
+    public void setSchemaCacheDirectory(String schemaCacheDirectory) {
+		this.schemaCacheDirectory = schemaCacheDirectory;
+	}
+    
+    public void setSchemaCacheTtl(long schemaCacheTtl) {
+		this.schemaCacheTtl = schemaCacheTtl;
+	}
+    
+    public void setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+	}
+    
+    public void setParallelFetchThreads(int parallelFetchThreads) {
+		this.parallelFetchThreads = parallelFetchThreads;
+	}
+    
+    public void setParallelFetchOrdered(boolean parallelFetchOrdered) {
+		this.parallelFetchOrdered = parallelFetchOrdered;
+	}
+    
+    public void setHosts(String[] hosts) {
+		this.hosts = hosts;
+	}
+    
+    public void setHostSelectionPolicy(String hostSelectionPolicy) {
+		this.hostSelectionPolicy = hostSelectionPolicy;
+	}
+    
+    public void setHostRetryInterval(long hostRetryInterval) {
+		this.hostRetryInterval = hostRetryInterval;
+	}
+    
+    public void setFleetMode(boolean fleetMode) {
+		this.fleetMode = fleetMode;
+	}
+    
+    public void setFleetParallelism(int fleetParallelism) {
+		this.fleetParallelism = fleetParallelism;
+	}
+    
+    public void setSearch(String search) {
+		this.search = search;
+	}
+    
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+		this.circuitBreakerThreshold = circuitBreakerThreshold;
+	}
+    
+    public void setCircuitBreakerProbeInterval(long circuitBreakerProbeInterval) {
+		this.circuitBreakerProbeInterval = circuitBreakerProbeInterval;
+	}
+    
+    public void setOperationTimeout(long operationTimeout) {
+		this.operationTimeout = operationTimeout;
+	}
+    
+    public void setOperationTimeouts(String[] operationTimeouts) {
+		this.operationTimeouts = operationTimeouts;
+	}
        
     
     /**
@@ -361,6 +696,59 @@ public class SSHConfiguration extends AbstractConfiguration {
     	return getConnectorMessages().format(key, key, objects);
     }
     
+	/**
+	 * Metoda načte časové limity jednotlivých operací zapsané ve tvaru operace=milisekundy.
+	 * 
+	 * @param values zápisy limitů (může být null).
+	 * @return Limity podle názvu operace.
+	 * @throws IllegalArgumentException pokud některý z limitů není správně zapsán.
+	 */
+	static Map<String, Long> parseOperationTimeouts(String[] values) {
+		Map<String, Long> result = new HashMap<String, Long>();
+		if (values == null) {
+			return result;
+		}
+		for (String value : values) {
+			if (StringUtil.isBlank(value)) {
+				continue;
+			}
+			int index = value.indexOf('=');
+			if (index <= 0) {
+				throw new IllegalArgumentException("Invalid operation timeout " + value + ".");
+			}
+			try {
+				long timeout = Long.parseLong(value.substring(index + 1).trim());
+				if (timeout < 0) {
+					throw new IllegalArgumentException("Operation timeout " + value + " must not be negative.");
+				}
+				result.put(value.substring(0, index).trim(), timeout);
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Invalid operation timeout " + value + ".");
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Metoda vytvoří konfiguraci pro jednoho hostitele flotily. Kopie má stejné parametry
+	 * jako tato konfigurace, ale jediným hostitelem je zadaný host a režim flotily je vypnutý.
+	 * 
+	 * @param host hostitel flotily.
+	 * @return Konfigurace hostitele.
+	 */
+	SSHConfiguration createHostConfiguration(SSHHostGroup.Host host) {
+		try {
+			SSHConfiguration cfg = (SSHConfiguration) clone();
+			cfg.setHost(host.getHost());
+			cfg.setPort(host.getPort());
+			cfg.setHosts(null);
+			cfg.setFleetMode(false);
+			return cfg;
+		} catch (CloneNotSupportedException ex) {
+			throw new IllegalStateException("Cannot copy configuration.", ex);
+		}
+	}
+	
 	/**
 	 * Validuje konfiguraci konektoru. Kontroluje, zda jsou nastaveny všechny potřebné parametry.
 	 * Implementace by měla pouze kontrolovat syntaktickou stránku, tjn. jestli jsou vsechny potřebné
@@ -379,7 +767,53 @@ public class SSHConfiguration extends AbstractConfiguration {
 		} 
 		if (!getEscapeMode().equals(SSHMessages.SSH_ESCAPE_MODE_DOUBLED) && !getEscapeMode().equals(SSHMessages.SSH_ESCAPE_MODE_BACKSLASH)) {
 			throw new IllegalArgumentException("Escape mode must be BACKSLASH or DOUBLED");
-		}    	
+		}
+		if (getSessionPoolMaxSize() < 1) {
+			throw new IllegalArgumentException("Session pool max size must be at least 1.");
+		}
+		if (getSessionPoolMinSize() < 0 || getSessionPoolMinSize() > getSessionPoolMaxSize()) {
+			throw new IllegalArgumentException("Session pool min size must be between 0 and session pool max size.");
+		}
+		if (getSessionIdleTimeout() < 0 || getSessionMaxLifetime() < 0) {
+			throw new IllegalArgumentException("Session idle timeout and max lifetime must not be negative.");
+		}
+		if (getMaxChannelsPerSession() < 1) {
+			throw new IllegalArgumentException("Max channels per session must be at least 1.");
+		}
+		if (getBatchSize() < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1.");
+		}
+		if (getObjectCacheTtl() < 0 || getObjectCacheMaxEntries() < 0) {
+			throw new IllegalArgumentException("Object cache TTL and max entries must not be negative.");
+		}
+		if (getSchemaCacheTtl() < 0) {
+			throw new IllegalArgumentException("Schema cache TTL must not be negative.");
+		}
+		if (getParallelFetchThreads() < 0) {
+			throw new IllegalArgumentException("Parallel fetch threads must not be negative.");
+		}
+		if (!getHostSelectionPolicy().equals(SSHMessages.SSH_HOST_SELECTION_ROUND_ROBIN)
+				&& !getHostSelectionPolicy().equals(SSHMessages.SSH_HOST_SELECTION_LEAST_OUTSTANDING)
+				&& !getHostSelectionPolicy().equals(SSHMessages.SSH_HOST_SELECTION_PRIMARY_FOR_WRITES)) {
+			throw new IllegalArgumentException("Host selection policy must be ROUND_ROBIN, LEAST_OUTSTANDING or PRIMARY_FOR_WRITES.");
+		}
+		SSHHostGroup.parseHosts(this);
+		if (getHostRetryInterval() < 0) {
+			throw new IllegalArgumentException("Host retry interval must not be negative.");
+		}
+		if (getFleetParallelism() < 1) {
+			throw new IllegalArgumentException("Fleet parallelism must be at least 1.");
+		}
+		if (getCircuitBreakerThreshold() < 0) {
+			throw new IllegalArgumentException("Circuit breaker threshold must not be negative.");
+		}
+		if (getCircuitBreakerProbeInterval() < 1) {
+			throw new IllegalArgumentException("Circuit breaker probe interval must be at least 1 ms.");
+		}
+		if (getOperationTimeout() < 0) {
+			throw new IllegalArgumentException("Operation timeout must not be negative.");
+		}
+		parseOperationTimeouts(getOperationTimeouts());
 	}    
     
 }
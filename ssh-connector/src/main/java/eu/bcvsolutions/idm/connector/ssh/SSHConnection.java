@@ -22,12 +22,15 @@
 package eu.bcvsolutions.idm.connector.ssh;
 
 
-import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
 
 import com.jcraft.jsch.HostKey;
 import com.jcraft.jsch.HostKeyRepository;
@@ -37,7 +40,10 @@ import com.jcraft.jsch.Session;
 import com.jcraft.jsch.UserInfo;
 
 /**
- * Třída zajišťující SSH spojení s koncovým systémem.
+ * Třída zajišťující SSH spojení s koncovým systémem. Pokud má systém více hostitelů,
+ * vybírá se hostitel pro každou operaci podle politiky výběru ({@link SSHHostGroup})
+ * a při selhání připojení se automaticky použije další hostitel. Relace se půjčují ze sdílených
+ * poolů ({@link SSHSessionPool}), nové relace navazuje sdílená továrna ({@link SSHSessionFactory}).
  * 
  * @author Jaromír Mlejnek 
  */
@@ -46,156 +52,192 @@ public class SSHConnection {
 	private static final Log log = Log.getLog(SSHConnection.class);	
 	
 	private SSHConfiguration config;
-	private Session session;
-	
+	private SSHSessionFactory factory;
+	private SSHHostGroup hostGroup;
+	//Pooly relaci jednotlivych hostitelu.
+	private final Map<SSHHostGroup.Host, SSHSessionPool> pools;
+	//Po ukonceni spojeni se relace nepujcuji, zapujcene relace se ale do poolu vraceji.
+	private volatile boolean disposed = false;
+
 	/**
 	 * Konstruktor třídy SSHConnection.
-	 * 
+	 *
 	 * @param cfg konfigurace, tj. instance třídy SSHConfiguration
 	 * @throws Exception
 	 */
 	public SSHConnection(SSHConfiguration cfg) throws Exception {
 		if (cfg == null) {
 			throw new Exception("Configuration not set");
-		}    	
-		config = cfg;    	    	    	    
-	} 
+		}
+		config = cfg;
+		factory = SSHSessionFactory.acquire(createConfigurationKey(cfg), cfg);
+		hostGroup = factory.getHostGroup();
+		pools = new LinkedHashMap<SSHHostGroup.Host, SSHSessionPool>();
+		for (SSHHostGroup.Host host : hostGroup.getHosts()) {
+			pools.put(host, SSHSessionPool.acquire(factory, host));
+		}
+	}
 	
 	/**
-	 * Metoda pro vytvoření spojení s koncovým systémem. Pokud je uveden privátní klíč, tak
-	 * se implicitně použije pro autentizaci. Jinak se použije dvojice uživatelské jméno a
-	 * heslo. Pokud je uveden otisk veřejného klíče serveru, ke kterému se připojujeme, tak
-	 * se použije pro jeho verifikaci.
-	 *  
-	 * @return Instance třídy Session. 
+	 * Metoda vytvoří klíč, který jednoznačně určuje parametry spojení dané konfigurace.
+	 * Instance konektoru se stejným klíčem mohou sdílet navázané relace. Citlivé údaje
+	 * jsou v klíči obsaženy pouze ve formě otisku.
+	 * 
+	 * @param cfg konfigurace konektoru.
+	 * @return Klíč konfigurace spojení.
 	 */
-	public Session startConnection() {		
-		String privateKey = asString(config.getPrivkey());    	    	    	
-		try {    		
-			if (!StringUtil.isBlank(privateKey)) {				
-				//Private key used for authentication
-				log.info("Private key used for authentication.");
-				createSSHConnectionWithPrivateKey(privateKey, config.getPrivkeyPassword());
-			} else {
-				//Authentication via password
-				log.info("Authentication via password.");
-				createSSHConnectionWithPassword(config.getPassword());
+	static String createConfigurationKey(SSHConfiguration cfg) {
+		StringBuilder st = new StringBuilder();
+		st.append(cfg.getHost()).append('\n');
+		st.append(cfg.getPort()).append('\n');
+		st.append(cfg.getUsername()).append('\n');
+		st.append(asString(cfg.getPassword())).append('\n');
+		st.append(asString(cfg.getPrivkey())).append('\n');
+		st.append(asString(cfg.getPrivkeyPassword())).append('\n');
+		st.append(asString(cfg.getHostkey())).append('\n');
+		st.append(cfg.getSessionPoolMinSize()).append('\n');
+		st.append(cfg.getSessionPoolMaxSize()).append('\n');
+		st.append(cfg.getMaxChannelsPerSession()).append('\n');
+		st.append(cfg.getSessionIdleTimeout()).append('\n');
+		st.append(cfg.getSessionMaxLifetime()).append('\n');
+		st.append(asString(cfg.getHosts())).append('\n');
+		st.append(cfg.getHostSelectionPolicy()).append('\n');
+		st.append(cfg.getHostRetryInterval()).append('\n');
+		st.append(cfg.getCircuitBreakerThreshold()).append('\n');
+		st.append(cfg.getCircuitBreakerProbeInterval());
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(st.toString().getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(cfg.getHost()).append(':').append(cfg.getPort()).append('/');
+			for (int i = 0; i < hash.length; i++) {
+				hex.append(String.format("%02x", hash[i]));
 			}
-		    	
-			session.connect(SSHConfiguration.CONNECTION_TIMEOUT);					
-			log.info("Succesfull connection.");
+			return hex.toString();
 		} catch (Exception ex) {
-			if (ex instanceof IOException) {
-				log.warn("IOException caught: " + ex.getMessage());
-			} else {
-				log.error("Connecting to server failed. {0}",ex.getMessage());
-				throw new ConnectionFailedException("Connecting to server failed.");
+			throw new IllegalStateException("Cannot create configuration key.", ex);
+		}
+	}
+
+	/**
+	 * Metoda zapůjčí z poolu navázanou relaci s jedním rezervovaným kanálem pro zápisovou
+	 * operaci. Relaci je nutné po použití kanálu vrátit metodou {@link #releaseSession(Session)}.
+	 *
+	 * @return Navázaná relace.
+	 */
+	public Session borrowSession() {
+		return borrowSession(true);
+	}
+
+	/**
+	 * Metoda zapůjčí navázanou relaci s jedním rezervovaným kanálem z poolu hostitele
+	 * vybraného podle politiky výběru. Pokud relaci u vybraného hostitele nelze získat,
+	 * zkusí se další hostitelé. Hostitelé odpojení jističem se přeskakují, pokud jsou odpojeni
+	 * všichni, metoda selže okamžitě. Relaci je nutné po použití kanálu vrátit metodou
+	 * {@link #releaseSession(Session)}.
+	 *
+	 * @param write zda jde o zápisovou operaci.
+	 * @return Navázaná relace.
+	 * @throws ConnectionFailedException pokud se relaci nepodaří získat u žádného hostitele.
+	 * @throws ConnectorException pokud již bylo spojení ukončeno.
+	 */
+	public Session borrowSession(boolean write) {
+		return borrowSession(hostGroup.select(write));
+	}
+
+	/**
+	 * Metoda zapůjčí navázanou relaci s jedním rezervovaným kanálem z poolu primárního
+	 * hostitele. Pokud relaci u primárního hostitele nelze získat, další hostitelé se nezkouší.
+	 *
+	 * @return Navázaná relace k primárnímu hostiteli.
+	 * @throws ConnectionFailedException pokud se relaci nepodaří získat.
+	 * @throws ConnectorException pokud již bylo spojení ukončeno.
+	 * @see SSHHostGroup#selectPrimary()
+	 */
+	public Session borrowPrimarySession() {
+		return borrowSession(hostGroup.selectPrimary());
+	}
+
+	/**
+	 * Metoda zapůjčí relaci od prvního ze zadaných hostitelů, u kterého ji lze získat.
+	 *
+	 * @param hosts hostitelé v pořadí, ve kterém se mají zkoušet.
+	 * @return Navázaná relace.
+	 */
+	private Session borrowSession(List<SSHHostGroup.Host> hosts) {
+		if (disposed) {
+			throw new ConnectorException("Connection is disposed.");
+		}
+		ConnectionFailedException failure = null;
+		for (SSHHostGroup.Host host : hosts) {
+			if (failure != null) {
+				log.warn("Cannot get SSH session, trying host {0}. {1}", host, failure.getMessage());
+			}
+			if (!host.allowRequest()) {
+				failure = new ConnectionFailedException("Host " + host + " is unavailable, circuit breaker is open.");
+				continue;
+			}
+			try {
+				Session session = pools.get(host).borrowSession();
+				if (!host.isAvailable()) {
+					//Zkusebni operace dostala relaci z poolu bez noveho pripojeni.
+					hostGroup.markAvailable(host);
+				}
+				host.operationStarted();
+				return session;
+			} catch (ConnectionFailedException ex) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw ex;
+				}
+				failure = ex;
 			}
-		} finally {
-			//clear user password
-			session.setPassword("");
 		}
-		return session;
+		throw failure;
 	}
-    
-    /**
-     * Metoda slouží pro vytvořeni SSH spojení s koncovým systémem při autentizaci 
-     * uživatelským jménem a heslem.
-     * 
-     * @param password heslo obsažené v instanci třídy GuardedString.
-     * @throws JSchException
-     */
-    private void createSSHConnectionWithPassword(final GuardedString password) throws JSchException {    	    	    	
-    	JSch jsch = new JSch();    	
-    	session = createSession(jsch);    	
-    	session.setPassword(asString(password));		
-    	
-    	setHostHashCheckingIfNeeded(jsch, session);				    	
-    }
-    
-    
-    /**
-     * Metoda slouží k vytvoření SSH spojení s koncovým systémem při autentizaci 
-     * uživatelským jménem a heslem.  
-     * 
-     * @param privateKey privátní klíč uživatele (uzožen v jednom String řetezci).
-     * @param keyPassword heslo k privátnímu klíči, pokud je uvedeno.
-     * @throws JSchException
-     */
-    private void createSSHConnectionWithPrivateKey(String privateKey, final GuardedString keyPassword) throws JSchException {    	    	    	       	
-    	privateKey = privateKey.replaceFirst("\\n(DEK-Info:[^\\n]+\\n)([^\\r\\n]+)", "$1\n$2");    	        	    	    	    	    	
-    	
-    	String hostkey = asString(config.getHostkey());
-    	String username = config.getUsername();
-    	
-    	JSch jsch = new JSch();
-    	
-    	session = createSession(jsch);
-  
-    	//radek nize je tu kvuli tomu, aby se preskakovala moznost autentizace gssapi-with-mic,
-    	//ktera v tomto pripade stejne nemuze uspet a zapisuje do logu vyjimku
-    	session.setConfig("PreferredAuthentications","publickey,keyboard-interactive,password");
-    	
-    	
-    	//Nacteme si pripadne heslo ke klici a otisk verejneho klice serveru.
-    	boolean isKeyPasswd = (StringUtil.isBlank(asString(keyPassword))) ? false : true;
-    	boolean isHostKey = (StringUtil.isBlank(hostkey)) ? false : true;    	    
-    	
-    	if (!isKeyPasswd) {
-    		if (!isHostKey) {    			
-    			log.info("Use private key - no key password, no host key.");    			
-    			jsch.addIdentity(username, privateKey.getBytes(), null, null);
-    		} else {
-    			log.info("Use private key - no key password, specified host key.");    			
-    			jsch.addIdentity(username, privateKey.getBytes(), hostkey.getBytes(), null);
-    		}    	
-    	}  else {
-    		if (!isHostKey) {
-    			log.info("Use private key - with key password, no host key.");
-    			jsch.addIdentity(username, 
-    					privateKey.getBytes(), null, asString(keyPassword).getBytes());
-    		} else {
-    			log.info("Use private key - with key password, specified host key.");
-        		jsch.addIdentity(username, privateKey.getBytes(), 
-        				hostkey.getBytes(), asString(keyPassword).getBytes());
-    		}
-    	}    	
-    	
-    	setHostHashCheckingIfNeeded(jsch, session);    	    	
-    }
-    
-    /**
-     * Metoda pro vytvoření relace. Je nutné, aby bylo uvedeno uživatelské jméno, 
-     * adresa k serveru a číslo portu. 
-     * 
-     * @param jsch
-     * @return Vytvořenou relaci.
-     * @throws JSchException
-     */
-    private Session createSession(JSch jsch) throws JSchException {    	
-    	Session session = jsch.getSession(config.getUsername(), 
-    			config.getHost(), config.getPort());
-    	return session;
-    }
-        
-    /**
-     * Metoda zajišťující kontrolu otisku veřejného klíče (pokud je zadaný).
-     *  
-     * @param jsch
-     * @param session Relace, pro kterou se 
-     */
-    private void setHostHashCheckingIfNeeded(JSch jsch, Session session) {        
-        String hostKeyFingerPrint = asString(config.getHostkey());    	    	
-        
-        if (!StringUtil.isBlank(hostKeyFingerPrint)) {        	
-            HostFingerPrints fingerPrints = new HostFingerPrints(jsch);
-            session.setConfig("StrictHostKeyChecking", "yes");
-            fingerPrints.addFingerPrint(hostKeyFingerPrint);  
-            jsch.setHostKeyRepository(fingerPrints);
-        } else {
-            session.setConfig("StrictHostKeyChecking", "no");
-        }
-    }
+
+	/**
+	 * Metoda vrátí relaci zapůjčenou metodou {@link #borrowSession()} zpět do poolu.
+	 *
+	 * @param session zapůjčená relace.
+	 */
+	public void releaseSession(Session session) {
+		SSHHostGroup.Host host = hostGroup.getHost(session.getHost(), session.getPort());
+		if (host != null) {
+			host.operationFinished();
+			pools.get(host).releaseSession(session);
+		}
+	}
+
+	/**
+	 * Metoda uzavře zapůjčenou relaci, která již není použitelná.
+	 *
+	 * @param session zapůjčená relace.
+	 */
+	public void invalidateSession(Session session) {
+		SSHHostGroup.Host host = hostGroup.getHost(session.getHost(), session.getPort());
+		if (host != null) {
+			host.operationFinished();
+			pools.get(host).invalidateSession(session);
+		} else {
+			session.disconnect();
+		}
+	}
+
+	/**
+	 * Metoda vyřadí zapůjčenou relaci, ve které nelze otevírat další kanály. Relace se již
+	 * nebude půjčovat a uzavře se, jakmile v ní doběhnou ostatní kanály.
+	 *
+	 * @param session zapůjčená relace.
+	 */
+	public void retireSession(Session session) {
+		SSHHostGroup.Host host = hostGroup.getHost(session.getHost(), session.getPort());
+		if (host != null) {
+			host.operationFinished();
+			pools.get(host).retireSession(session);
+		} else {
+			session.disconnect();
+		}
+	}
+
     
     /**
      * Metoda navracející instanci třídy SSHConfiguration (konfigurační třídy).
@@ -211,20 +253,54 @@ public class SSHConnection {
 	 * {@inheritDoc}
 	 */
 	public void dispose() {
-		log.info("Dispose connection.");    	
-		if (session != null) {
-			session.disconnect();
+		log.info("Dispose connection.");
+		if (!disposed) {
+			disposed = true;
+			for (SSHSessionPool pool : pools.values()) {
+				pool.release();
+			}
+			factory.release();
+		}
+	}
+
+	/**
+	 * Metoda ověří, zda je spojení stále použitelné, a zkontroluje nečinné relace v poolech.
+	 * 
+	 * @throws ConnectorException pokud již bylo spojení ukončeno.
+	 */
+	public void checkAlive() {
+		if (disposed) {
+			throw new ConnectorException("Connection is disposed.");
+		}
+		for (SSHSessionPool pool : pools.values()) {
+			pool.checkAlive();
 		}
 	}
 	
 	/**
-	 * Metoda testující navázané spojení.
+	 * Metoda testující navázané spojení. Test se připojí ke všem hostitelům a selže pouze
+	 * v případě, že se nepodaří připojit k žádnému z nich.
 	 * {@inheritDoc}
 	 */
 	public void test() {
-		config.validate();    	
-		startConnection();
-		dispose();
+		config.validate();
+		ConnectionFailedException failure = null;
+		boolean connected = false;
+		for (SSHHostGroup.Host host : hostGroup.getHosts()) {
+			try {
+				Session session = factory.startConnection(host);
+				if (session != null) {
+					session.disconnect();
+				}
+				connected = true;
+			} catch (ConnectionFailedException ex) {
+				log.warn("Connecting to host {0} failed. {1}", host, ex.getMessage());
+				failure = ex;
+			}
+		}
+		if (!connected) {
+			throw failure;
+		}
 	}
     
     /**
@@ -21,27 +21,32 @@
 
 package eu.bcvsolutions.idm.connector.ssh;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import org.identityconnectors.common.StringUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.api.operations.ScriptOnResourceApiOp;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
 import org.identityconnectors.framework.common.objects.Attribute;
 import org.identityconnectors.framework.common.objects.AttributeBuilder;
 import org.identityconnectors.framework.common.objects.AttributeInfo;
@@ -58,28 +63,35 @@ import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.OperationalAttributes;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
+import org.identityconnectors.framework.common.objects.SyncDeltaType;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
 import org.identityconnectors.framework.common.objects.ScriptContext;
 import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.Connector;
+import org.identityconnectors.framework.spi.PoolableConnector;
 import org.identityconnectors.framework.spi.ConnectorClass;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.operations.AuthenticateOp;
 import org.identityconnectors.framework.spi.operations.CreateOp;
 import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.identityconnectors.framework.spi.operations.SchemaOp;
 import org.identityconnectors.framework.spi.operations.ScriptOnResourceOp;
 import org.identityconnectors.framework.spi.operations.SearchOp;
+import org.identityconnectors.framework.spi.operations.SyncOp;
 import org.identityconnectors.framework.spi.operations.TestOp;
 import org.identityconnectors.framework.spi.operations.UpdateOp;
 
 import com.csvreader.CsvReader;
 import com.csvreader.CsvWriter;
-import com.jcraft.jsch.Channel;
-import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.Session;
 
+import eu.bcvsolutions.idm.connector.ssh.filters.SSHFilterTranslator;
 import eu.bcvsolutions.idm.connector.ssh.filters.SSHGroupFilterTranslator;
 import eu.bcvsolutions.idm.connector.ssh.filters.SSHUserFilterTranslator;
 	
@@ -90,14 +102,35 @@ import eu.bcvsolutions.idm.connector.ssh.filters.SSHUserFilterTranslator;
  */
 @ConnectorClass(displayNameKey="SSH_Universal_Connector",
 		configurationClass = SSHConfiguration.class)
-public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<String>, 
-	UpdateOp, SchemaOp, TestOp, AuthenticateOp, ScriptOnResourceApiOp, ScriptOnResourceOp {
+public class SSHConnector implements PoolableConnector, CreateOp, DeleteOp, SearchOp<String>, 
+	UpdateOp, SchemaOp, TestOp, AuthenticateOp, ScriptOnResourceApiOp, ScriptOnResourceOp, SyncOp {
+	
+	/**
+	 * Název parametru operace (OperationOptions) s časovým limitem skriptů operace v milisekundách.
+	 * Přepisuje časové limity nastavené v konfiguraci.
+	 */
+	public static final String OP_TIMEOUT = "TIMEOUT";
 	
-	private static Schema schema;        
 	private static final String ENCODING = "UTF-8";
+	private static final int READ_BUFFER_SIZE = 8192;
+	
+	//Operace, ktere na koncovem systemu nic nemeni a mohou tedy bezet na libovolnem hostiteli.
+	private static final Set<String> READ_OPERATIONS = new HashSet<String>(Arrays.asList(
+			SSHMessages.SSH_GETUSER, SSHMessages.SSH_GETGROUP, SSHMessages.SSH_LISTOBJECTS,
+			SSHMessages.SSH_LISTOBJECTSFULL, SSHMessages.SSH_ATTRIBUTESLIST, SSHMessages.SSH_AUTHENTICATE,
+			SSHMessages.SSH_SEARCH));
+	//Operace se synchronizacnim tokenem, ktery plati jen pro jednoho hostitele. Bezi vzdy na primarnim hostiteli.
+	private static final Set<String> PRIMARY_OPERATIONS = new HashSet<String>(Arrays.asList(
+			SSHMessages.SSH_SYNC, SSHMessages.SSH_GETLATESTSYNCTOKEN));
 	
 	private SSHConfiguration config;
 	private SSHConnection connection;    
+	private SSHObjectCache objectCache;
+	private SSHMetrics metrics;
+	//Casove limity jednotlivych operaci podle konfigurace.
+	private Map<String, Long> operationTimeouts;
+	//Flotila hostitelu, pouze v rezimu flotily.
+	private SSHFleet fleet;
 	
 	private List<String> multiValueAttribs; 
 	
@@ -124,6 +157,12 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
 	    config = (SSHConfiguration)cfg;
 	    try {
 	    	connection = new SSHConnection(config);        	
+	    	objectCache = SSHObjectCache.getCache(config);
+	    	metrics = SSHMetrics.getMetrics(config);
+	    	operationTimeouts = SSHConfiguration.parseOperationTimeouts(config.getOperationTimeouts());
+	    	if (config.getFleetMode()) {
+	    		fleet = new SSHFleet(config);
+	    	}
 	    } catch (Exception ex){
 	    	log.error("Exception during initialization.");
 	    	ex.printStackTrace();
@@ -143,37 +182,68 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
 		if (connection != null) {
 			connection.dispose();    		
 		}
+		if (fleet != null) {
+			fleet.dispose();
+		}
+	}
+	
+	/**
+	 * Metoda ověřuje, zda je instance konektoru stále použitelná. Framework ji volá před
+	 * opětovným použitím instance z poolu konektorů. Nečinné relace v poolu relací se ověří
+	 * zprávou keepalive, nefunkční relace se uzavřou (další operace naváže novou).
+	 */
+	public void checkAlive() {
+		if (connection == null) {
+			throw new ConnectorException("Connector is not initialized.");
+		}
+		connection.checkAlive();
+		if (fleet != null) {
+			fleet.checkAlive();
+		}
 	}
 	
 	/**
 	 * Metoda spouštějící test spojení. Pokud není spojení s koncovým systémem navázáno, tak 
-	 * metoda vyhodí výjimku.
+	 * metoda vyhodí výjimku. V režimu flotily se testují všichni hostitelé.
 	 */
 	public void test() {    	
 		log.info("SSHConnector - test");
+		if (fleet != null) {
+			config.validate();
+			fleet.test();
+			return;
+		}
 		connection.test();   	
 	}    
     
 	/**
 	 * Metoda pro zakládání objektu daného typu (ACCOUNT nebo GROUP) na koncovém systému.
+	 * V režimu flotily se objekt založí na všech hostitelích.
 	 */
 	public Uid create(ObjectClass oclass, Set<Attribute> attrs, OperationOptions options) {    	    	    	
+		if (fleet != null) {
+			return SSHFleet.getUid(createOnFleet(oclass, attrs, options));
+		}
 		String operationName = ""; 
 		String pathToScript = "";
 	    Uid returnUid = null;    	        
 	  
-		if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
-			operationName = SSHMessages.SSH_CREATEUSER;   		
-			pathToScript = config.getCreateUser();    		
-			checkPathToScript(pathToScript, operationName);    		
-			returnUid = createOrUpdateUser(operationName, pathToScript, attrs);
-			
-		} else if (oclass.is(ObjectClass.GROUP_NAME)) {
-			operationName = SSHMessages.SSH_CREATEGROUP;
-			pathToScript = config.getCreateGroup();
-			checkPathToScript(pathToScript, operationName);
-			returnUid = createOrUpdateGroup(operationName, pathToScript, attrs);
-		} 
+	    try {
+	    	if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
+	    		operationName = SSHMessages.SSH_CREATEUSER;   		
+	    		pathToScript = config.getCreateUser();    		
+	    		checkPathToScript(pathToScript, operationName);    		
+	    		returnUid = createOrUpdateUser(operationName, pathToScript, attrs, options);
+	    		
+	    	} else if (oclass.is(ObjectClass.GROUP_NAME)) {
+	    		operationName = SSHMessages.SSH_CREATEGROUP;
+	    		pathToScript = config.getCreateGroup();
+	    		checkPathToScript(pathToScript, operationName);
+	    		returnUid = createOrUpdateGroup(operationName, pathToScript, attrs, options);
+	    	} 
+	    } finally {
+	    	invalidateCachedObject(oclass, attrs, returnUid);
+	    }
 	                   
 	    return returnUid;     	
 	}      
@@ -185,9 +255,11 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
 	 * @param operationName název prováděné operace.
 	 * @param pathToScript cesta k danému skriptu. 
 	 * @param attrs množina zadaných atributů. 
+	 * @param options parametry operace (časový limit).
 	 * @return Uid uživatelského účtu, který se vytvořil nebo měnil.
 	 */
-	private Uid createOrUpdateUser(String operationName, String pathToScript, Set<Attribute> attrs) {
+	private Uid createOrUpdateUser(String operationName, String pathToScript, Set<Attribute> attrs,
+			OperationOptions options) {
 		StringBuffer userHeader = new StringBuffer();
 	    List<String> dataForUserLine = new ArrayList<String>();
 	           
@@ -220,13 +292,11 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
 		userHeader = removeLastChar(userHeader);
 		
 		String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);		
-		String result = runCommand(pathToScript, scriptParams);	
+		String result = runCommand(pathToScript, scriptParams, options);	
 		
 		String accountUid = "";
 		try {
-			CsvReader reader = CsvReader.parse(result);
-			reader.setDelimiter(SSHConfiguration.DELIMITER);
-			reader.setEscapeMode(getCsvReaderMode());
+			SSHCsvDecoder reader = createCsvDecoder(result);
 			reader.readHeaders();
 			reader.readRecord();
 			accountUid = reader.get(0);
@@ -246,9 +316,11 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
      * @param operationName název prováděné operace.
      * @param pathToScript cesta k danému skriptu. 
      * @param attrs množina zadaných atributů. 
+     * @param options parametry operace (časový limit).
      * @return Uid skupiny, která se vytvořila nebo měnila.
      */
-    private Uid createOrUpdateGroup(String operationName, String pathToScript, Set<Attribute> attrs) {
+    private Uid createOrUpdateGroup(String operationName, String pathToScript, Set<Attribute> attrs,
+    		OperationOptions options) {
     	StringBuffer userHeader = new StringBuffer();
         List<String> dataForUserLine = new ArrayList<String>();
         
@@ -272,12 +344,10 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
 		userHeader = removeLastChar(userHeader);
 		
 		String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);				
-		String result = runCommand(pathToScript, scriptParams);
+		String result = runCommand(pathToScript, scriptParams, options);
 		String accountUid = "";
 		try {
-			CsvReader reader = CsvReader.parse(result);
-			reader.setDelimiter(SSHConfiguration.DELIMITER);
-			reader.setEscapeMode(getCsvReaderMode());
+			SSHCsvDecoder reader = createCsvDecoder(result);
 			reader.readHeaders();
 			reader.readRecord();			
 		} catch (IOException ioExc) {
@@ -298,7 +368,7 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
      * @param dataForUserLine hodnoty příslušných atributů.
      * @return Příkaz v podobě CSV textu, který očekávají skripty koncového systému. 
      */
-    private String createCommandCSV(String operationName, StringBuffer userHeader, List<String> dataForUserLine) {
+    String createCommandCSV(String operationName, StringBuffer userHeader, List<String> dataForUserLine) {
     	String result = "";
         try {
         	String userLine = getCSVLineFromStrings(dataForUserLine.toArray(new String [] {}));
@@ -367,9 +437,14 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     }
     
     /**
-     * Metoda pro smazání objektu (ACCOUNT nebo GROUP) na koncovém systému.
+     * Metoda pro smazání objektu (ACCOUNT nebo GROUP) na koncovém systému. V režimu flotily
+     * se objekt smaže na všech hostitelích.
      */
     public void delete(ObjectClass objClass, Uid uid, OperationOptions options) {    	
+    	if (fleet != null) {
+    		SSHFleet.getUid(deleteOnFleet(objClass, uid, options));
+    		return;
+    	}
     	String operationName = ""; 
     	String pathToScript = "";
     	StringBuffer userHeader = new StringBuffer();
@@ -391,13 +466,21 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     	String name = uid.getUidValue();    	
     	dataForUserLine.add(name);
     	String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);		    	
-    	runCommand(pathToScript, scriptParams);
+    	try {
+    		runCommand(pathToScript, scriptParams, options);
+    	} finally {
+    		invalidateCachedObject(objClass, null, uid);
+    	}
     }
     
     /**
-     * Matoda pro aktualizaci objektu na koncovém systému.
+     * Matoda pro aktualizaci objektu na koncovém systému. V režimu flotily se objekt
+     * aktualizuje na všech hostitelích.
      */
     public Uid update(ObjectClass objclass, Uid uid, Set<Attribute> replaceAttributes, OperationOptions options) {
+    	if (fleet != null) {
+    		return SSHFleet.getUid(updateOnFleet(objclass, uid, replaceAttributes, options));
+    	}
     	String operationName = ""; 
     	String pathToScript = "";
         Uid returnUid = null;        
@@ -407,76 +490,397 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     	attribs.add(new Name(uid.getUidValue()));
 		attribs.addAll(replaceAttributes);
 		        
-    	if (objclass.is(ObjectClass.ACCOUNT_NAME)) {
-    		operationName = SSHMessages.SSH_UPDATEUSER;    		
-    		pathToScript = config.getUpdateUser();  
-    		checkPathToScript(pathToScript, operationName);    		    		
-    		    		    		    		
-    		returnUid = createOrUpdateUser(operationName, pathToScript, attribs);    		
-    	} else if (objclass.is(ObjectClass.GROUP_NAME)) {
+    	try {
+    		if (objclass.is(ObjectClass.ACCOUNT_NAME)) {
+    			operationName = SSHMessages.SSH_UPDATEUSER;    		
+    			pathToScript = config.getUpdateUser();  
+    			checkPathToScript(pathToScript, operationName);    		    		
+    			
+    			returnUid = createOrUpdateUser(operationName, pathToScript, attribs, options);    		
+    		} else if (objclass.is(ObjectClass.GROUP_NAME)) {
+    			operationName = SSHMessages.SSH_UPDATEGROUP;
+    			pathToScript = config.getUpdateGroup();
+    			checkPathToScript(pathToScript, operationName);
+    			
+    			returnUid = createOrUpdateGroup(operationName, pathToScript, attribs, options);
+    		}                       
+    	} finally {
+    		invalidateCachedObject(objclass, null, uid);
+    		invalidateCachedObject(objclass, replaceAttributes, returnUid);
+    	}
+    	
+        return returnUid;    	
+    }
+    
+    /**
+     * Metoda pro dávkové zakládání objektů (ACCOUNT nebo GROUP) na koncovém systému. Objekty
+     * se předávají skriptu createUser (createGroup) jako více řádků CSV pod jednou hlavičkou,
+     * skript se tedy spouští pouze jednou pro celou dávku (nejvýše batchSize řádků).
+     * <p>
+     * Dávkové operace nejsou součástí SPI ConnId, přes ConnectorFacade tedy dostupné nejsou.
+     * Volají se přímo na inicializované instanci konektoru. V režimu flotily nejsou podporovány.
+     * 
+     * @param oclass třída zakládaných objektů.
+     * @param objects atributy jednotlivých objektů.
+     * @param options parametry operace.
+     * @return Výsledky pro jednotlivé objekty ve stejném pořadí, v jakém byly zadány.
+     * @throws ConnectorException v režimu flotily.
+     */
+    public List<SSHBatchResult> createBatch(ObjectClass oclass, List<Set<Attribute>> objects, OperationOptions options) {
+    	checkBatchSupported();
+    	String operationName;
+    	String pathToScript;
+    	if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
+    		operationName = SSHMessages.SSH_CREATEUSER;
+    		pathToScript = config.getCreateUser();
+    	} else if (oclass.is(ObjectClass.GROUP_NAME)) {
+    		operationName = SSHMessages.SSH_CREATEGROUP;
+    		pathToScript = config.getCreateGroup();
+    	} else {
+    		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");
+    	}
+    	checkPathToScript(pathToScript, operationName);
+    	return runBatch(oclass, operationName + SSHMessages.SSH_BATCH_SUFFIX, pathToScript, objects, options);
+    }
+    
+    /**
+     * Metoda pro dávkovou aktualizaci objektů (ACCOUNT nebo GROUP) na koncovém systému.
+     * 
+     * @param oclass třída měněných objektů.
+     * @param objects měněné atributy jednotlivých objektů podle jejich Uid.
+     * @param options parametry operace.
+     * @return Výsledky pro jednotlivé objekty ve stejném pořadí, v jakém je vrací iterátor mapy.
+     * @see #createBatch(ObjectClass, List, OperationOptions)
+     */
+    public List<SSHBatchResult> updateBatch(ObjectClass oclass, Map<Uid, Set<Attribute>> objects, OperationOptions options) {
+    	checkBatchSupported();
+    	String operationName;
+    	String pathToScript;
+    	if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
+    		operationName = SSHMessages.SSH_UPDATEUSER;
+    		pathToScript = config.getUpdateUser();
+    	} else if (oclass.is(ObjectClass.GROUP_NAME)) {
     		operationName = SSHMessages.SSH_UPDATEGROUP;
     		pathToScript = config.getUpdateGroup();
-    		checkPathToScript(pathToScript, operationName);
+    	} else {
+    		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");
+    	}
+    	checkPathToScript(pathToScript, operationName);
+    	
+    	List<Set<Attribute>> attribs = new ArrayList<Set<Attribute>>(objects.size());
+    	for (Map.Entry<Uid, Set<Attribute>> entry : objects.entrySet()) {
+    		//Pridame atribut identifikujici objekt (ucet nebo skupinu)
+    		Set<Attribute> attrs = new HashSet<Attribute>();
+    		attrs.add(new Name(entry.getKey().getUidValue()));
+    		attrs.addAll(entry.getValue());
+    		attribs.add(attrs);
+    	}
+    	return runBatch(oclass, operationName + SSHMessages.SSH_BATCH_SUFFIX, pathToScript, attribs, options);
+    }
+    
+    /**
+     * Metoda pro dávkové mazání objektů (ACCOUNT nebo GROUP) na koncovém systému.
+     * 
+     * @param oclass třída mazaných objektů.
+     * @param uids Uid mazaných objektů.
+     * @param options parametry operace.
+     * @return Výsledky pro jednotlivé objekty ve stejném pořadí, v jakém byly zadány.
+     * @see #createBatch(ObjectClass, List, OperationOptions)
+     */
+    public List<SSHBatchResult> deleteBatch(ObjectClass oclass, List<Uid> uids, OperationOptions options) {
+    	checkBatchSupported();
+    	String operationName;
+    	String pathToScript;
+    	if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
+    		operationName = SSHMessages.SSH_DELETEUSER;
+    		pathToScript = config.getDeleteUser();
+    	} else if (oclass.is(ObjectClass.GROUP_NAME)) {
+    		operationName = SSHMessages.SSH_DELETEGROUP;
+    		pathToScript = config.getDeleteGroup();
+    	} else {
+    		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");
+    	}
+    	checkPathToScript(pathToScript, operationName);
+    	
+    	List<Set<Attribute>> attribs = new ArrayList<Set<Attribute>>(uids.size());
+    	for (Uid uid : uids) {
+    		Set<Attribute> attrs = new HashSet<Attribute>();
+    		attrs.add(new Name(uid.getUidValue()));
+    		attribs.add(attrs);
+    	}
+    	return runBatch(oclass, operationName + SSHMessages.SSH_BATCH_SUFFIX, pathToScript, attribs, options);
+    }
+    
+    /**
+     * Metoda pro založení objektu na všech hostitelích flotily. Hostitelé se zpracovávají
+     * souběžně (nejvýše fleetParallelism najednou).
+     * 
+     * @param oclass třída zakládaného objektu.
+     * @param attrs atributy objektu.
+     * @param options parametry operace.
+     * @return Výsledky pro jednotlivé hostitele v pořadí, v jakém jsou uvedeni v konfiguraci.
+     */
+    public List<SSHFleetResult> createOnFleet(ObjectClass oclass, Set<Attribute> attrs, OperationOptions options) {
+    	return getFleet().create(oclass, attrs, options);
+    }
+    
+    /**
+     * Metoda pro aktualizaci objektu na všech hostitelích flotily.
+     * 
+     * @param oclass třída měněného objektu.
+     * @param uid Uid objektu.
+     * @param replaceAttributes měněné atributy.
+     * @param options parametry operace.
+     * @return Výsledky pro jednotlivé hostitele v pořadí, v jakém jsou uvedeni v konfiguraci.
+     * @see #createOnFleet(ObjectClass, Set, OperationOptions)
+     */
+    public List<SSHFleetResult> updateOnFleet(ObjectClass oclass, Uid uid, Set<Attribute> replaceAttributes,
+    		OperationOptions options) {
+    	return getFleet().update(oclass, uid, replaceAttributes, options);
+    }
+    
+    /**
+     * Metoda pro smazání objektu na všech hostitelích flotily.
+     * 
+     * @param oclass třída mazaného objektu.
+     * @param uid Uid objektu.
+     * @param options parametry operace.
+     * @return Výsledky pro jednotlivé hostitele v pořadí, v jakém jsou uvedeni v konfiguraci.
+     * @see #createOnFleet(ObjectClass, Set, OperationOptions)
+     */
+    public List<SSHFleetResult> deleteOnFleet(ObjectClass oclass, Uid uid, OperationOptions options) {
+    	return getFleet().delete(oclass, uid, options);
+    }
+    
+    /**
+     * Metoda ověří, že lze spouštět dávkové operace. V režimu flotily by dávka proběhla pouze
+     * na jednom z hostitelů, proto se odmítne.
+     */
+    private void checkBatchSupported() {
+    	if (fleet != null) {
+    		throw new ConnectorException("Batch operations are not supported in fleet mode");
+    	}
+    }
+    
+    private SSHFleet getFleet() {
+    	if (fleet == null) {
+    		throw new ConnectorException("Fleet mode is not enabled.");
+    	}
+    	return fleet;
+    }
+    
+    /**
+     * Metoda provede dávkovou operaci. Objekty se seskupí podle množiny zadaných atributů
+     * (každá skupina má vlastní CSV hlavičku) a každá skupina se předá skriptu po dávkách
+     * nejvýše batchSize řádků. Skript vrací CSV s jedním řádkem pro každý řádek příkazu
+     * (ve stejném pořadí) se sloupci uid a error. Selhání celého skriptu se promítne
+     * do výsledků všech objektů dané dávky, ostatní dávky se provedou.
+     * 
+     * @param objClass třída objektů.
+     * @param operationName název prováděné operace.
+     * @param pathToScript cesta ke skriptu.
+     * @param objects atributy jednotlivých objektů.
+     * @param options parametry operace (časový limit).
+     * @return Výsledky pro jednotlivé objekty ve stejném pořadí, v jakém byly zadány.
+     */
+    private List<SSHBatchResult> runBatch(ObjectClass objClass, String operationName, String pathToScript, List<Set<Attribute>> objects,
+    		OperationOptions options) {
+    	SSHBatchResult[] results = new SSHBatchResult[objects.size()];
+    	
+    	//Seskupime objekty podle hlavicky, kazdy objekt si pamatuje svuj radek dat.
+    	Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+    	List<List<String>> lines = new ArrayList<List<String>>(objects.size());
+    	for (int i = 0; i < objects.size(); i++) {
+    		List<Attribute> attrs = new ArrayList<Attribute>(objects.get(i));
+    		Collections.sort(attrs, new Comparator<Attribute>() {
+				public int compare(Attribute a1, Attribute a2) {
+					return a1.getName().compareTo(a2.getName());
+				}
+			});
+    		StringBuffer header = new StringBuffer();
+    		List<String> data = new ArrayList<String>();
+    		for (Attribute attrib : attrs) {
+    			appendAttribute(objClass, attrib, header, data);
+    		}
+    		removeLastChar(header);
+    		lines.add(data);
     		
-    		returnUid = createOrUpdateGroup(operationName, pathToScript, attribs);
-    	}                       
+    		List<Integer> group = groups.get(header.toString());
+    		if (group == null) {
+    			group = new ArrayList<Integer>();
+    			groups.put(header.toString(), group);
+    		}
+    		group.add(i);
+    	}
     	
-        return returnUid;    	
+    	int batchSize = config.getBatchSize();
+    	for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+    		List<Integer> indexes = group.getValue();
+    		for (int from = 0; from < indexes.size(); from += batchSize) {
+    			List<Integer> batch = indexes.subList(from, Math.min(from + batchSize, indexes.size()));
+    			try {
+    				runBatchCommand(operationName, pathToScript, group.getKey(), batch, lines, results, options);
+    			} finally {
+    				for (Integer index : batch) {
+    					invalidateCachedObject(objClass, objects.get(index), results[index] == null ? null : results[index].getUid());
+    				}
+    			}
+    		}
+    	}
+    	return Arrays.asList(results);
+    }
+    
+    /**
+     * Metoda spustí skript pro jednu dávku objektů se stejnou hlavičkou a výsledky uloží
+     * do pole výsledků.
+     * 
+     * @param operationName název prováděné operace.
+     * @param pathToScript cesta ke skriptu.
+     * @param header CSV hlavička.
+     * @param batch indexy objektů v dávce.
+     * @param lines řádky dat všech objektů.
+     * @param results pole výsledků všech objektů.
+     * @param options parametry operace (časový limit).
+     */
+    private void runBatchCommand(String operationName, String pathToScript, String header, List<Integer> batch,
+    		List<List<String>> lines, SSHBatchResult[] results, OperationOptions options) {
+    	try {
+    		StringBuilder command = new StringBuilder();
+    		command.append(operationName).append('\n');
+    		command.append(header).append('\n');
+    		for (Integer index : batch) {
+    			List<String> data = lines.get(index);
+    			command.append(getCSVLineFromStrings(data.toArray(new String [] {}))).append('\n');
+    		}
+    		String result = runCommand(pathToScript, command.toString(), options);
+    		
+    		SSHCsvDecoder reader = createCsvDecoder(result);
+    		reader.readHeaders();
+    		for (Integer index : batch) {
+    			if (!reader.readRecord()) {
+    				results[index] = new SSHBatchResult(null, "No result returned by script.");
+    				continue;
+    			}
+    			String uid = reader.get(SSHMessages.SSH_HEADER_RESULT_UID);
+    			String error = reader.get(SSHMessages.SSH_HEADER_RESULT_ERROR);
+    			results[index] = new SSHBatchResult(StringUtil.isBlank(uid) ? null : new Uid(uid),
+    					StringUtil.isBlank(error) ? null : error);
+    		}
+    	} catch (IOException ioExc) {
+    		log.error("Exception during read from CSV file. \nError: {0}", ioExc.getMessage());
+    		for (Integer index : batch) {
+    			results[index] = new SSHBatchResult(null, ioExc.getMessage());
+    		}
+    	} catch (ConnectorException connExc) {
+    		for (Integer index : batch) {
+    			results[index] = new SSHBatchResult(null, connExc.getMessage());
+    		}
+    	}
+    }
+    
+    /**
+     * Metoda přidá atribut do CSV hlavičky a jeho hodnotu do řádku dat. Atribut Name se předává
+     * jako identifikátor objektu (AccountId nebo groupName), heslo účtu jako sloupec password.
+     * 
+     * @param objClass třída objektu.
+     * @param attrib přidávaný atribut.
+     * @param header CSV hlavička, každý sloupec je ukončen oddělovačem.
+     * @param data hodnoty atributů.
+     */
+    private void appendAttribute(ObjectClass objClass, Attribute attrib, StringBuffer header, List<String> data) {
+    	if (attrib.is(Name.NAME)) {
+    		header.append(getIdentifierName(objClass));
+    		data.add(getName(attrib));
+    	} else if (objClass.is(ObjectClass.ACCOUNT_NAME) && attrib.is(OperationalAttributes.PASSWORD_NAME)) {
+    		header.append(SSHMessages.SSH_HEADER_PASSWORD);
+    		data.add(getPassword(attrib));
+    	} else {
+    		header.append(attrib.getName());
+    		data.add(getAttributeValue(attrib));
+    	}
+    	header.append(SSHConfiguration.DELIMITER);
     }
     
 	/**
-	 * Metoda slouží pro spuštění dotazu nad objekty koncového systému.
+	 * Metoda slouží pro spuštění dotazu nad objekty koncového systému. V režimu flotily
+	 * se dotaz spustí na všech hostitelích a objekty se sloučí.
 	 */
 	public void executeQuery(ObjectClass oclass, String query, ResultsHandler handler, OperationOptions options) {    	    	
+		if (fleet != null) {
+			fleet.executeQuery(oclass, query, handler, options);
+			return;
+		}
 		ConnectorObject object = null;
-		if (query == null) {
-			//Vylistovat vsechny objekty dane tridy.
-			Session session = connection.startConnection();
-			Iterator<Name> it = getAllObjectNames(oclass).iterator();
-			Name m = null;
-			// String scriptParams;
-			try {
-				while (it.hasNext()) {
-					m = it.next();
-					// pri listovani uzivatelu nepotrebujeme volat dodatecny get na ucet
-					// rovnou tedy vytvorime connector object
-					ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
-					builder.setUid(m.getNameValue());
-					builder.setObjectClass(oclass);
-					builder.addAttribute(AttributeBuilder.build(Name.NAME, m.getNameValue()));
-					handler.handle(builder.build());
-					
-					// scriptParams = createGetQuery(oclass, m.getNameValue());				
-					// object = getConnectorObject(oclass, scriptParams, session);						
-					// if (object != null) {
-					//     handler.handle(builder.build());
-					// }							
-				}
-			} catch (ConnectorException ex) {
-				throw new ConnectorException(ex.getMessage());
-			} finally {
-				if (session != null && session.isConnected()) {
-					session.disconnect();
-				}
-			}			
-		} else {
-			//Vylistovat pouze zaznam odpovidajici danemu dotazu (query).			
-			object = getConnectorObject(oclass, query, null);			
+		Set<String> attributesToGet = getAttributesToGet(options);
+		String name = SSHFilterTranslator.parseEquals(query, getIdentifierName(oclass));
+		if (name != null) {
+			//Vylistovat pouze zaznam s danym identifikatorem.			
+			object = getCachedConnectorObject(oclass, createGetQuery(oclass, name, attributesToGet), attributesToGet, options);
 			if (object != null) {
 				handler.handle(object);
 			}
+		} else {
+			//Vylistovat vsechny objekty dane tridy (pripadne objekty odpovidajici filtru),
+			//zaznamy predavame handleru prubezne.
+			listObjects(oclass, query, handler, options);
 		}    	    	    	            
 	}
+	
+	/**
+	 * Metoda navrací objekt odpovídající GET dotazu. Pokud je zapnutá cache objektů, tak se
+	 * objekt nejprve hledá v ní a objekt načtený skriptem se do ní uloží
+	 * (pokud mezitím neproběhla změna některého objektu).
+	 * 
+	 * @param objClass třída objektu.
+	 * @param query GET dotaz ve formátu CSV.
+	 * @param attributesToGet požadované atributy nebo null pro všechny atributy.
+	 * @param options parametry operace (časový limit).
+	 * @return Nalezený objekt nebo null.
+	 */
+	private ConnectorObject getCachedConnectorObject(ObjectClass objClass, String query, Set<String> attributesToGet,
+			OperationOptions options) {
+		if (objectCache == null) {
+			return getConnectorObject(objClass, query, attributesToGet, options);
+		}
+		ConnectorObject object = objectCache.get(objClass, query);
+		if (object == null) {
+			//Generaci je nutne zjistit pred spustenim skriptu, viz SSHObjectCache.put.
+			long generation = objectCache.getGeneration();
+			object = getConnectorObject(objClass, query, attributesToGet, options);
+			if (object != null) {
+				objectCache.put(objClass, query, object, generation);
+			}
+		}
+		return object;
+	}
+	
+	/**
+	 * Metoda odstraní z cache objektů záznamy měněného objektu.
+	 * 
+	 * @param objClass třída objektu.
+	 * @param attrs atributy předané operaci, použije se z nich atribut Name (může být null).
+	 * @param uid Uid objektu (může být null).
+	 */
+	private void invalidateCachedObject(ObjectClass objClass, Set<Attribute> attrs, Uid uid) {
+		if (objectCache == null) {
+			return;
+		}
+		objectCache.invalidate(objClass, uid);
+		Name name = attrs == null ? null : AttributeUtil.getNameFromAttributes(attrs);
+		if (name != null) {
+			objectCache.invalidate(objClass, new Uid(name.getNameValue()));
+		}
+	}
     
     /**
      * Metoda vytváří příkaz ve formátu CSV pro vyhledání uživatele nebo skupiny daného jména.
      * 
      * @param objClass typ objektu.
      * @param name název hledaného objektu (uživatele nebo skupiny).
+     * @param attributesToGet požadované atributy nebo null pro všechny atributy.
      * @return Příslušný GET dotaz ve formátu CSV.
      */    
-	/*
-    private String createGetQuery(ObjectClass objClass, String name) {
+    private String createGetQuery(ObjectClass objClass, String name, Set<String> attributesToGet) {
     	String operationName;
     	StringBuffer header = new StringBuffer();
     	if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
@@ -488,9 +892,56 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     	} else {
     		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");    		
     	} 	    	
-    	return createCommandCSV(operationName, header, Arrays.asList(name));    	
+    	List<String> data = new ArrayList<String>();
+    	data.add(name);
+    	appendAttributesToGet(header, data, attributesToGet);
+    	return createCommandCSV(operationName, header, data);    	
+    }
+    
+    /**
+     * Metoda navrací názvy atributů, které se mají načíst (OperationOptions.getAttributesToGet()).
+     * Identifikátor (Uid a Name) skript vrací vždy, do seznamu se proto nepřidává.
+     * 
+     * @param options parametry operace (může být null).
+     * @return Názvy požadovaných atributů nebo null, pokud se mají načíst všechny atributy.
+     */
+    private Set<String> getAttributesToGet(OperationOptions options) {
+    	if (options == null || options.getAttributesToGet() == null) {
+    		return null;
+    	}
+    	Set<String> attributesToGet = new LinkedHashSet<String>();
+    	for (String name : options.getAttributesToGet()) {
+    		if (!Name.NAME.equals(name) && !Uid.NAME.equals(name)) {
+    			attributesToGet.add(name);
+    		}
+    	}
+    	return attributesToGet;
+    }
+    
+    /**
+     * Metoda přidá do příkazu sloupec attributesToGet se seznamem požadovaných atributů
+     * oddělených separátorem vícehodnotových atributů. Skript tak může vynechat atributy,
+     * jejichž načtení je drahé. Pokud se mají načíst všechny atributy, sloupec se nepřidá.
+     * 
+     * @param header hlavička příkazu.
+     * @param data hodnoty příkazu.
+     * @param attributesToGet požadované atributy nebo null pro všechny atributy.
+     */
+    private void appendAttributesToGet(StringBuffer header, List<String> data, Set<String> attributesToGet) {
+    	if (attributesToGet == null) {
+    		return;
+    	}
+    	StringBuilder value = new StringBuilder();
+    	for (String name : attributesToGet) {
+    		if (value.length() > 0) {
+    			value.append(config.getMultiValueAttributesSeparator());
+    		}
+    		value.append(name);
+    	}
+    	header.append(SSHConfiguration.DELIMITER);
+    	header.append(SSHMessages.SSH_HEADER_ATTRIBUTES_TO_GET);
+    	data.add(value.toString());
     }
-    */
     
     /**
      * Metoda navrací cestu ke skriptu pro vyhledání objektu.
@@ -516,85 +967,196 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     }
     
     /**
-     * Metoda navrací seznam identifikátorů (instance třídy Name) pro danou třídu objektů
-     * (ACCOUNT nebo GROUP).
+     * Metoda spustí skript listObjects pro danou třídu objektů (ACCOUNT nebo GROUP) a jednotlivé
+     * záznamy předává handleru průběžně, jak přichází z datového kanálu. Výstup skriptu se tedy
+     * nikdy nedrží v paměti celý. Pokud je nastaven skript listObjectsFull, tak se použije
+     * ten a objekty se vytvoří se všemi atributy, které skript vrátil.
+     * <p>
+     * Pokud IdM požaduje stránkování, tak se skriptu předá velikost stránky, offset a cookie
+     * a handleru typu SearchResultsHandler se na konci předá cookie další stránky.
+     * <p>
+     * Pokud skript listObjectsFull nastaven není a je nastaven počet vláken pro paralelní
+     * načítání, tak se každý vylistovaný objekt načte celý GET skriptem (viz {@link SSHParallelFetcher}).
+     * <p>
+     * Pokud je zadán filtr, tak se místo výpisu spustí skript search, kterému se filtr předá
+     * ve sloupci filter (viz {@link SSHFilterTranslator}). Skript vrací pouze objekty, které
+     * filtru odpovídají, a to se všemi atributy.
      * 
-     * @param objClass třída objektů, pro kterou chceme získat seznam identifikátorů.
-     * @return Seznam identifikátorů v podobě listu instancí třídy Name.
+     * @param objClass třída objektů, kterou chceme vylistovat.
+     * @param filter výraz filtru nebo null pro výpis všech objektů.
+     * @param handler handler, kterému se předávají nalezené objekty.
+     * @param options parametry operace (stránkování, požadované atributy).
      */
-    private List<Name> getAllObjectNames(ObjectClass objClass) {    	    	    	    	
-    	String operationName = SSHMessages.SSH_LISTOBJECTS; 
-    	String pathToScript = config.getListObjects();
+    private void listObjects(final ObjectClass objClass, String filter, final ResultsHandler handler,
+    		final OperationOptions options) {
+    	final boolean fullObjects = filter != null || !StringUtil.isBlank(config.getListObjectsFull());
+    	String operationName;
+    	String pathToScript;
+    	if (filter != null) {
+    		operationName = SSHMessages.SSH_SEARCH;
+    		pathToScript = config.getSearch();
+    	} else if (fullObjects) {
+    		operationName = SSHMessages.SSH_LISTOBJECTSFULL;
+    		pathToScript = config.getListObjectsFull();
+    	} else {
+    		operationName = SSHMessages.SSH_LISTOBJECTS;
+    		pathToScript = config.getListObjects();
+    	}
     	checkPathToScript(pathToScript, operationName);
     	
     	StringBuffer userHeader = new StringBuffer();
         List<String> dataForUserLine = new ArrayList<String>();                     	
-    	if (objClass.is(ObjectClass.ACCOUNT_NAME)) {    		
-    		dataForUserLine.add(SSHMessages.SSH_HEADER_USERS);    		
-    	} else if (objClass.is(ObjectClass.GROUP_NAME)) {    		
-    		dataForUserLine.add(SSHMessages.SSH_OBJECT_TYPE_GROUP);
-    	} else {
-    		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");
+    	dataForUserLine.add(getObjectTypeValue(objClass));
+    	userHeader.append(SSHMessages.SSH_HEADER_OBJECTTYPE);
+    	if (filter != null) {
+    		userHeader.append(SSHConfiguration.DELIMITER);
+    		userHeader.append(SSHMessages.SSH_HEADER_FILTER);
+    		dataForUserLine.add(filter);
     	}
+    	final Set<String> attributesToGet = getAttributesToGet(options);
+    	appendAttributesToGet(userHeader, dataForUserLine, attributesToGet);
     	
-    	userHeader.append(SSHMessages.SSH_HEADER_OBJECTTYPE);
-    	String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);
-    	String resCSV = runCommand(pathToScript, scriptParams);
+    	final PagedResults page = PagedResults.fromOptions(options);
+    	if (page != null) {
+    		userHeader.append(SSHConfiguration.DELIMITER);
+    		userHeader.append(SSHMessages.SSH_HEADER_PAGE_SIZE);
+    		userHeader.append(SSHConfiguration.DELIMITER);
+    		userHeader.append(SSHMessages.SSH_HEADER_PAGED_RESULTS_OFFSET);
+    		userHeader.append(SSHConfiguration.DELIMITER);
+    		userHeader.append(SSHMessages.SSH_HEADER_PAGED_RESULTS_COOKIE);
+    		dataForUserLine.add(String.valueOf(page.pageSize));
+    		dataForUserLine.add(options.getPagedResultsOffset() == null ? "" : String.valueOf(options.getPagedResultsOffset()));
+    		dataForUserLine.add(options.getPagedResultsCookie() == null ? "" : options.getPagedResultsCookie());
+    	}
+    	
+    	SSHParallelFetcher fetcher = null;
+    	if (!fullObjects && config.getParallelFetchThreads() > 0) {
+    		fetcher = new SSHParallelFetcher(handler, config.getParallelFetchThreads(), config.getParallelFetchOrdered()) {
+    			@Override
+    			protected ConnectorObject fetch(Uid uid) {
+    				return getCachedConnectorObject(objClass, createGetQuery(objClass, uid.getUidValue(), attributesToGet),
+    						attributesToGet, options);
+    			}
+    		};
+    	}
+    	final ResultsHandler listHandler = fetcher == null ? handler : fetcher;
     	
-    	//Zpracovani CSV souboru, ktery jsme obdrzeli od prislusneho skriptu.
-    	List<Name> result = null;
+    	String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);
     	try {
-    		result = getObjectNamesFromCSV(objClass, resCSV);
-    	} catch (IOException ioExc) {
-    		log.error("Exception during read from CSV file. \nError: {0}", ioExc.getMessage());
+    		runCommand(pathToScript, scriptParams, new CommandOutputProcessor() {
+    			public boolean process(InputStream in) throws IOException {
+    				return handleObjectsFromCSV(objClass, in, listHandler, fullObjects, page, attributesToGet);
+    			}
+    		}, options);
+    		if (fetcher != null) {
+    			fetcher.finish();
+    		}
+    	} finally {
+    		if (fetcher != null) {
+    			fetcher.close();
+    		}
     	}
     	
-    	return result;
+    	if (page != null && handler instanceof SearchResultsHandler) {
+    		((SearchResultsHandler) handler).handleResult(new SearchResult(page.nextCookie, page.remaining));
+    	}
     }
     
     /**
-     * Metoda pro získání listu identifikátorů objektů z CSV výstupu skriptu 
-     * koncového systému.
+     * Metoda čte CSV výstup skriptu listObjects (listObjectsFull) po jednotlivých záznamech,
+     * z každého záznamu vytvoří connector object a ihned ho předá handleru.
+     * <p>
+     * Při stránkování může skript na začátek výstupu vložit hlavičku s cookie další stránky
+     * a počtem zbývajících záznamů (sloupce pagedResultsCookie a remainingPagedResults),
+     * po které následuje běžný výpis. Pokud ji skript nevloží, tak stránkování neumí a stránka
+     * se vybere na straně konektoru (cookie je pak pořadí prvního záznamu další stránky).
      * 
      * @param objClass třída objektů.
-     * @param csvText výstup skriptu ve formátu CSV.
-     * @return List identifikátorů.
+     * @param in výstup skriptu ve formátu CSV.
+     * @param handler handler, kterému se předávají nalezené objekty.
+     * @param fullObjects true, pokud výstup obsahuje všechny atributy objektů, jinak pouze identifikátory.
+     * @param page požadovaná stránka nebo null, pokud se nestránkuje.
+     * @param attributesToGet požadované atributy nebo null pro všechny atributy.
+     * @return false, pokud zpracování skončilo dříve, než byl výstup přečten celý.
      * @throws IOException
      */
-    private List<Name> getObjectNamesFromCSV(ObjectClass objClass, String csvText) throws IOException {
-    	CsvReader reader = CsvReader.parse(csvText);
-    	reader.setDelimiter(SSHConfiguration.DELIMITER);
-    	reader.setEscapeMode(getCsvReaderMode());
-    	reader.readHeaders();
+    boolean handleObjectsFromCSV(ObjectClass objClass, InputStream in, ResultsHandler handler,
+    		boolean fullObjects, PagedResults page, Set<String> attributesToGet) throws IOException {
+    	SSHCsvDecoder reader = createCsvDecoder(in);
+    	if (!reader.readHeaders()) {
+    		return true;
+    	}
     	
-    	//Dle tridy hledaneho objektu urcime nazev hledaneho identifikatoru.
-    	//TODO Pokud bychom pouzili tridu Name, tak by to bylo lehci.
-    	String identName;
-    	if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-    		identName = SSHMessages.SSH_HEADER_ACCOUNTID;
-    	} else if (objClass.is(ObjectClass.GROUP_NAME)) {
-    		identName = SSHMessages.SSH_HEADER_GROUP_NAME;
-    	} else {
-    		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");
+    	boolean pagedByScript = false;
+    	if (page != null && SSHMessages.SSH_HEADER_PAGED_RESULTS_COOKIE.equals(reader.getHeader(0))) {
+    		//Skript strankuje sam, nacteme cookie dalsi stranky a pak teprve hlavicku vypisu.
+    		pagedByScript = true;
+    		if (reader.readRecord()) {
+    			page.nextCookie = StringUtil.isBlank(reader.get(SSHMessages.SSH_HEADER_PAGED_RESULTS_COOKIE)) 
+    					? null : reader.get(SSHMessages.SSH_HEADER_PAGED_RESULTS_COOKIE);
+    			String remaining = reader.get(SSHMessages.SSH_HEADER_REMAINING_PAGED_RESULTS);
+    			page.remaining = StringUtil.isBlank(remaining) ? -1 : Integer.parseInt(remaining.trim());
+    		}
+    		if (!reader.readHeaders()) {
+    			return true;
+    		}
     	}
-    	    	    	
-    	String columnName = "";
-    	String value = "";
-    	List<Name> names = new ArrayList<Name>();
+    	
+    	//Dle tridy hledaneho objektu urcime sloupec hledaneho identifikatoru.
+    	int identIndex = reader.getIndex(getIdentifierName(objClass));
+    	boolean pagedByConnector = page != null && !pagedByScript;
+    	int index = 0;
+    	int returned = 0;
+    	
+    	ConnectorObject object = null;
     	while (reader.readRecord()) {
-    		//Vzdy by mel byt pouze jeden sloupec, cyklus by nemel byt nutny.    		
-    		for (int i = 0; i < reader.getColumnCount(); i++) {
-    			columnName = reader.getHeader(i);
-									
-				if (columnName.equals(identName)) {
-					//Jedna se o identifikator					
-					value = reader.get(i); 
-					names.add(new Name(value));
-					break;
-				}				
-			}
-    	}    	
-    	return names;
+    		if (pagedByConnector) {
+    			if (index++ < page.skip) {
+    				continue;
+    			}
+    			if (returned >= page.pageSize) {
+    				//Existuje dalsi stranka, zbytek vystupu necteme. Aktualni zaznam je prvni na dalsi strance.
+    				page.nextCookie = String.valueOf(index - 1);
+    				return false;
+    			}
+    		}
+    		if (fullObjects) {
+    			object = createConnectorObject(objClass, reader, attributesToGet);
+    		} else {
+    			object = createConnectorObject(objClass, reader.get(identIndex));
+    		}
+    		if (object == null) {
+    			continue;
+    		}
+    		returned++;
+    		if (!handler.handle(object)) {
+    			return false;
+    		}
+    	}
+    	if (pagedByConnector) {
+    		page.remaining = 0;
+    	}
+    	return true;
+    }
+    
+    /**
+     * Metoda vytvoří connector object obsahující pouze identifikátor (výpis skriptem listObjects).
+     * 
+     * @param objClass třída objektu.
+     * @param value identifikátor objektu.
+     * @return Instance třídy ConnectorObject nebo null, pokud identifikátor není vyplněn.
+     */
+    private ConnectorObject createConnectorObject(ObjectClass objClass, String value) {
+    	if (StringUtil.isBlank(value)) {
+    		return null;
+    	}
+		// pri listovani uzivatelu nepotrebujeme volat dodatecny get na ucet
+		// rovnou tedy vytvorime connector object
+		ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+		builder.setUid(value);
+		builder.setObjectClass(objClass);
+		builder.addAttribute(AttributeBuilder.build(Name.NAME, value));
+		return builder.build();
     }
     
     /**
@@ -603,59 +1165,80 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
      * 
      * @param objClass určuje, jestli se jedná o ACCOUNT nebo GROUP.
      * @param scriptParams parametry GET skriptu ve formátu CSV.
-     * @param session session, která je použita pro provedeni příkazu, pokud je null, tak se výtvoří nová
-     * pouze pro tuto metodu.
-     * @return Instance třídy ConnectorObject odpovídající hledanému záznamu.
+     * @param attributesToGet požadované atributy nebo null pro všechny atributy.
+     * @param options parametry operace (časový limit).
+     * @return Instance třídy ConnectorObject odpovídající hledanému záznamu nebo null, pokud
+     * skript žádný záznam nevrátil.
+     * @throws ConnectorException pokud skript skončil chybou nebo jeho výstup nelze přečíst.
      */
-    private ConnectorObject getConnectorObject(ObjectClass objClass, String scriptParams, Session session) {
-    	ConnectorObjectBuilder builder = new ConnectorObjectBuilder();    	    
+    private ConnectorObject getConnectorObject(final ObjectClass objClass, String scriptParams,
+    		final Set<String> attributesToGet, OperationOptions options) {
     	String pathToScript = getPathToGetScript(objClass);
     	if (pathToScript == null) {
     		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");    		
     	}
-    	String result;
-    	
-		if (session == null) {
-			//Vytvorime si novou session.
-			result = runCommand(pathToScript, scriptParams);
-		} else {
-			//Pouzijeme danou session.
-			result = runCommand(pathToScript, scriptParams, session);
-		}    	
+    	final ConnectorObject[] result = new ConnectorObject[1];
+    	CommandOutputProcessor processor = new CommandOutputProcessor() {
+			public boolean process(InputStream in) throws IOException {
+				SSHCsvDecoder reader = createCsvDecoder(in);
+				//Chyba cteni se predava dal, nenacteny objekt se nesmi tvarit jako neexistujici.
+				reader.readHeaders();
+				//Mame pouze jeden zaznam, proto neiterujeme pres radky.
+				if (reader.readRecord()) {
+					result[0] = createConnectorObject(objClass, reader, attributesToGet);
+					if (result[0] == null) {
+						throw new ConnectorException("Get script returned a record without "
+								+ getIdentifierName(objClass) + ".");
+					}
+				}
+				//Zbytek vystupu docteme, aby byl k dispozici navratovy kod skriptu.
+				while (reader.readRecord()) {
+				}
+				return true;
+			}
+		};
+		runCommand(pathToScript, scriptParams, processor, options);
+		return result[0];
+    }
+    
+    /**
+     * Metoda vytvoří connector object z aktuálního záznamu CSV výstupu skriptu. Sloupec
+     * s identifikátorem se použije jako UID i Name, ostatní sloupce jako atributy. Sloupce, které
+     * nejsou mezi požadovanými atributy, se přeskočí a atributy se pro ně nevytváří.
+     * 
+     * @param objClass určuje, jestli se jedná o ACCOUNT nebo GROUP.
+     * @param reader dekodér s načtenou hlavičkou a aktuálním záznamem.
+     * @param attributesToGet požadované atributy nebo null pro všechny atributy.
+     * @return Instance třídy ConnectorObject nebo null, pokud záznam neobsahuje identifikátor.
+     * @throws IOException
+     */
+    ConnectorObject createConnectorObject(ObjectClass objClass, SSHCsvDecoder reader, Set<String> attributesToGet)
+    		throws IOException {
+    	ConnectorObjectBuilder builder = new ConnectorObjectBuilder();
+    	String identName = getIdentifierName(objClass);
     	boolean isSetUID = false;
     	
-    	CsvReader reader = CsvReader.parse(result);
-    	reader.setDelimiter(SSHConfiguration.DELIMITER);
-    	reader.setEscapeMode(getCsvReaderMode());
-    	
-    	try {
-			reader.readHeaders();						
-			String identName = "";
-			if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
-				identName = SSHMessages.SSH_HEADER_ACCOUNTID;
-			} else if (objClass.is(ObjectClass.GROUP_NAME)) {
-				identName = SSHMessages.SSH_HEADER_GROUP_NAME;
-			}			
-			
-			String columnName = "";
-			String value = "";			
-			//Mame pouze jeden zaznam, proto neiterujeme pres radky.
-			reader.readRecord();
-			for (int i = 0; i < reader.getColumnCount(); i++) {
-				columnName = reader.getHeader(i);
-				value = reader.get(i);					
-				if (columnName.equals(identName)) {
-					//Jedna se o identifikator, musi byt UID i Name nastaveno					
-					builder.setName(value);
-					builder.setUid(value);
-					isSetUID = true;
-				} else {
-					//Ostatni atributy
-					builder.addAttribute(createAttribute(columnName, value));
-				}								
-			}    			
-    	} catch (IOException ioExc) {
-    		log.error("Exception during read from CSV file. \nError: {0}", ioExc.getMessage());
+		String columnName = "";
+		String value = "";			
+		for (int i = 0; i < reader.getColumnCount(); i++) {
+			columnName = reader.getHeader(i);
+			value = reader.get(i);					
+			if (columnName.equals(identName)) {
+				//Jedna se o identifikator, musi byt UID i Name nastaveno					
+				builder.setName(value);
+				builder.setUid(value);
+				isSetUID = true;
+			} else if (columnName.equals(SSHMessages.SSH_HEADER_SYNC_TOKEN) 
+					|| columnName.equals(SSHMessages.SSH_HEADER_DELTA_TYPE)) {
+				//Ridici sloupce synchronizace nejsou atributy objektu
+				continue;
+			} else if (attributesToGet != null && !attributesToGet.contains(columnName)) {
+				//Atribut nebyl pozadovan, hodnotu ani nezpracovavame
+				continue;
+			} else {
+				//Ostatni atributy
+				builder.addAttribute(createAttribute(columnName, value));
+			}								
 		}
 		
     	builder.setObjectClass(objClass);
@@ -666,6 +1249,38 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     	}    	
     }
     
+    /**
+     * Metoda navrací hodnotu parametru objectType předávaného skriptům pro danou třídu objektů.
+     * 
+     * @param objClass třída objektů (ACCOUNT nebo GROUP).
+     * @return Hodnota parametru objectType.
+     */
+    private String getObjectTypeValue(ObjectClass objClass) {
+    	if (objClass.is(ObjectClass.ACCOUNT_NAME)) {    		
+    		return SSHMessages.SSH_HEADER_USERS;    		
+    	} else if (objClass.is(ObjectClass.GROUP_NAME)) {    		
+    		return SSHMessages.SSH_OBJECT_TYPE_GROUP;
+    	} else {
+    		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");
+    	}
+    }
+    
+    /**
+     * Metoda navrací název sloupce s identifikátorem objektu dané třídy.
+     * 
+     * @param objClass třída objektů (ACCOUNT nebo GROUP).
+     * @return Název sloupce s identifikátorem.
+     */
+    private String getIdentifierName(ObjectClass objClass) {
+    	if (objClass.is(ObjectClass.ACCOUNT_NAME)) {
+    		return SSHMessages.SSH_HEADER_ACCOUNTID;
+    	} else if (objClass.is(ObjectClass.GROUP_NAME)) {
+    		return SSHMessages.SSH_HEADER_GROUP_NAME;
+    	} else {
+    		throw new IllegalArgumentException("Bad object class. Must be ACCOUNT or GROUP.");
+    	}
+    }
+    
     /**
      * Metoda vytvoří atribut zadaného jména a přiřadí mu zadanou hodnotu (hodnoty).
      * 
@@ -673,13 +1288,12 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
      * @param value hodnota (hodnoty) atributu. 
      * @return Instance třídy Attribute.
      */
-    private Attribute createAttribute(String name, String value) {
+    Attribute createAttribute(String name, String value) {
     	Attribute attrib = null;    	
     	if (multiValueAttribs.contains(name)) {
     		//Skript navratil multi-value atribut. Rozparsujeme ho tedy dle urceneho delimiteru
     		//a ulozime do atributu jako List.
-    		String[] values = value.split(String.valueOf(config.getMultiValueAttributesSeparator()));
-    		attrib = AttributeBuilder.build(name, Arrays.asList(values));
+    		attrib = AttributeBuilder.build(name, SSHCsvDecoder.split(value, config.getMultiValueAttributesSeparator()));
     	} else {
     		//Jedna se o obycejny (jednohodnotovy) atribut.
     		attrib = AttributeBuilder.build(name, value);
@@ -691,53 +1305,224 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
 	 * Metoda navrací dle použité třídy objektů odpovídající filtr. 
 	 */
 	public FilterTranslator<String> createFilterTranslator(ObjectClass oclass, OperationOptions options) {
+		boolean searchEnabled = !StringUtil.isBlank(config.getSearch());
 		if (oclass.is(ObjectClass.ACCOUNT_NAME)) {
-			return new SSHUserFilterTranslator();
+			return new SSHUserFilterTranslator(searchEnabled);
 		} else if (oclass.is(ObjectClass.GROUP_NAME)) {
-			return new SSHGroupFilterTranslator();
+			return new SSHGroupFilterTranslator(searchEnabled);
 		}
 		return null;
+	}	
+	/**
+	 * Metoda pro inkrementální synchronizaci. Spustí skript sync, který vrátí objekty změněné
+	 * (nebo smazané) od zadaného tokenu. Záznamy se předávají handleru průběžně, jak přichází
+	 * z datového kanálu.
+	 */
+	public void sync(final ObjectClass objClass, final SyncToken token, final SyncResultsHandler handler, OperationOptions options) {
+		String operationName = SSHMessages.SSH_SYNC;
+		String pathToScript = config.getSync();
+		checkPathToScript(pathToScript, operationName);
+		
+		StringBuffer userHeader = new StringBuffer();
+		List<String> dataForUserLine = new ArrayList<String>();
+		userHeader.append(SSHMessages.SSH_HEADER_OBJECTTYPE);
+		userHeader.append(SSHConfiguration.DELIMITER);
+		userHeader.append(SSHMessages.SSH_HEADER_SYNC_TOKEN);
+		dataForUserLine.add(getObjectTypeValue(objClass));
+		dataForUserLine.add(token == null || token.getValue() == null ? "" : token.getValue().toString());
+		
+		String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);
+		runCommand(pathToScript, scriptParams, new CommandOutputProcessor() {
+			public boolean process(InputStream in) throws IOException {
+				return handleSyncDeltasFromCSV(objClass, in, token, handler);
+			}
+		}, options);
+	}
+	
+	/**
+	 * Metoda čte CSV výstup skriptu sync po jednotlivých záznamech a každý záznam předá handleru
+	 * jako změnu (SyncDelta). Sloupec syncToken obsahuje token změny, sloupec deltaType typ změny
+	 * (CREATE_OR_UPDATE, CREATE, UPDATE nebo DELETE, na velikosti písmen nezáleží), ostatní
+	 * sloupce jsou atributy objektu. Změna s prázdným tokenem dostane token předchozí změny
+	 * (případně token, od kterého synchronizace začala).
+	 * 
+	 * @param objClass třída objektů.
+	 * @param in výstup skriptu ve formátu CSV.
+	 * @param token token, od kterého synchronizace začala (může být null).
+	 * @param handler handler, kterému se předávají změny.
+	 * @return false, pokud handler ukončil zpracování dříve, než byl výstup přečten celý.
+	 * @throws IOException
+	 * @throws ConnectorException pokud má záznam neznámý typ změny nebo nemá žádný token.
+	 */
+	private boolean handleSyncDeltasFromCSV(ObjectClass objClass, InputStream in, SyncToken token,
+			SyncResultsHandler handler) throws IOException {
+		SSHCsvDecoder reader = createCsvDecoder(in);
+		if (!reader.readHeaders()) {
+			return true;
+		}
+		
+		int identIndex = reader.getIndex(getIdentifierName(objClass));
+		int deltaTypeIndex = reader.getIndex(SSHMessages.SSH_HEADER_DELTA_TYPE);
+		int tokenIndex = reader.getIndex(SSHMessages.SSH_HEADER_SYNC_TOKEN);
+		SyncToken lastToken = token == null || token.getValue() == null
+				|| StringUtil.isBlank(token.getValue().toString()) ? null : token;
+		int row = 0;
+		while (reader.readRecord()) {
+			row++;
+			String uid = reader.get(identIndex);
+			if (StringUtil.isBlank(uid)) {
+				continue;
+			}
+			String deltaToken = reader.get(tokenIndex);
+			if (!StringUtil.isBlank(deltaToken)) {
+				lastToken = new SyncToken(deltaToken);
+			} else if (lastToken == null) {
+				throw new ConnectorException("Sync record " + row + " (" + uid + ") has no " 
+						+ SSHMessages.SSH_HEADER_SYNC_TOKEN + ".");
+			}
+			SyncDeltaBuilder builder = new SyncDeltaBuilder();
+			builder.setToken(lastToken);
+			builder.setDeltaType(getSyncDeltaType(reader.get(deltaTypeIndex), row, uid));
+			builder.setObjectClass(objClass);
+			builder.setUid(new Uid(uid));
+			if (builder.getDeltaType() != SyncDeltaType.DELETE) {
+				builder.setObject(createConnectorObject(objClass, reader, null));
+			}
+			if (!handler.handle(builder.build())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Metoda převede hodnotu sloupce deltaType na typ změny. Na velikosti písmen nezáleží,
+	 * prázdná hodnota znamená CREATE_OR_UPDATE.
+	 * 
+	 * @param deltaType hodnota sloupce deltaType.
+	 * @param row pořadí záznamu ve výstupu skriptu.
+	 * @param uid identifikátor objektu záznamu.
+	 * @return Typ změny.
+	 * @throws ConnectorException pokud typ změny neexistuje.
+	 */
+	private SyncDeltaType getSyncDeltaType(String deltaType, int row, String uid) {
+		if (StringUtil.isBlank(deltaType)) {
+			return SyncDeltaType.CREATE_OR_UPDATE;
+		}
+		try {
+			return SyncDeltaType.valueOf(deltaType.trim().toUpperCase(Locale.ENGLISH));
+		} catch (IllegalArgumentException ex) {
+			throw new ConnectorException("Sync record " + row + " (" + uid + ") has unknown " 
+					+ SSHMessages.SSH_HEADER_DELTA_TYPE + " '" + deltaType + "'.", ex);
+		}
+	}
+	
+	/**
+	 * Metoda navrací aktuální synchronizační token, který vrátí skript sync.
+	 */
+	public SyncToken getLatestSyncToken(ObjectClass objClass) {
+		String operationName = SSHMessages.SSH_GETLATESTSYNCTOKEN;
+		String pathToScript = config.getSync();
+		checkPathToScript(pathToScript, operationName);
+		
+		StringBuffer userHeader = new StringBuffer(SSHMessages.SSH_HEADER_OBJECTTYPE);
+		List<String> dataForUserLine = new ArrayList<String>();
+		dataForUserLine.add(getObjectTypeValue(objClass));
+		
+		String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);
+		String result = runCommand(pathToScript, scriptParams, null);
+		
+		String token = "";
+		try {
+			SSHCsvDecoder reader = createCsvDecoder(result);
+			reader.readHeaders();
+			if (reader.readRecord()) {
+				token = reader.get(SSHMessages.SSH_HEADER_SYNC_TOKEN);
+			}
+		} catch (IOException ioExc) {
+			log.error("Exception during read from CSV file. \nError: {0}", ioExc.getMessage());
+		}
+		if (StringUtil.isBlank(token)) {
+			return null;
+		}
+		return new SyncToken(token);
 	}          
     
     /**
      * Metoda definující počáteční schéma atributů pro jednotlivé třídy objektů.
-     * Defaultní nastavení (koncovým systémem je Linux). 
+     * Defaultní nastavení (koncovým systémem je Linux). Schéma se ukládá do cache
+     * zvlášť pro každý koncový systém, případně i do souboru (viz {@link SSHSchemaCache}).
+     * Schéma, které skript nevrátil nebo které neobsahuje žádné atributy, se do cache neukládá.
+     * 
+     * @throws ConnectorException pokud výstup skriptu nelze zpracovat.
      */
     public Schema schema() {    	
+    	String key = SSHSchemaCache.createKey(config);
+    	Schema schema = SSHSchemaCache.getSchema(key, config.getSchemaCacheTtl());
     	if (schema != null) {
     		return schema;
     	}    	    
     	final SchemaBuilder schemaBuilder = new SchemaBuilder(getClass());    	
-    	    	    	
-    	String params = SSHMessages.SSH_ATTRIBUTESLIST + "\n";    	    	    	
-    	String res  = runCommand(config.getAttributesSchema(), params);
-    	
-    	CsvReader reader = CsvReader.parse(res);
-    	reader.setDelimiter(SSHConfiguration.DELIMITER);
-    	reader.setEscapeMode(getCsvReaderMode());    	
     	
-    	Set<AttributeInfo> attributesInfoSet = new HashSet<AttributeInfo>();    	    	
-    	ObjectClassInfo info = null;
-    	
-    	try {	    	    		    		
-	    	reader.readHeaders();	    	
-	    	while (reader.readRecord()) {	    		
-	    		attributesInfoSet.add(getAttributeInfoFromCSVReader(reader));
-	    	}	    				    	
-	    	
-	    	info = new ObjectClassInfoBuilder().addAllAttributeInfo(attributesInfoSet).build();
-    	} catch (IOException ioExc) {
-    		log.error("Exception during read from CSV file. \nError: {0}", ioExc.getMessage());
-    	} catch (ClassNotFoundException cnfe) {
-    		log.error("Class for given attribute was not found. \nError: {0}", cnfe.getMessage());
+    	Set<AttributeInfo> attributesInfoSet = null;
+    	String res = SSHSchemaCache.loadDefinition(key, config);
+    	if (res != null) {
+    		try {
+    			attributesInfoSet = readAttributeInfos(res);
+    		} catch (Exception ex) {
+    			log.warn("Cached schema cannot be read, loading it from the resource. {0}", ex.getMessage());
+    		}
+    	}
+    	boolean loaded = attributesInfoSet != null && !attributesInfoSet.isEmpty();
+    	long loadedAt = loaded ? SSHSchemaCache.getDefinitionTime(key, config) : System.currentTimeMillis();
+    	if (!loaded) {
+    		String params = SSHMessages.SSH_ATTRIBUTESLIST + "\n";    	    	    	
+    		res  = runCommand(config.getAttributesSchema(), params, null);
+    		try {
+    			attributesInfoSet = readAttributeInfos(res);
+    		} catch (IOException ioExc) {
+    			log.error("Exception during read from CSV file. \nError: {0}", ioExc.getMessage());
+    			throw new ConnectorException("Exception during read from CSV file.", ioExc);
+    		} catch (ClassNotFoundException cnfe) {
+    			log.error("Class for given attribute was not found. \nError: {0}", cnfe.getMessage());
+    			throw new ConnectorException("Class for given attribute was not found.", cnfe);
+    		}
     	}
     	
+    	ObjectClassInfo info = new ObjectClassInfoBuilder().addAllAttributeInfo(attributesInfoSet).build();
     	schemaBuilder.defineObjectClass(info);              	
     	schema = schemaBuilder.build();
+    	if (attributesInfoSet.isEmpty()) {
+    		//Prazdne schema se neuklada, pri dalsim volani se nacte znovu.
+    		log.warn("Script {0} returned no attributes, schema is not cached.", SSHMessages.SSH_ATTRIBUTESLIST);
+    		return schema;
+    	}
+    	if (!loaded) {
+    		SSHSchemaCache.storeDefinition(key, config, res);
+    	}
+    	SSHSchemaCache.putSchema(key, schema, loadedAt);
     	return schema;
     }    
     
-    private AttributeInfo getAttributeInfoFromCSVReader(CsvReader reader) throws IOException, ClassNotFoundException {
+    /**
+     * Metoda načte definice atributů z výstupu skriptu getAttributesSchema.
+     * 
+     * @param definition výstup skriptu.
+     * @return Definice atributů.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    private Set<AttributeInfo> readAttributeInfos(String definition) throws IOException, ClassNotFoundException {
+    	SSHCsvDecoder reader = createCsvDecoder(definition);
+    	Set<AttributeInfo> attributesInfoSet = new HashSet<AttributeInfo>();
+    	reader.readHeaders();
+    	while (reader.readRecord()) {
+    		attributesInfoSet.add(getAttributeInfoFromCSVReader(reader));
+    	}
+    	return attributesInfoSet;
+    }
+    
+    private AttributeInfo getAttributeInfoFromCSVReader(SSHCsvDecoder reader) throws IOException, ClassNotFoundException {
     	AttributeInfo attrInfo = null;
     	String attributeName, attributeType, attributeFlags;
     	    	
@@ -747,9 +1532,8 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     	
     	Set<Flags> flagSet = new TreeSet<Flags>();
     	if (attributeFlags != null && attributeFlags.length() > 0) {
-    		String[] flags = attributeFlags.split(String.valueOf(config.getMultiValueAttributesSeparator()));    		
-    		for (int i = 0; i < flags.length; i++ ) {
-    			flagSet.add(Flags.valueOf(flags[i]));
+    		for (String flag : SSHCsvDecoder.split(attributeFlags, config.getMultiValueAttributesSeparator())) {
+    			flagSet.add(Flags.valueOf(flag));
     		}
     	}
     	
@@ -772,122 +1556,311 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     }
     
     /**
-     * Metoda slouží pro spouštění skriptů na koncovém systému. Každé provádění skriptu
-     * se děje v samostatně session.
+     * Metoda slouží pro spouštění skriptů na koncovém systému. Skript se spustí v relaci
+     * zapůjčené z poolu, která se po provedení skriptu do poolu opět vrátí.
      * 
      * @param script cesta k příslušnému skriptu na koncovém systému.
      * @param scriptParams parametry (příkazy) předávané skriptu (CSV nebo jednoduché řetězce).
+     * @param options parametry operace (časový limit), může být null.
      * @return Výstup skriptu.
      * @throws ConnectorException
      */
-    private String runCommand(String script, String scriptParams) throws ConnectorException {
-    	String result = "";
-    	ChannelExec channel = null;
-    	ByteArrayOutputStream errorStream = null;
-    	try {    		
-    		
-    		channel = (ChannelExec)connection.startConnection().openChannel("exec");
-    		channel.setCommand(script);
-    		
-    		errorStream = new ByteArrayOutputStream();
-            channel.setErrStream(errorStream);
-            channel.setInputStream(null);
-            channel.setOutputStream(null);
-
-            channel.connect();          
-            try {
-                if (scriptParams != null && !scriptParams.equals("")) {
-                    writeCommandToChannel(channel, scriptParams);
-                }            	            	            	
-                result = retrieveCommandResult(channel);                                                
-            } catch (IOException ioExc) {
-            	log.error("Error during retrieving command result. {0}",ioExc.getMessage());            
-            } finally {
-                channel.disconnect();
-            }       
-                        
-            throwExceptionIfErrorOccured(channel, errorStream);
-            
-    	} catch (ConnectorException connExc) {
-    		throw new ConnectorException(connExc.getMessage());
-    	} catch (Exception ex) {
-    		log.error("Eror during running command. {0}",ex.getMessage());
-    	} finally {
-    		//stop connection
-    		dispose();
-    	}        	    	    	    	
-    	
-    	return result;
+    private String runCommand(String script, String scriptParams, OperationOptions options) throws ConnectorException {
+    	StringOutputProcessor processor = new StringOutputProcessor();
+    	runCommand(script, scriptParams, processor, options);
+    	return processor.getResult();
     }    
     
     /**
-     * Metoda slouží pro spouštění skriptů na koncovém systému. Skript je spuštěn v zadané session.
+     * Metoda slouží pro spouštění skriptů na koncovém systému. Výstup skriptu se nepřevádí
+     * na řetězec, ale přímo z datového kanálu ho čte zadaný zpracovatel. Hostitel, na kterém
+     * skript poběží, se vybírá podle toho, zda operace pouze čte (viz {@link #READ_OPERATIONS}),
+     * synchronizace běží vždy na primárním hostiteli (viz {@link #PRIMARY_OPERATIONS}).
+     * Skript se spouští neblokujícím {@link SSHCommandEngine}, metoda pouze zpracuje jeho
+     * výstup a počká na výsledek.
+     * <p>
+     * Pokud se v relaci nepodaří otevřít nebo připojit kanál (např. relaci mezitím ukončil server
+     * nebo je překročen limit kanálů serveru), relace se do poolu nevrátí a skript se jednou zkusí
+     * spustit v jiné relaci. Skript v kanále v takovém případě vůbec neběžel, opakování je tedy
+     * bezpečné i pro zápisové operace. Chyba po připojení kanálu (např. při zápisu příkazu) se
+     * neopakuje, protože skript už mohl běžet.
      * 
      * @param script cesta k příslušnému skriptu na koncovém systému.
      * @param scriptParams parametry (příkazy) předávané skriptu (CSV nebo jednoduché řetězce).
-     * @param session session, ve které bude spuštěn skript.
-     * @return Výstup skriptu.
+     * @param processor zpracovatel výstupu skriptu.
+     * @param options parametry operace (časový limit), může být null.
+     * @throws ConnectorException pokud skript nelze spustit nebo skončil chybou.
+     * @throws OperationTimeoutException pokud skript nedoběhl v časovém limitu operace.
+     */
+    private void runCommand(String script, String scriptParams, CommandOutputProcessor processor,
+    		OperationOptions options) throws ConnectorException {
+    	long timeout = getTimeout(SSHMetrics.getOperationName(scriptParams), options);
+    	boolean dispatched = !StringUtil.isBlank(config.getDispatcher());
+    	for (int attempt = 1; ; attempt++) {
+    		long start = System.nanoTime();
+    		Session session = borrowSession(script, scriptParams, start);
+    		SSHMetrics.Sample sample = startSample(session, script, scriptParams, start);
+    		boolean started = true;
+    		try {
+    			SSHCommandFuture future = startCommand(session, script, scriptParams, timeout);
+    			if (!dispatched) {
+    				sample.phase(SSHMetrics.PHASE_CHANNEL_OPEN);
+    			}
+    			Throwable failure = future.isDone() ? future.getFailure() : null;
+    			if (failure != null) {
+    				//Skript se vubec nepodarilo spustit, relace muze byt nepouzitelna.
+    				started = false;
+    				sample.fail();
+    				if (!dispatched && attempt == 1 && !future.isStarted()) {
+    					log.warn("Cannot start command {0}, retrying in another session. {1}", script,
+    							failure.getMessage());
+    					continue;
+    				}
+    				throwCommandFailure(failure, dispatched);
+    			}
+    			runCommand(script, future, processor, sample, timeout, dispatched);
+    			return;
+    		} catch (RuntimeException ex) {
+    			sample.fail();
+    			throw ex;
+    		} finally {
+    			if (started) {
+    				connection.releaseSession(session);
+    			} else {
+    				discardSession(session);
+    			}
+    			sample.stop();
+    		}
+    	}
+    }
+    
+    /**
+     * Metoda spustí skript na koncovém systému a nečeká na jeho doběhnutí. Relace se vrátí
+     * do poolu a měření se ukončí ve chvíli, kdy skript doběhne. Výstup skriptu je nutné
+     * průběžně číst (nebo skript přerušit), jinak se po zaplnění bufferu výstupu zastaví
+     * skript i ostatní kanály relace (viz {@link SSHCommandFuture#OUTPUT_BUFFER_SIZE}).
+     * <p>
+     * Metoda je určena pro volající, kteří chtějí z několika vláken řídit velké množství
+     * souběžně běžících skriptů.
+     * 
+     * @param script cesta k příslušnému skriptu na koncovém systému.
+     * @param scriptParams parametry (příkazy) předávané skriptu (CSV nebo jednoduché řetězce).
+     * @param options parametry operace (časový limit), může být null.
+     * @return Výsledek skriptu. Po vypršení časového limitu je skript ukončen a výsledek
+     * přerušen (viz {@link SSHCommandFuture#isTimedOut()}).
+     * @throws ConnectorException pokud se nepodařilo získat relaci.
+     */
+    public SSHCommandFuture runCommandAsync(String script, String scriptParams, OperationOptions options)
+    		throws ConnectorException {
+    	long timeout = getTimeout(SSHMetrics.getOperationName(scriptParams), options);
+    	long start = System.nanoTime();
+    	final Session session = borrowSession(script, scriptParams, start);
+    	final SSHMetrics.Sample sample = startSample(session, script, scriptParams, start);
+    	final SSHCommandFuture future = startCommand(session, script, scriptParams, timeout);
+    	//Vysledek dokonceny chybou hned po spusteni znamena, ze se nepodarilo otevrit kanal.
+    	final boolean started = !(future.isDone() && future.getFailure() != null);
+    	sample.phase(SSHMetrics.PHASE_CHANNEL_OPEN);
+    	future.addListener(new Runnable() {
+    		public void run() {
+    			if (started) {
+    				connection.releaseSession(session);
+    			} else {
+    				discardSession(session);
+    			}
+    			sample.phase(SSHMetrics.PHASE_EXEC);
+    			sample.bytes(future.getBytesOut(), future.getBytesIn());
+    			if (future.isCancelled() || future.getFailure() != null) {
+    				sample.fail();
+    			} else {
+    				try {
+    					sample.exitStatus(future.get());
+    				} catch (Exception ex) {
+    					sample.fail();
+    				}
+    			}
+    			sample.stop();
+    		}
+    	});
+    	return future;
+    }
+    
+    /**
+     * Metoda zapůjčí z poolu relaci pro spuštění skriptu. Pokud relaci nelze získat,
+     * zaznamená neúspěšné spuštění do metrik konfigurace. Operace se synchronizačním tokenem
+     * (viz {@link #PRIMARY_OPERATIONS}) dostanou vždy relaci k primárnímu hostiteli.
+     * 
+     * @param script cesta ke skriptu.
+     * @param scriptParams parametry skriptu (určují operaci).
+     * @param start začátek operace (System.nanoTime()).
+     * @return Zapůjčená relace.
+     */
+    private Session borrowSession(String script, String scriptParams, long start) {
+    	String operationName = SSHMetrics.getOperationName(scriptParams);
+    	try {
+    		if (PRIMARY_OPERATIONS.contains(operationName)) {
+    			return connection.borrowPrimarySession();
+    		}
+    		return connection.borrowSession(!READ_OPERATIONS.contains(operationName));
+    	} catch (RuntimeException ex) {
+    		SSHMetrics.Sample sample = metrics.start(script, scriptParams, start);
+    		sample.fail();
+    		sample.stop();
+    		throw ex;
+    	}
+    }
+    
+    /**
+     * Metoda vyřadí relaci, ve které se nepodařilo spustit skript. Odpojená relace se ihned
+     * uzavře, připojená relace se již nebude půjčovat a uzavře se po doběhnutí ostatních
+     * kanálů, které v ní běží.
+     * 
+     * @param session zapůjčená relace.
+     */
+    private void discardSession(Session session) {
+    	if (session.isConnected()) {
+    		connection.retireSession(session);
+    	} else {
+    		connection.invalidateSession(session);
+    	}
+    }
+    
+    /**
+     * Metoda zahájí měření skriptu v metrikách hostitele, na kterém skript skutečně běží.
+     * Doba od začátku operace se zaznamená jako fáze handshake.
+     */
+    private SSHMetrics.Sample startSample(Session session, String script, String scriptParams, long start) {
+    	SSHMetrics.Sample sample = metrics.forHost(session.getHost(), session.getPort())
+    			.start(script, scriptParams, start);
+    	sample.phase(SSHMetrics.PHASE_HANDSHAKE);
+    	return sample;
+    }
+    
+    /**
+     * Metoda určí časový limit skriptu operace. Přednost má parametr operace {@link #OP_TIMEOUT},
+     * potom limit operace a nakonec obecný limit z konfigurace.
+     * 
+     * @param operationName název operace (první řádek parametrů skriptu).
+     * @param options parametry operace, může být null.
+     * @return Časový limit v milisekundách (0 bez limitu).
+     */
+    private long getTimeout(String operationName, OperationOptions options) {
+    	Object timeout = options == null ? null : options.getOptions().get(OP_TIMEOUT);
+    	if (timeout instanceof Number) {
+    		return Math.max(0, ((Number) timeout).longValue());
+    	}
+    	if (timeout != null) {
+    		throw new IllegalArgumentException("Operation option " + OP_TIMEOUT + " must be a number.");
+    	}
+    	Long operationTimeout = operationTimeouts == null ? null : operationTimeouts.get(operationName);
+    	return operationTimeout != null ? operationTimeout : config.getOperationTimeout();
+    }
+    
+    /**
+     * Metoda spustí skript v zadané relaci, případně prostřednictvím dispečera, pokud je
+     * nastaven.
+     */
+    private SSHCommandFuture startCommand(Session session, String script, String scriptParams, long timeout) {
+    	if (StringUtil.isBlank(config.getDispatcher())) {
+    		return SSHCommandEngine.execute(session, script, scriptParams, timeout);
+    	}
+    	return SSHCommandEngine.dispatch(session, config.getDispatcher(), script, scriptParams, timeout);
+    }
+    
+    /**
+     * Metoda zpracuje výstup spuštěného skriptu a počká na jeho doběhnutí. Jednotlivé fáze
+     * (běh skriptu a zpracování výstupu) zaznamená do zadaného měření.
+     * 
+     * @param script cesta k příslušnému skriptu na koncovém systému.
+     * @param future výsledek spuštěného skriptu.
+     * @param processor zpracovatel výstupu skriptu.
+     * @param sample měření spuštění skriptu.
+     * @param timeout časový limit skriptu v milisekundách (0 bez limitu).
+     * @param dispatched true, pokud skript spouštěl dispečer.
      * @throws ConnectorException
+     * @throws OperationTimeoutException pokud skript nedoběhl v časovém limitu.
      */
-    private String runCommand(String script, String scriptParams, Session session) throws ConnectorException {
-    	String result = "";
-    	ChannelExec channel = null;
-    	ByteArrayOutputStream errorStream = null;
-    	try {    		
-    		
-    		channel = (ChannelExec)session.openChannel("exec");
-    		channel.setCommand(script);
-    		
-    		errorStream = new ByteArrayOutputStream();
-            channel.setErrStream(errorStream);
-            channel.setInputStream(null);
-            channel.setOutputStream(null);
-
-            channel.connect();          
-            try {
-                if (scriptParams != null && !scriptParams.equals("")) {
-                    writeCommandToChannel(channel, scriptParams);
-                }            	            	            	
-                result = retrieveCommandResult(channel);                                                
-            } catch (IOException ioExc) {
-            	log.error("Error during retrieving command result. {0}",ioExc.getMessage());            
-            } finally {
-                channel.disconnect();
-            }       
-                        
-            throwExceptionIfErrorOccured(channel, errorStream);
-            
-    	} catch (ConnectorException connExc) {
-    		throw new ConnectorException(connExc.getMessage());
-    	} catch (Exception ex) {
-    		log.error("Eror during running command. {0}",ex.getMessage());
-    	}     	    	    	    	
-    	
-    	return result;
+    private void runCommand(String script, SSHCommandFuture future, CommandOutputProcessor processor,
+    		SSHMetrics.Sample sample, long timeout, boolean dispatched) throws ConnectorException {
+    	SSHMetrics.MeteredInputStream in = new SSHMetrics.MeteredInputStream(future.getOutput());
+    	long execStart = System.nanoTime();
+    	long parseNanos = 0;
+    	boolean completed = true;
+    	try {
+    		long processStart = System.nanoTime();
+    		completed = processor.process(in);
+    		//Cas zpracovani vystupu bez cekani na data z kanalu.
+    		parseNanos = System.nanoTime() - processStart - in.getReadNanos();
+    		//Vystup ukonceneho skriptu je neuplny, i kdyz ho zpracovatel precetl cely.
+    		throwIfTimedOut(future, script, timeout, sample);
+    		if (completed) {
+    			int exitStatus = future.get();
+    			sample.exitStatus(exitStatus);
+    			throwExceptionIfErrorOccured(exitStatus, future.getErrorOutput());
+    		}
+    	} catch (IOException ioExc) {
+    		throwIfTimedOut(future, script, timeout, sample);
+    		log.error("Error during retrieving command result. {0}",ioExc.getMessage());            
+    		throw new ConnectorException("Error during retrieving command result.", ioExc);
+    	} catch (CancellationException cancelExc) {
+    		throwIfTimedOut(future, script, timeout, sample);
+    		throw cancelExc;
+    	} catch (ExecutionException execExc) {
+    		throwCommandFailure(execExc.getCause(), dispatched);
+    	} catch (InterruptedException intExc) {
+    		Thread.currentThread().interrupt();
+    		throw new ConnectorException("Interrupted while waiting for command.", intExc);
+    	} finally {
+    		//Pokud zpracovani skoncilo predcasne, skript prerusime (navratovy kod nema vyznam).
+    		future.cancel(true);
+    		sample.phase(SSHMetrics.PHASE_EXEC, System.nanoTime() - execStart - parseNanos);
+    		sample.phase(SSHMetrics.PHASE_PARSE, parseNanos);
+    		sample.bytes(future.getBytesOut(), in.getBytes());
+    	}
     }
     
     /**
-     * Metoda pro zapsání příkazu do datového kanálu, ve kterém je přenášena na koncový systém.
+     * Metoda zpracuje chybu spuštění skriptu a předá ji volajícímu. Výsledek operace by bez
+     * výstupu skriptu nebyl úplný (např. nenalezený objekt nebo neúplný výpis).
      * 
-     * @param channel
-     * @param command přikaz, který se má provézt (ve formátu CSV).
-     * @throws IOException
+     * @param failure příčina chyby.
+     * @param dispatched true, pokud skript spouštěl dispečer.
+     * @throws ConnectorException
      */
-    private void writeCommandToChannel(Channel channel, String command) throws IOException {
-        OutputStream out = channel.getOutputStream();
-        try {
-            out.write(command.getBytes(ENCODING));
-            out.flush();
-        } catch (IOException ioExc) {
-        	log.error(ioExc.getMessage());        
-        } finally {
-            out.close();
-        }
-        
+    private void throwCommandFailure(Throwable failure, boolean dispatched) throws ConnectorException {
+    	if (failure instanceof ConnectorException) {
+    		throw (ConnectorException) failure;
+    	}
+    	if (dispatched) {
+    		log.error("Eror during running command through dispatcher. {0}",failure.getMessage());
+    		throw new ConnectorException("Error during running command through dispatcher.", failure);
+    	}
+    	log.error("Eror during running command. {0}",failure.getMessage());
+    	throw new ConnectorException("Error during running command.", failure);
+    }
+    
+    /**
+     * Metoda vyhodí výjimku, pokud byl skript ukončen kvůli vypršení časového limitu.
+     * Relace, ve které skript běžel, se vrací do poolu volajícím.
+     * 
+     * @param future výsledek skriptu.
+     * @param script cesta ke skriptu.
+     * @param timeout časový limit skriptu v milisekundách.
+     * @param sample měření spuštění skriptu.
+     * @throws OperationTimeoutException
+     */
+    private void throwIfTimedOut(SSHCommandFuture future, String script, long timeout, SSHMetrics.Sample sample)
+    		throws OperationTimeoutException {
+    	if (future.isTimedOut()) {
+    		sample.fail();
+    		String errMsg = "Command " + script + " did not finish within " + timeout + " ms.";
+    		log.error(errMsg);
+    		throw new OperationTimeoutException(errMsg);
+    	}
     }
     
     /**
-     * Metoda slouží pro konverzi dat ze vstupního proudu do Stringu.
+     * Metoda slouží pro konverzi dat ze vstupního proudu do Stringu. Data se čtou blokujícím
+     * čtením do jednoho rostoucího bufferu a dekódují se až na konci.
      * 
      * @param is vstupní proud.
      * @return Řetezcová reprezentace dat ve vstupní proudu.
@@ -895,57 +1868,32 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
      */
     private static String convertStreamToString(InputStream is) throws IOException {
         if (is != null) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is, ENCODING));
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append(System.getProperty("line.separator"));
+            ByteArrayOutputStream output = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
             }
-
-            return sb.toString();
+            return output.toString(ENCODING);
         } else {
             return "";
         }
     }
     
-    /**
-     * Metoda pro získání výsledku prováděného příkazu na koncovém systému.
-     * 
-     * @param channel
-     * @return Výstup prováděného příkazu.
-     * @throws IOException
-     */
-    private String retrieveCommandResult(Channel channel) throws IOException {        
-        channel.setInputStream(null);
-        InputStream in = channel.getInputStream();
-
-        String result = convertStreamToString(in);
-        while (!channel.isClosed()) {
-            try {
-                Thread.sleep(50);
-            } catch (Exception e) {
-            }
-            result += convertStreamToString(in);
-        }
-        
-        return result;
-    }
-    
     /**
      * Metoda kontroluje, zda se příkaz na koncovém systému provedl správně (s návratovou
      * hodnotou 0). Pokud tomu tak nebylo, tak vyhodí výjimku obsahující chybovou zprávu
      * obdrženou od odpovídajícího skriptu.
      * 
-     * @param channel
-     * @param errorStream proud s chybovým výstupem od skriptu.
+     * @param exitStatus návratový kód skriptu.
+     * @param errorOutput chybový výstup skriptu.
      * @throws ConnectorException
      */
-    private void throwExceptionIfErrorOccured(Channel channel, ByteArrayOutputStream errorStream) throws ConnectorException {
-        if (channel.getExitStatus() != 0) {
+    private void throwExceptionIfErrorOccured(int exitStatus, String errorOutput) throws ConnectorException {
+        if (exitStatus != 0) {
             String errMsg = String.format(
                     "Command returns status code '%d'. %s",
-                    channel.getExitStatus(), errorStream.toString()
+                    exitStatus, errorOutput
             );            
             log.error(errMsg);
             
@@ -960,7 +1908,7 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
      * @return Retězec ve formátu CSV obsahující zadaná data.
      * @throws IOException
      */
-    private String getCSVLineFromStrings(String [] data) throws IOException {        
+    String getCSVLineFromStrings(String [] data) throws IOException {        
 
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         CsvWriter writer = new CsvWriter(
@@ -976,6 +1924,26 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
         return result;
     }
     
+    /**
+     * Metoda vytvoří dekodér CSV výstupu skriptu s oddělovačem a "eskejpováním" z konfigurace.
+     * 
+     * @param in výstup skriptu.
+     * @return Dekodér výstupu.
+     */
+    private SSHCsvDecoder createCsvDecoder(InputStream in) {
+    	return new SSHCsvDecoder(in, SSHConfiguration.DELIMITER, getCsvReaderMode());
+    }
+    
+    /**
+     * Metoda vytvoří dekodér CSV výstupu skriptu již převedeného na řetězec.
+     * 
+     * @param result výstup skriptu.
+     * @return Dekodér výstupu.
+     */
+    private SSHCsvDecoder createCsvDecoder(String result) {
+    	return SSHCsvDecoder.parse(result, SSHConfiguration.DELIMITER, getCsvReaderMode());
+    }
+    
     /**
      * Metoda navrací kód vybrané metody "eskejpování" z konfigurace.
      * 
@@ -1078,7 +2046,7 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
         	dataForUserLine.add(accountId);
         	dataForUserLine.add(SSHConnection.asString(password));
         	String scriptParams = createCommandCSV(operationName, userHeader, dataForUserLine);		    	
-        	String result = runCommand(pathToScript, scriptParams);
+        	String result = runCommand(pathToScript, scriptParams, options);
     		if ((result == null) || (StringUtil.isBlank(result))) {
     			return null;
     		}
@@ -1091,6 +2059,76 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
     	
 	}
 
+	/**
+	 * Rozhraní pro zpracování výstupu skriptu přímo z datového kanálu.
+	 */
+	private interface CommandOutputProcessor {
+		
+		/**
+		 * Metoda zpracuje výstup skriptu.
+		 * 
+		 * @param in standardní výstup skriptu.
+		 * @return false, pokud zpracování skončilo dříve, než byl výstup přečten celý.
+		 * @throws IOException
+		 */
+		boolean process(InputStream in) throws IOException;
+	}
+	
+	/**
+	 * Požadovaná stránka výsledků vyhledávání a informace o následující stránce.
+	 */
+	static class PagedResults {
+		
+		private int pageSize;
+		//Pocet zaznamu, ktere se preskoci pri strankovani na strane konektoru.
+		private int skip = 0;
+		private String nextCookie = null;
+		private int remaining = -1;
+		
+		/**
+		 * Metoda vytvoří požadovanou stránku z parametrů operace.
+		 * 
+		 * @param options parametry operace.
+		 * @return Požadovaná stránka nebo null, pokud se nestránkuje.
+		 */
+		private static PagedResults fromOptions(OperationOptions options) {
+			if (options == null || options.getPageSize() == null || options.getPageSize() <= 0) {
+				return null;
+			}
+			PagedResults page = new PagedResults();
+			page.pageSize = options.getPageSize();
+			if (options.getPagedResultsCookie() != null) {
+				try {
+					page.skip = Math.max(0, Integer.parseInt(options.getPagedResultsCookie()));
+				} catch (NumberFormatException ex) {
+					//Cookie vytvoril skript, konektor ho pouze predava.
+					page.skip = 0;
+				}
+			} else if (options.getPagedResultsOffset() != null && options.getPagedResultsOffset() > 0) {
+				//Offset je cislovan od 1.
+				page.skip = options.getPagedResultsOffset() - 1;
+			}
+			return page;
+		}
+	}
+	
+	/**
+	 * Zpracovatel, který celý výstup skriptu uloží do řetězce.
+	 */
+	private static class StringOutputProcessor implements CommandOutputProcessor {
+		
+		private String result = "";
+		
+		public boolean process(InputStream in) throws IOException {
+			result = convertStreamToString(in);
+			return true;
+		}
+		
+		public String getResult() {
+			return result;
+		}
+	}
+	
 	/** Metoda pro spuštění skriptu na koncovém systému.
 	 * @param context obsahuje kontext spouštěného skriptu. V atributu language očekává "sh", 
 	 * v atributu text očekává cestu k příslušnému skriptu na koncovém systému,
@@ -1122,7 +2160,7 @@ public class SSHConnector implements Connector, CreateOp, DeleteOp, SearchOp<Str
 		if ("sh".equalsIgnoreCase(scriptLang)) {
 			String scriptParams = createCommandCSV("runScript", userHeader, dataForUserLine);
 			
-			result = runCommand(scriptText, scriptParams);
+			result = runCommand(scriptText, scriptParams, options);
 		} else {
 			throw new ConnectorException("Unsupported script language: " + scriptLang + ". Available languages: sh");
 		}
@@ -0,0 +1,490 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.csvreader.CsvReader;
+
+/**
+ * Dekodér CSV výstupu skriptů. Čte bajty přímo z datového kanálu a skládá z nich záznamy,
+ * výstup se tedy nemusí nejprve převádět na řetězec. Oddělovač, uvozovky, zpětné lomítko
+ * i konce řádků jsou ASCII znaky, které se v UTF-8 nemohou objevit uvnitř vícebajtového znaku,
+ * na řetězec se proto převádí až hodnota celého sloupce.
+ * <p>
+ * Chování odpovídá výchozímu nastavení CsvReader, který se používal dříve: hodnoty bez uvozovek
+ * se ořezávají o mezery a tabulátory a prázdné řádky se přeskakují. Podporovány jsou oba
+ * způsoby "eskejpování" (DOUBLED a BACKSLASH). Stejně jako v CsvReader se sekvence se zpětným
+ * lomítkem (\n, \r, \t, \b, \f, \e, \v, \a, \\uXXXX, \xXX, \oOOO, \OOO a \dDDD) dekódují
+ * pouze v hodnotách v uvozovkách, v ostatních hodnotách je zpětné lomítko obyčejný znak.
+ * Na rozdíl od CsvReader končí neúplná číselná sekvence prvním znakem, který není číslicí
+ * (CsvReader čte vždy pevný počet znaků), a osamocená náhradní polovina UTF-16 (surrogate)
+ * se dekóduje jako '?'.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHCsvDecoder {
+
+	public static final int ESCAPE_MODE_DOUBLED = CsvReader.ESCAPE_MODE_DOUBLED;
+	public static final int ESCAPE_MODE_BACKSLASH = CsvReader.ESCAPE_MODE_BACKSLASH;
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 8192;
+	private static final byte QUOTE = '"';
+	private static final byte BACKSLASH = '\\';
+
+	private final InputStream in;
+	private final byte delimiter;
+	private final int escapeMode;
+
+	//Buffer pro cteni vstupu
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+
+	//Buffer pro hodnotu prave cteneho sloupce
+	private byte[] field = new byte[256];
+	private int fieldLength = 0;
+	//Horni polovina znaku mimo BMP zadaneho sekvenci \\u, ceka na dolni polovinu.
+	private char highSurrogate = 0;
+
+	//Hodnoty aktualniho zaznamu
+	private String[] values = new String[16];
+	private int columnCount = 0;
+
+	private String[] headers = new String[0];
+	private Map<String, Integer> headerIndex = new HashMap<String, Integer>();
+
+	/**
+	 * Konstruktor třídy SSHCsvDecoder.
+	 *
+	 * @param in vstupní proud s CSV daty v kódování UTF-8.
+	 * @param delimiter oddělovač sloupců.
+	 * @param escapeMode způsob "eskejpování" ({@link #ESCAPE_MODE_DOUBLED} nebo {@link #ESCAPE_MODE_BACKSLASH}).
+	 */
+	public SSHCsvDecoder(InputStream in, char delimiter, int escapeMode) {
+		this.in = in;
+		this.delimiter = (byte) delimiter;
+		this.escapeMode = escapeMode;
+	}
+
+	/**
+	 * Metoda vytvoří dekodér pro CSV data již načtená v řetězci.
+	 *
+	 * @param data CSV data.
+	 * @param delimiter oddělovač sloupců.
+	 * @param escapeMode způsob "eskejpování".
+	 * @return Dekodér zadaných dat.
+	 */
+	public static SSHCsvDecoder parse(String data, char delimiter, int escapeMode) {
+		byte[] bytes = data == null ? new byte[0] : data.getBytes(CHARSET);
+		return new SSHCsvDecoder(new ByteArrayInputStream(bytes), delimiter, escapeMode);
+	}
+
+	/**
+	 * Metoda načte další záznam a použije ho jako hlavičku. Index sloupců podle názvu
+	 * se vytvoří pouze jednou pro celou hlavičku.
+	 *
+	 * @return false, pokud už na vstupu není žádný záznam.
+	 * @throws IOException
+	 */
+	public boolean readHeaders() throws IOException {
+		if (!readRecord()) {
+			return false;
+		}
+		headers = new String[columnCount];
+		System.arraycopy(values, 0, headers, 0, columnCount);
+		headerIndex = new HashMap<String, Integer>(columnCount * 2);
+		for (int i = 0; i < headers.length; i++) {
+			if (!headerIndex.containsKey(headers[i])) {
+				headerIndex.put(headers[i], i);
+			}
+		}
+		columnCount = 0;
+		return true;
+	}
+
+	/**
+	 * Metoda načte další záznam.
+	 *
+	 * @return false, pokud už na vstupu není žádný záznam.
+	 * @throws IOException
+	 */
+	public boolean readRecord() throws IOException {
+		while (true) {
+			columnCount = 0;
+			int b = read();
+			if (b == -1) {
+				return false;
+			}
+			//Prazdne radky preskakujeme
+			if (b == '\n') {
+				continue;
+			}
+			if (b == '\r') {
+				skipLineFeed();
+				continue;
+			}
+			readFields(b);
+			return true;
+		}
+	}
+
+	/**
+	 * Metoda čte sloupce jednoho záznamu až do konce řádku nebo vstupu. Řádek, který obsahuje
+	 * pouze mezery, je stejně jako v CsvReader záznam s jedním prázdným sloupcem.
+	 *
+	 * @param b první bajt záznamu (nikoli konec řádku).
+	 * @throws IOException
+	 */
+	private void readFields(int b) throws IOException {
+		boolean quoted = false;
+		boolean inQuotes = false;
+		boolean started = false;
+		int trimmedLength = 0;
+		fieldLength = 0;
+
+		while (true) {
+			if (inQuotes) {
+				if (b == -1) {
+					//Neukoncene uvozovky, vratime to, co mame.
+					flushSurrogate();
+					inQuotes = false;
+					continue;
+				}
+				if (b == QUOTE) {
+					if (escapeMode == ESCAPE_MODE_DOUBLED && peek() == QUOTE) {
+						read();
+						append(QUOTE);
+					} else {
+						flushSurrogate();
+						inQuotes = false;
+					}
+				} else if (b == BACKSLASH && escapeMode == ESCAPE_MODE_BACKSLASH) {
+					appendEscaped(read());
+				} else {
+					append(b);
+				}
+				trimmedLength = fieldLength;
+			} else if (b == delimiter) {
+				endField(quoted ? fieldLength : trimmedLength);
+				quoted = false;
+				started = false;
+				trimmedLength = 0;
+			} else if (b == '\n' || b == '\r' || b == -1) {
+				if (b == '\r') {
+					skipLineFeed();
+				}
+				endField(quoted ? fieldLength : trimmedLength);
+				return;
+			} else if (quoted) {
+				//Znaky mezi koncovou uvozovkou a oddelovacem ignorujeme.
+			} else if (!started && (b == ' ' || b == '\t')) {
+				//Uvodni mezery orezavame.
+			} else if (!started && b == QUOTE) {
+				started = true;
+				quoted = true;
+				inQuotes = true;
+			} else {
+				started = true;
+				append(b);
+				if (b != ' ' && b != '\t') {
+					trimmedLength = fieldLength;
+				}
+			}
+			b = read();
+		}
+	}
+
+	/**
+	 * Metoda dekóduje sekvenci se zpětným lomítkem uvnitř uvozovek.
+	 *
+	 * @param b znak následující po zpětném lomítku.
+	 * @throws IOException
+	 */
+	private void appendEscaped(int b) throws IOException {
+		switch (b) {
+		case -1:
+			append(BACKSLASH);
+			break;
+		case 'e':
+			append(0x1b);
+			break;
+		case 'v':
+			append(0x0b);
+			break;
+		case 'a':
+			append(0x07);
+			break;
+		case 'u':
+		case 'U':
+			appendNumber(b, 16, 4, 0);
+			break;
+		case 'x':
+		case 'X':
+			appendNumber(b, 16, 2, 0);
+			break;
+		case 'o':
+		case 'O':
+			appendNumber(b, 8, 3, 0);
+			break;
+		case 'd':
+		case 'D':
+			appendNumber(b, 10, 3, 0);
+			break;
+		case '0':
+		case '1':
+		case '2':
+		case '3':
+		case '4':
+		case '5':
+		case '6':
+		case '7':
+			appendChar((char) readNumber(8, 2, b - '0'));
+			break;
+		case 'n':
+			append('\n');
+			break;
+		case 'r':
+			append('\r');
+			break;
+		case 't':
+			append('\t');
+			break;
+		case 'b':
+			append('\b');
+			break;
+		case 'f':
+			append('\f');
+			break;
+		default:
+			append(b);
+		}
+	}
+
+	/**
+	 * Metoda dekóduje číselnou sekvenci (\\uXXXX, \xXX, \oOOO, \dDDD). Pokud za písmenem
+	 * sekvence nenásleduje žádná číslice, zapíše se samotné písmeno.
+	 *
+	 * @param letter písmeno sekvence.
+	 * @param radix soustava číslic.
+	 * @param digits počet číslic sekvence.
+	 * @param value počáteční hodnota.
+	 * @throws IOException
+	 */
+	private void appendNumber(int letter, int radix, int digits, int value) throws IOException {
+		if (Character.digit(peek(), radix) < 0) {
+			append(letter);
+			return;
+		}
+		appendChar((char) readNumber(radix, digits, value));
+	}
+
+	private int readNumber(int radix, int digits, int value) throws IOException {
+		for (int i = 0; i < digits; i++) {
+			int digit = Character.digit(peek(), radix);
+			if (digit < 0) {
+				break;
+			}
+			read();
+			value = value * radix + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Metoda zapíše znak zadaný sekvencí v kódování UTF-8. Znaky mimo BMP zadané dvojicí
+	 * sekvencí \\u se spojí.
+	 *
+	 * @param c znak.
+	 */
+	private void appendChar(char c) {
+		if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+			int codePoint = Character.toCodePoint(highSurrogate, c);
+			highSurrogate = 0;
+			append(0xf0 | codePoint >> 18);
+			append(0x80 | codePoint >> 12 & 0x3f);
+			append(0x80 | codePoint >> 6 & 0x3f);
+			append(0x80 | codePoint & 0x3f);
+		} else if (Character.isHighSurrogate(c)) {
+			flushSurrogate();
+			highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			append('?');
+		} else if (c < 0x80) {
+			append(c);
+		} else if (c < 0x800) {
+			append(0xc0 | c >> 6);
+			append(0x80 | c & 0x3f);
+		} else {
+			append(0xe0 | c >> 12);
+			append(0x80 | c >> 6 & 0x3f);
+			append(0x80 | c & 0x3f);
+		}
+	}
+
+	private void flushSurrogate() {
+		if (highSurrogate != 0) {
+			highSurrogate = 0;
+			append('?');
+		}
+	}
+
+	private void append(int b) {
+		if (highSurrogate != 0) {
+			flushSurrogate();
+		}
+		if (fieldLength == field.length) {
+			byte[] larger = new byte[field.length * 2];
+			System.arraycopy(field, 0, larger, 0, fieldLength);
+			field = larger;
+		}
+		field[fieldLength++] = (byte) b;
+	}
+
+	private void endField(int length) {
+		if (columnCount == values.length) {
+			String[] larger = new String[values.length * 2];
+			System.arraycopy(values, 0, larger, 0, columnCount);
+			values = larger;
+		}
+		values[columnCount++] = length == 0 ? "" : new String(field, 0, length, CHARSET);
+		fieldLength = 0;
+	}
+
+	private void skipLineFeed() throws IOException {
+		if (peek() == '\n') {
+			read();
+		}
+	}
+
+	private int read() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	private int peek() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position] & 0xff;
+	}
+
+	private boolean fill() throws IOException {
+		int read;
+		do {
+			read = in.read(buffer, 0, buffer.length);
+		} while (read == 0);
+		if (read < 0) {
+			return false;
+		}
+		position = 0;
+		limit = read;
+		return true;
+	}
+
+	/**
+	 * @return Počet sloupců aktuálního záznamu.
+	 */
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * @return Počet sloupců hlavičky.
+	 */
+	public int getHeaderCount() {
+		return headers.length;
+	}
+
+	/**
+	 * @param column pořadí sloupce.
+	 * @return Název sloupce v hlavičce nebo prázdný řetězec, pokud hlavička sloupec nemá.
+	 */
+	public String getHeader(int column) {
+		return column >= 0 && column < headers.length ? headers[column] : "";
+	}
+
+	/**
+	 * @param header název sloupce.
+	 * @return Pořadí sloupce v hlavičce nebo -1, pokud hlavička sloupec nemá.
+	 */
+	public int getIndex(String header) {
+		Integer index = headerIndex.get(header);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 * @param column pořadí sloupce.
+	 * @return Hodnota sloupce v aktuálním záznamu nebo prázdný řetězec, pokud ji záznam nemá.
+	 */
+	public String get(int column) {
+		return column >= 0 && column < columnCount ? values[column] : "";
+	}
+
+	/**
+	 * @param header název sloupce.
+	 * @return Hodnota sloupce v aktuálním záznamu nebo prázdný řetězec, pokud ji záznam nemá.
+	 */
+	public String get(String header) {
+		return get(getIndex(header));
+	}
+
+	/**
+	 * Metoda rozdělí hodnotu vícehodnotového atributu podle zadaného oddělovače. Oddělovač
+	 * se nebere jako regulární výraz. Stejně jako String.split se vynechávají prázdné hodnoty
+	 * na konci.
+	 *
+	 * @param value hodnota atributu.
+	 * @param separator oddělovač hodnot.
+	 * @return Jednotlivé hodnoty.
+	 */
+	public static List<String> split(String value, char separator) {
+		List<String> result = new ArrayList<String>();
+		if (value.length() == 0) {
+			result.add(value);
+			return result;
+		}
+		int start = 0;
+		int end;
+		while ((end = value.indexOf(separator, start)) != -1) {
+			result.add(value.substring(start, end));
+			start = end + 1;
+		}
+		result.add(value.substring(start));
+		int size = result.size();
+		while (size > 0 && result.get(size - 1).length() == 0) {
+			result.remove(--size);
+		}
+		return result;
+	}
+
+}
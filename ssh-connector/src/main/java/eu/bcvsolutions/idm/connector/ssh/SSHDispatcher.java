@@ -0,0 +1,306 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.identityconnectors.common.logging.Log;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Klient vzdáleného dispečera. Dispečer je dlouho běžící proces na koncovém systému, který
+ * se spouští jednou pro každou relaci a přes svůj standardní vstup a výstup obsluhuje
+ * libovolné množství příkazů. Odpadá tak spouštění nového procesu (a interpretu skriptu)
+ * pro každou operaci.
+ * <p>
+ * Požadavky i odpovědi jsou rámcované. Požadavek tvoří řádek
+ * <pre>&lt;id&gt; &lt;délka cesty ke skriptu&gt; &lt;délka parametrů&gt;\n</pre>
+ * následovaný cestou ke skriptu a parametry (CSV příkaz, stejný jako při spouštění skriptu
+ * samostatně). Odpověď tvoří posloupnost rámců
+ * <pre>&lt;id&gt; out &lt;délka&gt;\n</pre>
+ * <pre>&lt;id&gt; err &lt;délka&gt;\n</pre>
+ * následovaných částí standardního, resp. chybového výstupu skriptu, a závěrečný rámec
+ * <pre>&lt;id&gt; exit &lt;návratový kód&gt;\n</pre>
+ * Délky jsou v bajtech (UTF-8). Požadavky se posílají bez čekání na předchozí odpovědi,
+ * dispečer může odpovídat v libovolném pořadí a rámce různých požadavků prokládat, rámce
+ * se k požadavkům přiřazují podle id. Výstup se tak předává čtenáři průběžně a dlouhý výpis
+ * nezdrží odpovědi ostatních požadavků. Čtenář, který výstup nečte, ovšem po zaplnění bufferu
+ * výsledku ({@link SSHCommandFuture#OUTPUT_BUFFER_SIZE}) pozastaví čtení všech odpovědí.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHDispatcher {
+
+	private static final Log log = Log.getLog(SSHDispatcher.class);
+	private static final String ENCODING = "UTF-8";
+
+	//Bezici dispeceri, jeden pro kazdou relaci.
+	private static final Map<Session, SSHDispatcher> DISPATCHERS = new HashMap<Session, SSHDispatcher>();
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final Session session;
+	private final String command;
+	private final Map<Long, SSHCommandFuture> pending = new HashMap<Long, SSHCommandFuture>();
+	private volatile ChannelExec channel;
+	private OutputStream out;
+	private InputStream in;
+	private boolean started = false;
+	private long nextId = 1;
+	private boolean closed = false;
+
+	private SSHDispatcher(Session session, String command) {
+		this.session = session;
+		this.command = command;
+	}
+
+	/**
+	 * Metoda spustí dispečera, pokud ještě spuštěn nebyl. Spuštění čeká na otevření kanálu,
+	 * drží proto pouze zámek tohoto dispečera. Pokud spuštění selže, dispečer se ukončí.
+	 *
+	 * @throws JSchException
+	 * @throws IOException
+	 */
+	private synchronized void start() throws JSchException, IOException {
+		if (started) {
+			return;
+		}
+		started = true;
+		log.info("Starting remote dispatcher {0}.", command);
+		try {
+			ChannelExec exec = (ChannelExec) session.openChannel("exec");
+			exec.setCommand(command);
+			exec.setErrStream(null);
+			out = exec.getOutputStream();
+			in = exec.getInputStream();
+			channel = exec;
+			exec.connect(SSHConfiguration.CONNECTION_TIMEOUT);
+		} catch (JSchException ex) {
+			close();
+			throw ex;
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		}
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				readResponses();
+			}
+		}, "ssh-dispatcher-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Metoda navrací dispečera běžícího v dané relaci. Pokud dispečer ještě neběží (nebo
+	 * skončil), tak se spustí. Na spuštění čekají pouze požadavky téže relace.
+	 *
+	 * @param session relace, ve které má dispečer běžet.
+	 * @param command příkaz, kterým se dispečer na koncovém systému spouští.
+	 * @return Běžící dispečer.
+	 * @throws JSchException
+	 * @throws IOException
+	 */
+	public static SSHDispatcher getDispatcher(Session session, String command) throws JSchException, IOException {
+		SSHDispatcher dispatcher;
+		synchronized (DISPATCHERS) {
+			dispatcher = DISPATCHERS.get(session);
+			if (dispatcher == null || dispatcher.isClosed()) {
+				dispatcher = new SSHDispatcher(session, command);
+				DISPATCHERS.put(session, dispatcher);
+			}
+		}
+		dispatcher.start();
+		return dispatcher;
+	}
+
+	/**
+	 * Metoda předá dispečerovi příkaz ke spuštění skriptu. Na odpověď se nečeká, výsledek
+	 * dokončí vlákno, které čte odpovědi dispečera.
+	 *
+	 * @param script cesta ke skriptu na koncovém systému.
+	 * @param scriptParams parametry (příkazy) předávané skriptu na standardní vstup.
+	 * @param future výsledek, který se dokončí odpovědí dispečera.
+	 * @return Počet bajtů parametrů zapsaných dispečerovi.
+	 * @throws IOException pokud dispečer skončil nebo komunikace s ním selhala.
+	 */
+	public int submit(String script, String scriptParams, SSHCommandFuture future) throws IOException {
+		byte[] scriptBytes = script.getBytes(ENCODING);
+		byte[] paramsBytes = scriptParams == null ? new byte[0] : scriptParams.getBytes(ENCODING);
+
+		long id;
+		synchronized (pending) {
+			if (closed) {
+				throw new EOFException("Remote dispatcher is closed.");
+			}
+			id = nextId++;
+			pending.put(id, future);
+		}
+
+		try {
+			String header = id + " " + scriptBytes.length + " " + paramsBytes.length + "\n";
+			synchronized (out) {
+				out.write(header.getBytes(ENCODING));
+				out.write(scriptBytes);
+				out.write(paramsBytes);
+				out.flush();
+			}
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		}
+		return paramsBytes.length;
+	}
+
+	/**
+	 * Metoda čte rámce odpovědí dispečera a předává je čekajícím požadavkům. Běží ve vlastním
+	 * vlákně až do ukončení kanálu.
+	 */
+	private void readResponses() {
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		try {
+			String header;
+			while ((header = readLine()) != null) {
+				String[] parts = header.trim().split(" ");
+				if (parts.length != 3) {
+					throw new IOException("Malformed dispatcher response header: " + header);
+				}
+				long id = Long.parseLong(parts[0]);
+				String type = parts[1];
+				int value = Integer.parseInt(parts[2]);
+
+				SSHCommandFuture future;
+				synchronized (pending) {
+					future = "exit".equals(type) ? pending.remove(id) : pending.get(id);
+				}
+				if ("exit".equals(type)) {
+					if (future == null) {
+						log.warn("Dispatcher response with unknown id {0}.", id);
+					} else {
+						future.complete(value);
+					}
+				} else if ("out".equals(type) || "err".equals(type)) {
+					//Data neznameho pozadavku se prectou a zahodi.
+					readChunk(value, buffer, future, "err".equals(type));
+				} else {
+					throw new IOException("Malformed dispatcher response header: " + header);
+				}
+			}
+		} catch (Exception ex) {
+			log.warn("Reading from remote dispatcher failed. {0}", ex.getMessage());
+		} finally {
+			close();
+		}
+	}
+
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b == '\n') {
+				return line.toString(ENCODING);
+			}
+			line.write(b);
+		}
+		if (line.size() > 0) {
+			throw new EOFException("Unexpected end of dispatcher output.");
+		}
+		return null;
+	}
+
+	/**
+	 * Metoda přečte data jednoho rámce a průběžně je předává výsledku požadavku.
+	 *
+	 * @param length délka dat rámce.
+	 * @param buffer buffer pro čtení.
+	 * @param future výsledek požadavku nebo null, pokud se mají data zahodit.
+	 * @param error zda jde o chybový výstup.
+	 * @throws IOException
+	 */
+	private void readChunk(int length, byte[] buffer, SSHCommandFuture future, boolean error) throws IOException {
+		int remaining = length;
+		while (remaining > 0) {
+			int read = in.read(buffer, 0, Math.min(remaining, buffer.length));
+			if (read < 0) {
+				throw new EOFException("Unexpected end of dispatcher output.");
+			}
+			if (future != null) {
+				if (error) {
+					future.appendError(buffer, 0, read);
+				} else {
+					future.appendOutput(buffer, 0, read);
+				}
+			}
+			remaining -= read;
+		}
+	}
+
+	/**
+	 * Metoda ukončí dispečera. Všechny čekající požadavky skončí chybou.
+	 */
+	public void close() {
+		List<SSHCommandFuture> failed;
+		synchronized (pending) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			failed = new ArrayList<SSHCommandFuture>(pending.values());
+			pending.clear();
+		}
+		synchronized (DISPATCHERS) {
+			if (DISPATCHERS.get(session) == this) {
+				DISPATCHERS.remove(session);
+			}
+		}
+		ChannelExec current = channel;
+		if (current != null) {
+			current.disconnect();
+		}
+		for (SSHCommandFuture future : failed) {
+			future.fail(new EOFException("Remote dispatcher terminated."));
+		}
+	}
+
+	/**
+	 * @return true, pokud dispečer již neběží.
+	 */
+	public boolean isClosed() {
+		synchronized (pending) {
+			ChannelExec current = channel;
+			return closed || current != null && current.isClosed();
+		}
+	}
+
+}
@@ -0,0 +1,399 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Flotila stejně spravovaných serverů, na kterých se operace provádí najednou. Pro každého
+ * hostitele (primární host a hostitelé z vlastnosti hosts) se vytvoří vlastní instance konektoru
+ * s konfigurací pouze pro tohoto hostitele, relace a metriky jsou tedy oddělené po hostitelích.
+ * <p>
+ * Operace create, update a delete se spustí na všech hostitelích souběžně, nejvýše však na
+ * {@link SSHConfiguration#getFleetParallelism()} hostitelích najednou, a vrací výsledek pro
+ * každého hostitele. Výpisy a GET dotazy se také spustí na všech hostitelích a objekty se
+ * sloučí podle Uid (objekt, který existuje na více hostitelích, se předá pouze jednou).
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHFleet {
+
+	private static final Log log = Log.getLog(SSHFleet.class);
+
+	//Pocet objektu, ktere mohou cekat na predani handleru.
+	private static final int QUEUE_CAPACITY = 1000;
+	private static final long POLL_INTERVAL = 100;
+	//Znacka konce vypisu jednoho hostitele.
+	private static final Object END = new Object();
+
+	private final List<SSHHostGroup.Host> hosts;
+	private final List<SSHConnector> members;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Konstruktor třídy SSHFleet.
+	 *
+	 * @param cfg konfigurace flotily.
+	 */
+	public SSHFleet(SSHConfiguration cfg) {
+		hosts = SSHHostGroup.parseHosts(cfg);
+		members = new ArrayList<SSHConnector>(hosts.size());
+		for (SSHHostGroup.Host host : hosts) {
+			SSHConnector member = new SSHConnector();
+			member.init(cfg.createHostConfiguration(host));
+			members.add(member);
+		}
+		int threads = Math.min(cfg.getFleetParallelism(), hosts.size());
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger counter = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ssh-fleet-" + counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		//Necinna instance konektoru nedrzi zadna vlakna.
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return Hostitelé flotily.
+	 */
+	public List<SSHHostGroup.Host> getHosts() {
+		return hosts;
+	}
+
+	/**
+	 * Metoda založí objekt na všech hostitelích.
+	 *
+	 * @param oclass třída objektu.
+	 * @param attrs atributy objektu.
+	 * @param options parametry operace.
+	 * @return Výsledky pro jednotlivé hostitele v pořadí hostitelů.
+	 */
+	public List<SSHFleetResult> create(final ObjectClass oclass, final Set<Attribute> attrs, final OperationOptions options) {
+		return execute(new MemberOperation() {
+			public Uid run(SSHConnector member) {
+				return member.create(oclass, attrs, options);
+			}
+		});
+	}
+
+	/**
+	 * Metoda aktualizuje objekt na všech hostitelích.
+	 *
+	 * @param oclass třída objektu.
+	 * @param uid Uid objektu.
+	 * @param replaceAttributes měněné atributy.
+	 * @param options parametry operace.
+	 * @return Výsledky pro jednotlivé hostitele v pořadí hostitelů.
+	 */
+	public List<SSHFleetResult> update(final ObjectClass oclass, final Uid uid, final Set<Attribute> replaceAttributes,
+			final OperationOptions options) {
+		return execute(new MemberOperation() {
+			public Uid run(SSHConnector member) {
+				return member.update(oclass, uid, replaceAttributes, options);
+			}
+		});
+	}
+
+	/**
+	 * Metoda smaže objekt na všech hostitelích.
+	 *
+	 * @param oclass třída objektu.
+	 * @param uid Uid objektu.
+	 * @param options parametry operace.
+	 * @return Výsledky pro jednotlivé hostitele v pořadí hostitelů.
+	 */
+	public List<SSHFleetResult> delete(final ObjectClass oclass, final Uid uid, final OperationOptions options) {
+		return execute(new MemberOperation() {
+			public Uid run(SSHConnector member) {
+				member.delete(oclass, uid, options);
+				return uid;
+			}
+		});
+	}
+
+	/**
+	 * Metoda otestuje spojení se všemi hostiteli.
+	 *
+	 * @throws ConnectorException pokud test selhal alespoň na jednom hostiteli.
+	 */
+	public void test() {
+		getUid(execute(new MemberOperation() {
+			public Uid run(SSHConnector member) {
+				member.test();
+				return null;
+			}
+		}));
+	}
+
+	/**
+	 * Metoda ověří nečinné relace všech hostitelů.
+	 */
+	public void checkAlive() {
+		for (SSHConnector member : members) {
+			member.checkAlive();
+		}
+	}
+
+	/**
+	 * Metoda spustí dotaz na všech hostitelích a objekty předá handleru ve vlákně volajícího,
+	 * každý objekt (podle Uid) nejvýše jednou. Stránkování se na flotilu nepoužije, každý
+	 * hostitel vrací celý výpis.
+	 *
+	 * @param oclass třída objektů.
+	 * @param query GET dotaz nebo null pro výpis všech objektů.
+	 * @param handler handler, kterému se předávají objekty.
+	 * @param options parametry operace.
+	 * @throws ConnectorException pokud dotaz selhal alespoň na jednom hostiteli.
+	 */
+	public void executeQuery(final ObjectClass oclass, final String query, ResultsHandler handler,
+			OperationOptions options) {
+		final OperationOptions memberOptions = removePaging(options);
+		final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final Map<SSHHostGroup.Host, String> failures = new ConcurrentHashMap<SSHHostGroup.Host, String>();
+		List<Future<?>> futures = new ArrayList<Future<?>>(hosts.size());
+		for (int i = 0; i < hosts.size(); i++) {
+			final SSHHostGroup.Host host = hosts.get(i);
+			final SSHConnector member = members.get(i);
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					try {
+						member.executeQuery(oclass, query, new ResultsHandler() {
+							public boolean handle(ConnectorObject object) {
+								return put(queue, object, stopped);
+							}
+						}, memberOptions);
+					} catch (RuntimeException ex) {
+						log.warn("Query on host {0} failed. {1}", host, getMessage(ex));
+						failures.put(host, getMessage(ex));
+					} finally {
+						put(queue, END, stopped);
+					}
+				}
+			}));
+		}
+
+		//Uid jiz predanych objektu, objekt z dalsiho hostitele se uz nepreda.
+		Set<Uid> delivered = new HashSet<Uid>();
+		int finished = 0;
+		try {
+			while (finished < hosts.size() && !stopped.get()) {
+				Object item = queue.take();
+				if (item == END) {
+					finished++;
+				} else if (delivered.add(((ConnectorObject) item).getUid()) && !handler.handle((ConnectorObject) item)) {
+					stopped.set(true);
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted while waiting for objects.", ex);
+		} finally {
+			stopped.set(true);
+			//Pockame, az dotazy na vsech hostitelich skonci, instance konektoru hostitelu se
+			//pak mohou hned pouzit pro dalsi operaci.
+			for (Future<?> future : futures) {
+				await(future);
+			}
+		}
+		if (!failures.isEmpty()) {
+			//Chyby uvedeme v poradi hostitelu.
+			Map<SSHHostGroup.Host, String> ordered = new LinkedHashMap<SSHHostGroup.Host, String>();
+			for (SSHHostGroup.Host host : hosts) {
+				if (failures.containsKey(host)) {
+					ordered.put(host, failures.get(host));
+				}
+			}
+			throw new ConnectorException(createMessage(ordered.size(), hosts.size(), ordered.entrySet()));
+		}
+	}
+
+	/**
+	 * Metoda ukončí vlákna a spojení všech hostitelů.
+	 */
+	public void dispose() {
+		executor.shutdownNow();
+		for (SSHConnector member : members) {
+			member.dispose();
+		}
+	}
+
+	/**
+	 * Metoda vrátí Uid z výsledků operace na flotile.
+	 *
+	 * @param results výsledky pro jednotlivé hostitele.
+	 * @return Uid vrácené prvním hostitelem.
+	 * @throws ConnectorException pokud operace selhala alespoň na jednom hostiteli, zpráva
+	 * obsahuje chyby všech hostitelů.
+	 */
+	public static Uid getUid(List<SSHFleetResult> results) {
+		Uid uid = null;
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		for (SSHFleetResult result : results) {
+			if (!result.isSuccess()) {
+				failures.put(result.getHost(), result.getError());
+			} else if (uid == null) {
+				uid = result.getUid();
+			}
+		}
+		if (!failures.isEmpty()) {
+			throw new ConnectorException(createMessage(failures.size(), results.size(), failures.entrySet()));
+		}
+		return uid;
+	}
+
+	/**
+	 * Metoda spustí operaci na všech hostitelích a počká na její dokončení.
+	 *
+	 * @param operation operace.
+	 * @return Výsledky pro jednotlivé hostitele v pořadí hostitelů.
+	 */
+	private List<SSHFleetResult> execute(final MemberOperation operation) {
+		List<Future<Uid>> futures = new ArrayList<Future<Uid>>(members.size());
+		for (final SSHConnector member : members) {
+			futures.add(executor.submit(new Callable<Uid>() {
+				public Uid call() {
+					return operation.run(member);
+				}
+			}));
+		}
+		List<SSHFleetResult> results = new ArrayList<SSHFleetResult>(futures.size());
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				String host = hosts.get(i).toString();
+				try {
+					results.add(new SSHFleetResult(host, futures.get(i).get(), null));
+				} catch (ExecutionException ex) {
+					log.warn("Operation on host {0} failed. {1}", host, getMessage(ex.getCause()));
+					results.add(new SSHFleetResult(host, null, getMessage(ex.getCause())));
+				}
+			}
+		} catch (InterruptedException ex) {
+			for (Future<Uid> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted while waiting for fleet operation.", ex);
+		}
+		return results;
+	}
+
+	/**
+	 * Metoda vloží položku do fronty. Pokud je fronta plná, čeká se, dokud ji volající
+	 * nezačne vybírat nebo dokud není zpracování ukončeno.
+	 *
+	 * @return false, pokud bylo zpracování ukončeno.
+	 */
+	private static boolean put(BlockingQueue<Object> queue, Object item, AtomicBoolean stopped) {
+		try {
+			while (!stopped.get()) {
+				if (queue.offer(item, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private static void await(Future<?> future) {
+		try {
+			future.get();
+		} catch (InterruptedException ex) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+		} catch (Exception ex) {
+			//Chyby dotazu jsou zaznamenane v seznamu chyb
+		}
+	}
+
+	private static OperationOptions removePaging(OperationOptions options) {
+		if (options == null) {
+			return null;
+		}
+		Map<String, Object> map = new HashMap<String, Object>(options.getOptions());
+		map.remove(OperationOptions.OP_PAGE_SIZE);
+		map.remove(OperationOptions.OP_PAGED_RESULTS_OFFSET);
+		map.remove(OperationOptions.OP_PAGED_RESULTS_COOKIE);
+		return new OperationOptions(map);
+	}
+
+	private static String getMessage(Throwable ex) {
+		return ex.getMessage() != null ? ex.getMessage() : ex.toString();
+	}
+
+	private static String createMessage(int failed, int total, Set<? extends Map.Entry<?, String>> failures) {
+		StringBuilder message = new StringBuilder("Operation failed on ").append(failed).append(" of ")
+				.append(total).append(" hosts:");
+		for (Map.Entry<?, String> failure : failures) {
+			message.append(' ').append(failure.getKey()).append(" - ").append(failure.getValue()).append(';');
+		}
+		return message.toString();
+	}
+
+	/**
+	 * Operace prováděná na jednom hostiteli flotily.
+	 */
+	private interface MemberOperation {
+
+		/**
+		 * @param member instance konektoru hostitele.
+		 * @return Uid objektu, se kterým operace pracovala.
+		 */
+		Uid run(SSHConnector member);
+	}
+
+}
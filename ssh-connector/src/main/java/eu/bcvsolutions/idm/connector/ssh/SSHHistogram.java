@@ -0,0 +1,153 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram dob trvání. Hodnoty se zaznamenávají bez zámků (pouze atomické operace), záznam
+ * je tak levný i při souběžném provádění mnoha operací.
+ * <p>
+ * Doby se ukládají v mikrosekundách do logaritmických přihrádek: do 16 µs po jedné mikrosekundě,
+ * dále se každý interval mezi dvěma mocninami dvou dělí na 8 přihrádek. Percentily jsou tedy
+ * určeny s relativní chybou nejvýše 12,5 %.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHHistogram {
+
+	private static final int LINEAR_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//Nejvetsi rozlisena hodnota je 2^40 us (cca 12 dni), vetsi hodnoty spadnou do posledni prihradky.
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 4 + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Metoda zaznamená jednu dobu trvání.
+	 *
+	 * @param nanos doba trvání v nanosekundách.
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		buckets.incrementAndGet(getBucket(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+		long current;
+		while (micros > (current = max.get())) {
+			if (max.compareAndSet(current, micros)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return Počet zaznamenaných hodnot.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return Průměrná doba trvání v milisekundách.
+	 */
+	public double getMeanMillis() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / 1000.0 / n;
+	}
+
+	/**
+	 * @return Nejdelší doba trvání v milisekundách.
+	 */
+	public double getMaxMillis() {
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * Metoda odhadne percentil zaznamenaných dob. Vrací horní hranici přihrádky, ve které
+	 * percentil leží (nejvýše však nejdelší zaznamenanou dobu).
+	 *
+	 * @param percentile percentil v rozsahu 0 až 1.
+	 * @return Doba trvání v milisekundách.
+	 */
+	public double getPercentileMillis(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long cumulative = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			cumulative += snapshot[i];
+			if (cumulative >= rank) {
+				return Math.min(getUpperBound(i), max.get()) / 1000.0;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * Metoda vynuluje histogram. Hodnoty zaznamenávané souběžně s nulováním se mohou
+	 * započítat jen částečně.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int getBucket(long micros) {
+		if (micros < LINEAR_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getUpperBound(int bucket) {
+		if (bucket < LINEAR_BUCKETS) {
+			return bucket + 1;
+		}
+		int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+		int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+	}
+
+}
@@ -0,0 +1,345 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Skupina hostitelů jednoho koncového systému (primární host a jeho repliky) spolu s politikou
+ * výběru hostitele pro jednotlivé operace:
+ * <ul>
+ * <li>ROUND_ROBIN - hostitelé se střídají,</li>
+ * <li>LEAST_OUTSTANDING - použije se hostitel s nejmenším počtem právě běžících operací,</li>
+ * <li>PRIMARY_FOR_WRITES - zápisové operace jdou na primární host, čtecí operace se střídají
+ * na všech hostitelích.</li>
+ * </ul>
+ * Výběr vrací všechny hostitele seřazené podle pořadí, ve kterém se mají zkoušet. Pokud se
+ * k vybranému hostiteli nepodaří připojit, použije se další v pořadí. Hostitel, ke kterému se
+ * nepodařilo připojit, se po dobu {@link SSHConfiguration#getHostRetryInterval()} zkouší až
+ * jako poslední. Po opakovaných neúspěšných připojeních hostitele odpojí jeho jistič
+ * ({@link SSHCircuitBreaker}) a operace se k němu nepřipojují, dokud se k němu nepřipojí
+ * zkušební operace puštěná jističem.
+ * <p>
+ * Skupiny jsou sdílené všemi instancemi konektoru se stejnou konfigurací spojení, střídání
+ * i počty běžících operací tedy platí pro všechny instance.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHHostGroup {
+
+	private static final Log log = Log.getLog(SSHHostGroup.class);
+
+	private static final Map<String, SSHHostGroup> GROUPS = new HashMap<String, SSHHostGroup>();
+
+	private final List<Host> hosts;
+	private final String policy;
+	private final long retryInterval;
+	//Pocitadlo pro stridani hostitelu.
+	private final AtomicInteger next = new AtomicInteger();
+
+	private SSHHostGroup(SSHConfiguration cfg) {
+		this.hosts = Collections.unmodifiableList(parseHosts(cfg));
+		this.policy = cfg.getHostSelectionPolicy();
+		this.retryInterval = cfg.getHostRetryInterval();
+		for (Host host : hosts) {
+			host.breaker = new SSHCircuitBreaker(host.toString(), cfg.getCircuitBreakerThreshold(),
+					cfg.getCircuitBreakerProbeInterval());
+		}
+	}
+
+	/**
+	 * Metoda navrací skupinu hostitelů sdílenou pro daný klíč konfigurace. Pokud skupina
+	 * ještě neexistuje, tak se vytvoří.
+	 *
+	 * @param key klíč konfigurace spojení.
+	 * @param cfg konfigurace konektoru.
+	 * @return Sdílená skupina hostitelů.
+	 */
+	public static SSHHostGroup getGroup(String key, SSHConfiguration cfg) {
+		synchronized (GROUPS) {
+			SSHHostGroup group = GROUPS.get(key);
+			if (group == null) {
+				group = new SSHHostGroup(cfg);
+				GROUPS.put(key, group);
+			}
+			return group;
+		}
+	}
+
+	/**
+	 * Metoda načte seznam hostitelů z konfigurace. Prvním hostitelem je vždy primární host
+	 * (vlastnosti host a port), za ním následují další hostitelé v uvedeném pořadí.
+	 *
+	 * @param cfg konfigurace konektoru.
+	 * @return Seznam hostitelů bez duplicit.
+	 * @throws IllegalArgumentException pokud některý z hostitelů není správně zapsán.
+	 */
+	public static List<Host> parseHosts(SSHConfiguration cfg) {
+		List<Host> result = new ArrayList<Host>();
+		result.add(new Host(cfg.getHost(), cfg.getPort()));
+		if (cfg.getHosts() != null) {
+			for (String value : cfg.getHosts()) {
+				if (StringUtil.isBlank(value)) {
+					continue;
+				}
+				Host host = parseHost(value.trim(), cfg.getPort());
+				if (!result.contains(host)) {
+					result.add(host);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Metoda načte hostitele zapsaného ve tvaru host, host:port nebo [IPv6 adresa]:port.
+	 *
+	 * @param value zápis hostitele.
+	 * @param defaultPort port, který se použije, pokud není v zápisu uveden.
+	 * @return Hostitel.
+	 * @throws IllegalArgumentException pokud hostitel není správně zapsán.
+	 */
+	static Host parseHost(String value, int defaultPort) {
+		String host = value;
+		int port = defaultPort;
+		try {
+			if (value.startsWith("[")) {
+				int end = value.indexOf(']');
+				if (end < 0 || end + 1 < value.length() && value.charAt(end + 1) != ':') {
+					throw new IllegalArgumentException("Invalid host " + value + ".");
+				}
+				host = value.substring(1, end);
+				if (end + 1 < value.length()) {
+					port = Integer.parseInt(value.substring(end + 2));
+				}
+			} else if (value.indexOf(':') > 0 && value.indexOf(':') == value.lastIndexOf(':')) {
+				//Vice dvojtecek ma pouze IPv6 adresa bez portu.
+				int colon = value.indexOf(':');
+				host = value.substring(0, colon);
+				port = Integer.parseInt(value.substring(colon + 1));
+			}
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid port of host " + value + ".");
+		}
+		if (StringUtil.isBlank(host) || port < 1 || port > 65535) {
+			throw new IllegalArgumentException("Invalid host " + value + ".");
+		}
+		return new Host(host, port);
+	}
+
+	/**
+	 * @return Všichni hostitelé skupiny, první je primární host.
+	 */
+	public List<Host> getHosts() {
+		return hosts;
+	}
+
+	/**
+	 * Metoda vrátí hostitele, ke kterému byla navázána daná relace.
+	 *
+	 * @param host adresa hostitele relace.
+	 * @param port port hostitele relace.
+	 * @return Hostitel skupiny nebo null, pokud do skupiny nepatří.
+	 */
+	public Host getHost(String host, int port) {
+		for (Host candidate : hosts) {
+			if (candidate.port == port && candidate.host.equals(host)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Metoda seřadí hostitele podle politiky výběru do pořadí, ve kterém se mají zkoušet.
+	 * Hostitelé, ke kterým se nedávno nepodařilo připojit, a odpojení hostitelé jsou zařazeni
+	 * na konec.
+	 *
+	 * @param write zda jde o zápisovou operaci.
+	 * @return Hostitelé v pořadí, ve kterém se má zkusit připojení.
+	 */
+	public List<Host> select(boolean write) {
+		int size = hosts.size();
+		if (size == 1) {
+			return hosts;
+		}
+		List<Host> ordered = new ArrayList<Host>(size);
+		if (write && SSHMessages.SSH_HOST_SELECTION_PRIMARY_FOR_WRITES.equals(policy)) {
+			//Repliky jsou pro zapis pouze zalozni, zkousi se v uvedenem poradi.
+			ordered.addAll(hosts);
+		} else {
+			int first = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+			for (int i = 0; i < size; i++) {
+				ordered.add(hosts.get((first + i) % size));
+			}
+			if (SSHMessages.SSH_HOST_SELECTION_LEAST_OUTSTANDING.equals(policy)) {
+				//Pri shode se uplatni poradi stridani.
+				Host least = ordered.get(0);
+				for (Host host : ordered) {
+					if (host.getOutstanding() < least.getOutstanding()) {
+						least = host;
+					}
+				}
+				ordered.remove(least);
+				ordered.add(0, least);
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		List<Host> failed = new ArrayList<Host>();
+		for (Host host : ordered) {
+			if (host.failedUntil > now || !host.isAvailable()) {
+				failed.add(host);
+			}
+		}
+		ordered.removeAll(failed);
+		ordered.addAll(failed);
+		return ordered;
+	}
+
+	/**
+	 * Metoda vrátí pouze primární host bez ohledu na politiku výběru. Používá se pro operace,
+	 * jejichž výsledek platí jen pro jednoho hostitele (např. synchronizační token), které se
+	 * proto nesmí přesunout na jiného hostitele.
+	 *
+	 * @return Seznam obsahující pouze primární host.
+	 */
+	public List<Host> selectPrimary() {
+		return hosts.subList(0, 1);
+	}
+
+	/**
+	 * Metoda označí hostitele, ke kterému se kvůli chybě sítě nepodařilo připojit. Do uplynutí
+	 * intervalu opakování se bude zkoušet až jako poslední, po dosažení prahu jističe se
+	 * hostitel odpojí.
+	 *
+	 * @param host hostitel.
+	 */
+	public void markFailed(Host host) {
+		if (hosts.size() > 1) {
+			log.warn("Host {0} marked as unavailable for {1} ms.", host, String.valueOf(retryInterval));
+		}
+		host.failedUntil = System.currentTimeMillis() + retryInterval;
+		if (host.breaker != null) {
+			host.breaker.recordFailure();
+		}
+	}
+
+	/**
+	 * Metoda označí hostitele, ke kterému se podařilo připojit, jako dostupného.
+	 *
+	 * @param host hostitel.
+	 */
+	public void markAvailable(Host host) {
+		host.failedUntil = 0;
+		if (host.breaker != null) {
+			host.breaker.recordSuccess();
+		}
+	}
+
+	/**
+	 * Jeden hostitel koncového systému spolu s počtem operací, které na něm právě běží,
+	 * a jističem jeho připojení.
+	 */
+	public static class Host {
+
+		private final String host;
+		private final int port;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private volatile long failedUntil = 0;
+		private volatile SSHCircuitBreaker breaker;
+
+		Host(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+
+		public String getHost() {
+			return host;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * @return false, pokud je hostitel odpojen jističem a operace mají okamžitě selhat.
+		 */
+		public boolean isAvailable() {
+			SSHCircuitBreaker current = breaker;
+			return current == null || current.isClosed();
+		}
+
+		/**
+		 * @return true, pokud se operace může k hostiteli připojit. U hostitele odpojeného
+		 * jističem se po uplynutí intervalu propustí jedna zkušební operace.
+		 */
+		public boolean allowRequest() {
+			SSHCircuitBreaker current = breaker;
+			return current == null || current.allowRequest();
+		}
+
+		/**
+		 * @return Počet operací, které na hostiteli právě běží.
+		 */
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		void operationStarted() {
+			outstanding.incrementAndGet();
+		}
+
+		void operationFinished() {
+			outstanding.decrementAndGet();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Host)) {
+				return false;
+			}
+			Host other = (Host) obj;
+			return port == other.port && host.equals(other.host);
+		}
+
+		@Override
+		public int hashCode() {
+			return host.hashCode() * 31 + port;
+		}
+
+		@Override
+		public String toString() {
+			return (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + port;
+		}
+	}
+
+}
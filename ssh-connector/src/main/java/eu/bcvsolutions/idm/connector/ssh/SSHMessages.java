@@ -42,7 +42,12 @@ public interface SSHMessages {
     public static final String SSH_UPDATEGROUP = "updateGroup";
 
     public static final String SSH_LISTOBJECTS = "listObjects";
+    public static final String SSH_LISTOBJECTSFULL = "listObjectsFull";
     public static final String SSH_ATTRIBUTESLIST = "getAttributesSchema";
+    public static final String SSH_SYNC = "sync";
+    public static final String SSH_GETLATESTSYNCTOKEN = "getLatestSyncToken";
+    public static final String SSH_SEARCH = "search";
+    public static final String SSH_BATCH_SUFFIX = "Batch";
 
     public static final String SSH_HEADER_ACCOUNTID = "AccountId";
     public static final String SSH_HEADER_NEW_ACCOUNTID = "newAccountId";
@@ -63,9 +68,23 @@ public interface SSHMessages {
     public static final String SSH_STATUS_UNLOCK = "UNLOCK";
     
     public static final String SSH_HEADER_OBJECTTYPE = "objectType";
+    public static final String SSH_HEADER_FILTER = "filter";
+    public static final String SSH_HEADER_ATTRIBUTES_TO_GET = "attributesToGet";
+    public static final String SSH_HEADER_PAGE_SIZE = "pageSize";
+    public static final String SSH_HEADER_PAGED_RESULTS_OFFSET = "pagedResultsOffset";
+    public static final String SSH_HEADER_PAGED_RESULTS_COOKIE = "pagedResultsCookie";
+    public static final String SSH_HEADER_REMAINING_PAGED_RESULTS = "remainingPagedResults";
+    public static final String SSH_HEADER_SYNC_TOKEN = "syncToken";
+    public static final String SSH_HEADER_DELTA_TYPE = "deltaType";
+    public static final String SSH_HEADER_RESULT_UID = "uid";
+    public static final String SSH_HEADER_RESULT_ERROR = "error";
     
     public static final String SSH_ESCAPE_MODE_DOUBLED = "DOUBLED";
     public static final String SSH_ESCAPE_MODE_BACKSLASH = "BACKSLASH";
+    
+    public static final String SSH_HOST_SELECTION_ROUND_ROBIN = "ROUND_ROBIN";
+    public static final String SSH_HOST_SELECTION_LEAST_OUTSTANDING = "LEAST_OUTSTANDING";
+    public static final String SSH_HOST_SELECTION_PRIMARY_FOR_WRITES = "PRIMARY_FOR_WRITES";
        
     public static final String SSH_ATTRIBUTE_NAME = "Attribute_Name";
     public static final String SSH_ATTRIBUTE_TYPE = "Type";
@@ -0,0 +1,436 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.identityconnectors.common.logging.Log;
+
+/**
+ * Metriky konektoru pro jeden koncový systém (host a port). Pro každou operaci (název
+ * operace je první řádek příkazu předávaného skriptu, např. createUser, getUser, listObjects)
+ * se zaznamenává histogram doby trvání celé operace a jejích fází:
+ * <ul>
+ * <li>handshake - získání relace z poolu (u nové relace navázání spojení a autentizace),</li>
+ * <li>channelOpen - otevření kanálu a spuštění skriptu,</li>
+ * <li>exec - zápis příkazu, běh skriptu a čekání na jeho výstup a návratový kód,</li>
+ * <li>parse - zpracování výstupu skriptu (čas strávený mimo čekání na data z kanálu).</li>
+ * </ul>
+ * Pro každý skript se dále počítá počet spuštění, chyby, přenesené bajty a návratové kódy.
+ * <p>
+ * Metriky jsou sdílené všemi instancemi konektoru napojenými na stejný systém a vystavené
+ * přes JMX ({@link SSHMetricsMXBean}). Záznam používá pouze atomické operace, nezpomaluje
+ * tedy souběžně prováděné operace.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHMetrics implements SSHMetricsMXBean {
+
+	public static final String PHASE_TOTAL = "total";
+	public static final String PHASE_HANDSHAKE = "handshake";
+	public static final String PHASE_CHANNEL_OPEN = "channelOpen";
+	public static final String PHASE_EXEC = "exec";
+	public static final String PHASE_PARSE = "parse";
+
+	private static final String[] PHASES = {PHASE_TOTAL, PHASE_HANDSHAKE, PHASE_CHANNEL_OPEN, PHASE_EXEC, PHASE_PARSE};
+	private static final String UNKNOWN_OPERATION = "unknown";
+	private static final String DOMAIN = "eu.bcvsolutions.idm.connector.ssh";
+
+	private static final Log log = Log.getLog(SSHMetrics.class);
+
+	private static final Map<String, SSHMetrics> METRICS = new ConcurrentHashMap<String, SSHMetrics>();
+	//Metriky, ktere se nikam nezaznamenavaji (vypnute v konfiguraci).
+	private static final SSHMetrics DISABLED = new SSHMetrics(null);
+
+	private final String host;
+	private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+	private final ConcurrentMap<String, ScriptMetrics> scripts = new ConcurrentHashMap<String, ScriptMetrics>();
+
+	private SSHMetrics(String host) {
+		this.host = host;
+	}
+
+	/**
+	 * Metoda navrací metriky koncového systému z dané konfigurace. Metriky se při prvním
+	 * použití zaregistrují v MBean serveru platformy.
+	 *
+	 * @param cfg konfigurace konektoru.
+	 * @return Sdílené metriky systému, nebo metriky, které nic nezaznamenávají, pokud jsou
+	 * v konfiguraci vypnuté.
+	 */
+	public static SSHMetrics getMetrics(SSHConfiguration cfg) {
+		if (!cfg.getMetricsEnabled()) {
+			return DISABLED;
+		}
+		return getMetrics(cfg.getHost(), cfg.getPort());
+	}
+
+	/**
+	 * @param host host koncového systému.
+	 * @param port port koncového systému.
+	 * @return Sdílené metriky systému.
+	 */
+	public static SSHMetrics getMetrics(String host, int port) {
+		String key = host + ":" + port;
+		SSHMetrics metrics = METRICS.get(key);
+		if (metrics != null) {
+			return metrics;
+		}
+		synchronized (METRICS) {
+			metrics = METRICS.get(key);
+			if (metrics == null) {
+				metrics = new SSHMetrics(key);
+				METRICS.put(key, metrics);
+				register(metrics, host, port);
+			}
+			return metrics;
+		}
+	}
+
+	private static void register(SSHMetrics metrics, String host, int port) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":type=SSHMetrics,host=" + ObjectName.quote(String.valueOf(host))
+					+ ",port=" + port);
+			//MBean muze zustat registrovany z drive nacteneho konektoru (jiny classloader).
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(metrics, name);
+		} catch (JMException ex) {
+			log.warn("Cannot register SSH metrics MBean for {0}:{1}. {2}", host, port, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Metoda navrací metriky jednoho z hostitelů koncového systému (např. repliky, na které
+	 * operace skutečně běžela).
+	 *
+	 * @param host host koncového systému.
+	 * @param port port koncového systému.
+	 * @return Sdílené metriky hostitele, nebo tyto metriky, pokud jsou vypnuté.
+	 */
+	public SSHMetrics forHost(String host, int port) {
+		if (this.host == null) {
+			return this;
+		}
+		return getMetrics(host, port);
+	}
+
+	/**
+	 * Metoda zahájí měření jednoho spuštění skriptu.
+	 *
+	 * @param script cesta ke skriptu.
+	 * @param command příkaz předávaný skriptu, jeho první řádek určuje název operace.
+	 * @return Probíhající měření.
+	 */
+	public Sample start(String script, String command) {
+		return start(script, command, System.nanoTime());
+	}
+
+	/**
+	 * Metoda zahájí měření jednoho spuštění skriptu, které začalo již dříve (např. před
+	 * výběrem hostitele, na kterém skript poběží).
+	 *
+	 * @param script cesta ke skriptu.
+	 * @param command příkaz předávaný skriptu, jeho první řádek určuje název operace.
+	 * @param start začátek měření (hodnota {@link System#nanoTime()}).
+	 * @return Probíhající měření.
+	 */
+	public Sample start(String script, String command, long start) {
+		if (host == null) {
+			return new Sample(null, null, start);
+		}
+		return new Sample(getOperation(getOperationName(command)), getScript(script), start);
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public List<SSHOperationStatistics> getOperations() {
+		List<SSHOperationStatistics> result = new ArrayList<SSHOperationStatistics>();
+		for (Map.Entry<String, OperationMetrics> entry : new TreeMap<String, OperationMetrics>(operations).entrySet()) {
+			OperationMetrics operation = entry.getValue();
+			for (int i = 0; i < PHASES.length; i++) {
+				long failures = i == 0 ? operation.failures.get() : 0;
+				result.add(new SSHOperationStatistics(entry.getKey(), PHASES[i], failures, operation.phases[i]));
+			}
+		}
+		return result;
+	}
+
+	public List<SSHScriptStatistics> getScripts() {
+		List<SSHScriptStatistics> result = new ArrayList<SSHScriptStatistics>();
+		for (Map.Entry<String, ScriptMetrics> entry : new TreeMap<String, ScriptMetrics>(scripts).entrySet()) {
+			ScriptMetrics script = entry.getValue();
+			Map<Integer, Long> exitCodes = new TreeMap<Integer, Long>();
+			for (Map.Entry<Integer, AtomicLong> exitCode : script.exitCodes.entrySet()) {
+				exitCodes.put(exitCode.getKey(), exitCode.getValue().get());
+			}
+			result.add(new SSHScriptStatistics(entry.getKey(), script.count.get(), script.failures.get(),
+					script.bytesIn.get(), script.bytesOut.get(), exitCodes));
+		}
+		return result;
+	}
+
+	public void reset() {
+		operations.clear();
+		scripts.clear();
+	}
+
+	private OperationMetrics getOperation(String name) {
+		OperationMetrics operation = operations.get(name);
+		if (operation == null) {
+			OperationMetrics created = new OperationMetrics();
+			operation = operations.putIfAbsent(name, created);
+			if (operation == null) {
+				operation = created;
+			}
+		}
+		return operation;
+	}
+
+	private ScriptMetrics getScript(String path) {
+		String name = String.valueOf(path);
+		ScriptMetrics script = scripts.get(name);
+		if (script == null) {
+			ScriptMetrics created = new ScriptMetrics();
+			script = scripts.putIfAbsent(name, created);
+			if (script == null) {
+				script = created;
+			}
+		}
+		return script;
+	}
+
+	/**
+	 * @param command příkaz předávaný skriptu.
+	 * @return Název operace (první řádek příkazu).
+	 */
+	static String getOperationName(String command) {
+		if (command == null) {
+			return UNKNOWN_OPERATION;
+		}
+		int end = command.indexOf('\n');
+		String name = (end < 0 ? command : command.substring(0, end)).trim();
+		return name.length() == 0 ? UNKNOWN_OPERATION : name;
+	}
+
+	private static int getPhaseIndex(String phase) {
+		for (int i = 0; i < PHASES.length; i++) {
+			if (PHASES[i].equals(phase)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown phase " + phase);
+	}
+
+	/**
+	 * Histogramy fází jedné operace.
+	 */
+	private static class OperationMetrics {
+
+		private final SSHHistogram[] phases = new SSHHistogram[PHASES.length];
+		private final AtomicLong failures = new AtomicLong();
+
+		private OperationMetrics() {
+			for (int i = 0; i < phases.length; i++) {
+				phases[i] = new SSHHistogram();
+			}
+		}
+	}
+
+	/**
+	 * Čítače jednoho skriptu.
+	 */
+	private static class ScriptMetrics {
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong bytesIn = new AtomicLong();
+		private final AtomicLong bytesOut = new AtomicLong();
+		private final ConcurrentMap<Integer, AtomicLong> exitCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+
+		private void exitCode(int exitStatus) {
+			AtomicLong counter = exitCodes.get(exitStatus);
+			if (counter == null) {
+				AtomicLong created = new AtomicLong();
+				counter = exitCodes.putIfAbsent(exitStatus, created);
+				if (counter == null) {
+					counter = created;
+				}
+			}
+			counter.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Měření jednoho spuštění skriptu. Fáze se měří od konce předchozí fáze (případně od začátku
+	 * měření), měření se ukončí metodou {@link #stop()}.
+	 */
+	public static class Sample {
+
+		private final OperationMetrics operation;
+		private final ScriptMetrics script;
+		private final long start;
+		private long mark;
+		private boolean failed = false;
+
+		private Sample(OperationMetrics operation, ScriptMetrics script, long start) {
+			this.operation = operation;
+			this.script = script;
+			this.start = start;
+			this.mark = start;
+		}
+
+		/**
+		 * Metoda zaznamená fázi, která trvala od konce předchozí fáze do teď.
+		 *
+		 * @param phase název fáze.
+		 */
+		public void phase(String phase) {
+			long now = System.nanoTime();
+			phase(phase, now - mark);
+			mark = now;
+		}
+
+		/**
+		 * Metoda zaznamená fázi se zadanou dobou trvání.
+		 *
+		 * @param phase název fáze.
+		 * @param nanos doba trvání v nanosekundách.
+		 */
+		public void phase(String phase, long nanos) {
+			if (operation != null) {
+				operation.phases[getPhaseIndex(phase)].record(nanos);
+			}
+		}
+
+		/**
+		 * @param bytesOut počet bajtů zapsaných na vstup skriptu.
+		 * @param bytesIn počet bajtů přečtených z výstupu skriptu.
+		 */
+		public void bytes(long bytesOut, long bytesIn) {
+			if (script != null) {
+				script.bytesOut.addAndGet(bytesOut);
+				script.bytesIn.addAndGet(bytesIn);
+			}
+		}
+
+		/**
+		 * @param exitStatus návratový kód skriptu.
+		 */
+		public void exitStatus(int exitStatus) {
+			if (script != null) {
+				script.exitCode(exitStatus);
+			}
+		}
+
+		/**
+		 * Metoda označí spuštění skriptu jako neúspěšné.
+		 */
+		public void fail() {
+			failed = true;
+		}
+
+		/**
+		 * Metoda ukončí měření a zaznamená dobu trvání celé operace.
+		 */
+		public void stop() {
+			if (operation == null) {
+				return;
+			}
+			operation.phases[0].record(System.nanoTime() - start);
+			script.count.incrementAndGet();
+			if (failed) {
+				operation.failures.incrementAndGet();
+				script.failures.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Vstupní proud, který počítá přečtené bajty a čas strávený čekáním na data.
+	 */
+	public static class MeteredInputStream extends FilterInputStream {
+
+		private long bytes = 0;
+		private long readNanos = 0;
+
+		public MeteredInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			int b = super.read();
+			readNanos += System.nanoTime() - start;
+			if (b != -1) {
+				bytes++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int read = super.read(b, off, len);
+			readNanos += System.nanoTime() - start;
+			if (read > 0) {
+				bytes += read;
+			}
+			return read;
+		}
+
+		/**
+		 * @return Počet přečtených bajtů.
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return Čas strávený čtením (čekáním na data) v nanosekundách.
+		 */
+		public long getReadNanos() {
+			return readNanos;
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.List;
+
+/**
+ * Rozhraní JMX pro metriky konektoru. Pro každý koncový systém (host a port) se registruje
+ * jedna instance pod názvem
+ * <code>eu.bcvsolutions.idm.connector.ssh:type=SSHMetrics,host=...,port=...</code>.
+ *
+ * @author Jaromír Mlejnek
+ * @see SSHMetrics
+ */
+public interface SSHMetricsMXBean {
+
+	/**
+	 * @return Host a port koncového systému.
+	 */
+	String getHost();
+
+	/**
+	 * @return Statistiky operací, pro každou operaci jeden záznam pro celou operaci (fáze total)
+	 * a jeden záznam pro každou její fázi.
+	 */
+	List<SSHOperationStatistics> getOperations();
+
+	/**
+	 * @return Čítače jednotlivých skriptů.
+	 */
+	List<SSHScriptStatistics> getScripts();
+
+	/**
+	 * Metoda vynuluje všechny metriky.
+	 */
+	void reset();
+
+}
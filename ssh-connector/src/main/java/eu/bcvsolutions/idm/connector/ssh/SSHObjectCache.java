@@ -0,0 +1,213 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Cache objektů načtených GET skripty. Opakované vyhledání stejného objektu (IdM ho typicky
+ * načítá před každým provisioningem i po něm) se tak obslouží bez spouštění skriptu.
+ * <p>
+ * Záznamy jsou uloženy podle třídy objektu a dotazu, platí zadanou dobu a při překročení
+ * maximálního počtu se odstraňují naposledy použité (LRU). Operace create, update a delete
+ * záznamy měněného objektu odstraňují, objekt načtený souběžně se změnou se do cache neuloží
+ * (viz {@link #put(ObjectClass, String, ConnectorObject, long)}). Cache je sdílená všemi instancemi konektoru se stejnou
+ * konfigurací spojení a stejným nastavením čtení objektů (GET skripty, vícehodnotové atributy,
+ * "eskejpování" a parametry cache), viz {@link #createKey(SSHConfiguration)}.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHObjectCache {
+
+	private static final Map<String, SSHObjectCache> CACHES = new HashMap<String, SSHObjectCache>();
+
+	private final long ttl;
+	private final int maxEntries;
+	private final LinkedHashMap<String, CachedObject> entries;
+	//Zvysuje se pri kazdem odstraneni zaznamu, viz put.
+	private long generation = 0;
+
+	/**
+	 * Konstruktor třídy SSHObjectCache.
+	 *
+	 * @param ttl doba platnosti záznamu v milisekundách.
+	 * @param maxEntries maximální počet záznamů.
+	 */
+	private SSHObjectCache(long ttl, final int maxEntries) {
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+		//Poradi podle posledniho pristupu, nejdele nepouzity zaznam je na zacatku.
+		this.entries = new LinkedHashMap<String, CachedObject>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedObject> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Metoda navrací cache sdílenou pro danou konfiguraci. Pokud cache ještě neexistuje,
+	 * tak se vytvoří.
+	 *
+	 * @param cfg konfigurace konektoru.
+	 * @return Sdílená cache nebo null, pokud je cache v konfiguraci vypnutá.
+	 */
+	public static SSHObjectCache getCache(SSHConfiguration cfg) {
+		if (cfg.getObjectCacheTtl() <= 0 || cfg.getObjectCacheMaxEntries() <= 0) {
+			return null;
+		}
+		String key = createKey(cfg);
+		synchronized (CACHES) {
+			SSHObjectCache cache = CACHES.get(key);
+			if (cache == null) {
+				cache = new SSHObjectCache(cfg.getObjectCacheTtl(), cfg.getObjectCacheMaxEntries());
+				CACHES.put(key, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * Metoda vytvoří klíč cache. Kromě parametrů spojení obsahuje všechna nastavení, která
+	 * ovlivňují načtené objekty, instance konektoru napojené na stejný server s jinými skripty
+	 * tak nikdy nevidí objekty jiné instance. Obsahuje i parametry cache, instance s jinými
+	 * parametry tedy nesdílí (a nenahrazují) cache ostatních instancí.
+	 *
+	 * @param cfg konfigurace konektoru.
+	 * @return Klíč cache.
+	 */
+	static String createKey(SSHConfiguration cfg) {
+		StringBuilder key = new StringBuilder(SSHConnection.createConfigurationKey(cfg)).append('\n');
+		key.append(cfg.getUser()).append('\n');
+		key.append(cfg.getGroup()).append('\n');
+		key.append(SSHConnection.asString(cfg.getMultiValueAttributes())).append('\n');
+		key.append(cfg.getMultiValueAttributesSeparator()).append('\n');
+		key.append(cfg.getEscapeMode()).append('\n');
+		key.append(cfg.getObjectCacheTtl()).append('\n');
+		key.append(cfg.getObjectCacheMaxEntries());
+		return key.toString();
+	}
+
+	/**
+	 * Metoda navrací objekt uložený pro daný dotaz.
+	 *
+	 * @param objClass třída objektu.
+	 * @param query dotaz (příkaz GET skriptu).
+	 * @return Uložený objekt nebo null, pokud objekt v cache není nebo už neplatí.
+	 */
+	public synchronized ConnectorObject get(ObjectClass objClass, String query) {
+		String key = createKey(objClass, query);
+		CachedObject cached = entries.get(key);
+		if (cached == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - cached.created > ttl) {
+			entries.remove(key);
+			return null;
+		}
+		return cached.object;
+	}
+
+	/**
+	 * Metoda navrací generaci cache. Zjišťuje se před spuštěním GET skriptu a předává se
+	 * metodě {@link #put(ObjectClass, String, ConnectorObject, long)}.
+	 *
+	 * @return Aktuální generace cache.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Metoda uloží objekt nalezený pro daný dotaz. Pokud byly od zjištění generace (před
+	 * spuštěním GET skriptu) odstraněny nějaké záznamy, objekt se neuloží. Mohl být totiž
+	 * načten před souběžnou změnou, jejíž odstranění záznamů už proběhlo, a v cache by
+	 * po celou dobu platnosti zůstal jeho původní stav.
+	 *
+	 * @param objClass třída objektu.
+	 * @param query dotaz (příkaz GET skriptu).
+	 * @param object nalezený objekt.
+	 * @param generation generace cache zjištěná před načtením objektu.
+	 */
+	public synchronized void put(ObjectClass objClass, String query, ConnectorObject object, long generation) {
+		if (generation != this.generation) {
+			return;
+		}
+		entries.put(createKey(objClass, query), new CachedObject(object));
+	}
+
+	/**
+	 * Metoda odstraní všechny záznamy daného objektu.
+	 *
+	 * @param objClass třída objektu.
+	 * @param uid Uid objektu.
+	 */
+	public synchronized void invalidate(ObjectClass objClass, Uid uid) {
+		if (uid == null) {
+			return;
+		}
+		generation++;
+		Iterator<CachedObject> it = entries.values().iterator();
+		while (it.hasNext()) {
+			ConnectorObject object = it.next().object;
+			if (object.getObjectClass().equals(objClass) && object.getUid().equals(uid)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Metoda odstraní všechny záznamy.
+	 */
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	private static String createKey(ObjectClass objClass, String query) {
+		return objClass.getObjectClassValue() + "\n" + query;
+	}
+
+	/**
+	 * Objekt uložený v cache spolu s časem jeho načtení.
+	 */
+	private static class CachedObject {
+
+		private final ConnectorObject object;
+		private final long created;
+
+		private CachedObject(ConnectorObject object) {
+			this.object = object;
+			this.created = System.currentTimeMillis();
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+/**
+ * Statistika jedné fáze operace (nebo celé operace) vystavená přes JMX.
+ *
+ * @author Jaromír Mlejnek
+ * @see SSHMetricsMXBean
+ */
+public class SSHOperationStatistics {
+
+	private final String operation;
+	private final String phase;
+	private final long count;
+	private final long failures;
+	private final double meanMillis;
+	private final double p50Millis;
+	private final double p99Millis;
+	private final double maxMillis;
+
+	/**
+	 * Konstruktor třídy SSHOperationStatistics.
+	 *
+	 * @param operation název operace (první řádek příkazu předávaného skriptu).
+	 * @param phase název fáze.
+	 * @param failures počet neúspěšných operací (pouze pro celou operaci).
+	 * @param histogram histogram dob trvání fáze.
+	 */
+	public SSHOperationStatistics(String operation, String phase, long failures, SSHHistogram histogram) {
+		this.operation = operation;
+		this.phase = phase;
+		this.count = histogram.getCount();
+		this.failures = failures;
+		this.meanMillis = histogram.getMeanMillis();
+		this.p50Millis = histogram.getPercentileMillis(0.50);
+		this.p99Millis = histogram.getPercentileMillis(0.99);
+		this.maxMillis = histogram.getMaxMillis();
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getPhase() {
+		return phase;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s/%s count=%d failures=%d mean=%.3f p50=%.3f p99=%.3f max=%.3f",
+				operation, phase, count, failures, meanMillis, p50Millis, p99Millis, maxMillis);
+	}
+
+}
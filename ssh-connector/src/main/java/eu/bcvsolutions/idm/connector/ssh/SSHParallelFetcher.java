@@ -0,0 +1,207 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Handler, který pro každý vylistovaný objekt (pouze identifikátor) načte celý objekt
+ * GET skriptem. Skripty se spouští souběžně v omezeném počtu vláken, každé vlákno si
+ * zapůjčí vlastní kanál z poolu relací. Rozpracovaných objektů je nejvýše dvojnásobek
+ * počtu vláken, paměť tedy nezávisí na velikosti výpisu.
+ * <p>
+ * Načtené objekty se předávají cílovému handleru vždy ve vlákně, které volá tento handler
+ * (cílový handler tedy nemusí být vláknově bezpečný), a to buď v pořadí výpisu, nebo
+ * v pořadí, v jakém byly načteny. Po zpracování výpisu je nutné zavolat {@link #finish()}
+ * a nakonec vždy {@link #close()}.
+ * <p>
+ * Objekt, který GET skript nevrátil (mezi výpisem a načtením zanikl), se přeskočí. Chyba
+ * načtení objektu ukončí celý výpis výjimkou, neúplný výpis by se jinak nedal odlišit
+ * od výpisu, ze kterého objekty zmizely.
+ *
+ * @author Jaromír Mlejnek
+ */
+public abstract class SSHParallelFetcher implements ResultsHandler {
+
+	private static final Log log = Log.getLog(SSHParallelFetcher.class);
+	private static final int WINDOW_PER_THREAD = 2;
+
+	private final ResultsHandler handler;
+	private final boolean ordered;
+	private final int window;
+	private final ExecutorService executor;
+	private final CompletionService<ConnectorObject> completionService;
+	//Rozpracovane objekty v poradi vypisu (pouze pro dorucovani v poradi).
+	private final LinkedList<Future<ConnectorObject>> pending = new LinkedList<Future<ConnectorObject>>();
+	private int outstanding = 0;
+	private boolean stopped = false;
+
+	/**
+	 * Konstruktor třídy SSHParallelFetcher.
+	 *
+	 * @param handler cílový handler, kterému se předávají načtené objekty.
+	 * @param threads počet vláken.
+	 * @param ordered true, pokud se objekty mají předávat v pořadí výpisu.
+	 */
+	public SSHParallelFetcher(ResultsHandler handler, int threads, boolean ordered) {
+		this.handler = handler;
+		this.ordered = ordered;
+		this.window = threads * WINDOW_PER_THREAD;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ssh-parallel-fetch-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.completionService = new ExecutorCompletionService<ConnectorObject>(executor);
+	}
+
+	/**
+	 * Metoda načte celý objekt.
+	 *
+	 * @param uid identifikátor objektu.
+	 * @return Načtený objekt nebo null, pokud GET skript objekt nevrátil (objekt mezitím zanikl).
+	 * @throws ConnectorException pokud se objekt nepodařilo načíst.
+	 */
+	protected abstract ConnectorObject fetch(Uid uid);
+
+	/**
+	 * Metoda zařadí načtení vylistovaného objektu a předá cílovému handleru objekty, které
+	 * jsou již načtené. Pokud je rozpracováno příliš mnoho objektů, tak se čeká.
+	 *
+	 * @param object vylistovaný objekt.
+	 * @return false, pokud cílový handler ukončil zpracování.
+	 */
+	public boolean handle(ConnectorObject object) {
+		if (stopped) {
+			return false;
+		}
+		final Uid uid = object.getUid();
+		Callable<ConnectorObject> task = new Callable<ConnectorObject>() {
+			public ConnectorObject call() {
+				ConnectorObject fetched = fetch(uid);
+				if (fetched == null) {
+					log.info("Listed object {0} no longer exists, skipped.", uid.getUidValue());
+				}
+				return fetched;
+			}
+		};
+		outstanding++;
+		if (ordered) {
+			//Frontu dokoncenych uloh CompletionService by nikdo necetl, ulohy zadavame primo.
+			pending.addLast(executor.submit(task));
+			//Predame hotove objekty ze zacatku fronty, pri plne fronte cekame na prvni.
+			while (!stopped && !pending.isEmpty() && (pending.size() >= window || pending.getFirst().isDone())) {
+				deliver(pending.removeFirst());
+			}
+		} else {
+			completionService.submit(task);
+			Future<ConnectorObject> done;
+			while (!stopped && outstanding > 0 && (done = completionService.poll()) != null) {
+				deliver(done);
+			}
+			while (!stopped && outstanding >= window) {
+				deliver(take());
+			}
+		}
+		return !stopped;
+	}
+
+	/**
+	 * Metoda počká na všechny rozpracované objekty a předá je cílovému handleru.
+	 *
+	 * @return false, pokud cílový handler ukončil zpracování.
+	 */
+	public boolean finish() {
+		if (ordered) {
+			while (!stopped && !pending.isEmpty()) {
+				deliver(pending.removeFirst());
+			}
+		} else {
+			while (!stopped && outstanding > 0) {
+				deliver(take());
+			}
+		}
+		return !stopped;
+	}
+
+	/**
+	 * Metoda ukončí vlákna. Objekty, které se ještě nezačaly načítat, se již nenačtou.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private Future<ConnectorObject> take() {
+		try {
+			return completionService.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted while waiting for objects.", ex);
+		}
+	}
+
+	/**
+	 * Metoda počká na načtení objektu a předá ho cílovému handleru.
+	 *
+	 * @param future načítaný objekt.
+	 */
+	private void deliver(Future<ConnectorObject> future) {
+		outstanding--;
+		ConnectorObject object;
+		try {
+			object = future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted while waiting for objects.", ex);
+		} catch (ExecutionException ex) {
+			stopped = true;
+			if (ex.getCause() instanceof ConnectorException) {
+				throw (ConnectorException) ex.getCause();
+			}
+			throw new ConnectorException("Reading of object failed.", ex.getCause());
+		}
+		if (object != null && !handler.handle(object)) {
+			stopped = true;
+		}
+	}
+
+}
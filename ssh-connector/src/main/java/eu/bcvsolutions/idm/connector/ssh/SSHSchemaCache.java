@@ -0,0 +1,238 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.Schema;
+
+/**
+ * Cache schémat konektoru. Schéma se ukládá zvlášť pro každý koncový systém (host, port
+ * a cesta ke skriptu getAttributesSchema), instance konektoru napojené na různé systémy tak
+ * nikdy nevidí schéma jiného systému.
+ * <p>
+ * Pokud je v konfiguraci nastaven adresář cache, tak se výstup skriptu getAttributesSchema
+ * ukládá i do souboru. Po restartu se schéma načte ze souboru, dokud nevyprší jeho platnost,
+ * a konektor se tedy kvůli schématu nemusí připojovat ke koncovému systému.
+ * <p>
+ * Doba platnosti ({@link SSHConfiguration#getSchemaCacheTtl()}) platí pro schéma v paměti
+ * i v souboru a počítá se od chvíle, kdy bylo schéma načteno z koncového systému.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHSchemaCache {
+
+	private static final Log log = Log.getLog(SSHSchemaCache.class);
+	private static final String ENCODING = "UTF-8";
+	private static final String FILE_PREFIX = "ssh-schema-";
+	private static final String FILE_SUFFIX = ".csv";
+
+	private static final Map<String, Entry> SCHEMAS = new HashMap<String, Entry>();
+
+	private SSHSchemaCache() {
+	}
+
+	/**
+	 * Metoda vytvoří klíč, pod kterým se ukládá schéma dané konfigurace.
+	 *
+	 * @param cfg konfigurace konektoru.
+	 * @return Klíč schématu.
+	 */
+	public static String createKey(SSHConfiguration cfg) {
+		return cfg.getHost() + ":" + cfg.getPort() + ":" + cfg.getAttributesSchema();
+	}
+
+	/**
+	 * @param key klíč schématu.
+	 * @param ttl doba platnosti schématu v milisekundách (0 = neomezená).
+	 * @return Schéma uložené v paměti nebo null, pokud ještě nebylo načteno nebo vypršela
+	 * jeho platnost.
+	 */
+	public static Schema getSchema(String key, long ttl) {
+		synchronized (SCHEMAS) {
+			Entry entry = SCHEMAS.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (ttl > 0 && System.currentTimeMillis() - entry.loadedAt > ttl) {
+				SCHEMAS.remove(key);
+				return null;
+			}
+			return entry.schema;
+		}
+	}
+
+	/**
+	 * Metoda uloží schéma do paměti.
+	 *
+	 * @param key klíč schématu.
+	 * @param schema schéma.
+	 * @param loadedAt čas, kdy bylo schéma načteno z koncového systému.
+	 */
+	public static void putSchema(String key, Schema schema, long loadedAt) {
+		synchronized (SCHEMAS) {
+			SCHEMAS.put(key, new Entry(schema, loadedAt));
+		}
+	}
+
+	/**
+	 * @param key klíč schématu.
+	 * @param cfg konfigurace s adresářem cache.
+	 * @return Čas uložení souboru se schématem nebo aktuální čas, pokud soubor neexistuje.
+	 */
+	public static long getDefinitionTime(String key, SSHConfiguration cfg) {
+		File file = getFile(key, cfg);
+		return file != null && file.isFile() ? file.lastModified() : System.currentTimeMillis();
+	}
+
+	/**
+	 * Metoda načte výstup skriptu getAttributesSchema uložený v souboru.
+	 *
+	 * @param key klíč schématu.
+	 * @param cfg konfigurace s adresářem a dobou platnosti cache.
+	 * @return Uložený výstup skriptu nebo null, pokud soubor neexistuje, vypršela jeho platnost
+	 * nebo není adresář cache nastaven.
+	 */
+	public static String loadDefinition(String key, SSHConfiguration cfg) {
+		File file = getFile(key, cfg);
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		long ttl = cfg.getSchemaCacheTtl();
+		if (ttl > 0 && System.currentTimeMillis() - file.lastModified() > ttl) {
+			log.info("Cached schema {0} expired.", file.getPath());
+			return null;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			ByteArrayOutputStream data = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				data.write(buffer, 0, read);
+			}
+			log.info("Schema loaded from {0}.", file.getPath());
+			return data.toString(ENCODING);
+		} catch (IOException ioExc) {
+			log.warn("Cannot read cached schema {0}. {1}", file.getPath(), ioExc.getMessage());
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Metoda uloží výstup skriptu getAttributesSchema do souboru. Soubor se nejprve zapíše
+	 * pod dočasným názvem a teprve potom se přejmenuje, jiný proces tak nikdy nenačte
+	 * neúplný soubor.
+	 *
+	 * @param key klíč schématu.
+	 * @param cfg konfigurace s adresářem cache.
+	 * @param definition výstup skriptu.
+	 */
+	public static void storeDefinition(String key, SSHConfiguration cfg, String definition) {
+		File file = getFile(key, cfg);
+		if (file == null) {
+			return;
+		}
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			log.warn("Cannot create schema cache directory {0}.", dir.getPath());
+			return;
+		}
+		OutputStream out = null;
+		try {
+			File tmp = File.createTempFile(FILE_PREFIX, ".tmp", dir);
+			try {
+				out = new FileOutputStream(tmp);
+				out.write(definition.getBytes(ENCODING));
+				out.close();
+				out = null;
+				if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+					throw new IOException("Cannot rename " + tmp.getPath() + " to " + file.getPath());
+				}
+			} finally {
+				close(out);
+				if (tmp.exists()) {
+					tmp.delete();
+				}
+			}
+		} catch (IOException ioExc) {
+			log.warn("Cannot store schema to {0}. {1}", file.getPath(), ioExc.getMessage());
+		}
+	}
+
+	private static File getFile(String key, SSHConfiguration cfg) {
+		if (StringUtil.isBlank(cfg.getSchemaCacheDirectory())) {
+			return null;
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(key.getBytes(ENCODING));
+			StringBuilder name = new StringBuilder(FILE_PREFIX);
+			for (int i = 0; i < hash.length; i++) {
+				name.append(String.format("%02x", hash[i]));
+			}
+			return new File(cfg.getSchemaCacheDirectory(), name.append(FILE_SUFFIX).toString());
+		} catch (Exception ex) {
+			throw new IllegalStateException("Cannot create schema cache file name.", ex);
+		}
+	}
+
+	/**
+	 * Schéma uložené v paměti spolu s časem načtení.
+	 */
+	private static class Entry {
+
+		private final Schema schema;
+		private final long loadedAt;
+
+		Entry(Schema schema, long loadedAt) {
+			this.schema = schema;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ex) {
+				//Nelze nic delat
+			}
+		}
+	}
+
+}
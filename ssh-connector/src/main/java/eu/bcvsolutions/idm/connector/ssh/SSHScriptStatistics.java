@@ -0,0 +1,92 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.Map;
+
+/**
+ * Čítače jednoho skriptu na koncovém systému vystavené přes JMX.
+ *
+ * @author Jaromír Mlejnek
+ * @see SSHMetricsMXBean
+ */
+public class SSHScriptStatistics {
+
+	private final String script;
+	private final long count;
+	private final long failures;
+	private final long bytesIn;
+	private final long bytesOut;
+	private final Map<Integer, Long> exitCodes;
+
+	/**
+	 * Konstruktor třídy SSHScriptStatistics.
+	 *
+	 * @param script cesta ke skriptu.
+	 * @param count počet spuštění.
+	 * @param failures počet neúspěšných spuštění (chyba spojení nebo nenulový návratový kód).
+	 * @param bytesIn počet bajtů přečtených ze standardního výstupu skriptu.
+	 * @param bytesOut počet bajtů zapsaných na standardní vstup skriptu.
+	 * @param exitCodes počty spuštění podle návratového kódu.
+	 */
+	public SSHScriptStatistics(String script, long count, long failures, long bytesIn, long bytesOut,
+			Map<Integer, Long> exitCodes) {
+		this.script = script;
+		this.count = count;
+		this.failures = failures;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.exitCodes = exitCodes;
+	}
+
+	public String getScript() {
+		return script;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	public Map<Integer, Long> getExitCodes() {
+		return exitCodes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s count=%d failures=%d in=%d out=%d exitCodes=%s",
+				script, count, failures, bytesIn, bytesOut, exitCodes);
+	}
+
+}
@@ -0,0 +1,365 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.identityconnectors.common.StringUtil;
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Továrna navazující SSH relace pro jednu konfiguraci spojení. Továrny jsou sdílené všemi
+ * spojeními ({@link SSHConnection}) se stejným klíčem konfigurace a používají je pooly relací
+ * ({@link SSHSessionPool}), nová relace tedy nikdy nevzniká pomocí konkrétní (a případně již
+ * ukončené) instance spojení.
+ * <p>
+ * Továrna drží připravenou instanci JSch s načteným privátním klíčem. Instance se uvolní
+ * (a klíče se z ní odstraní), jakmile továrnu uvolní poslední spojení.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHSessionFactory {
+
+	private static final Log log = Log.getLog(SSHSessionFactory.class);
+
+	private static final Map<String, SSHSessionFactory> FACTORIES = new HashMap<String, SSHSessionFactory>();
+
+	private final String key;
+	private final SSHConfiguration config;
+	private final SSHHostGroup hostGroup;
+	//Pocet neukoncenych spojeni, ktera tovarnu pouzivaji (se zamkem FACTORIES).
+	private int references = 0;
+	//Pripravena instance JSch (s nactenym privatnim klicem a otiskem serveru).
+	private JSch jsch;
+
+	/**
+	 * Konstruktor třídy SSHSessionFactory.
+	 *
+	 * @param key klíč konfigurace spojení.
+	 * @param cfg konfigurace konektoru.
+	 */
+	private SSHSessionFactory(String key, SSHConfiguration cfg) {
+		this.key = key;
+		this.config = cfg;
+		this.hostGroup = SSHHostGroup.getGroup(key, cfg);
+	}
+
+	/**
+	 * Metoda navrací továrnu sdílenou pro daný klíč konfigurace. Pokud továrna ještě neexistuje,
+	 * tak se vytvoří. Každé získání továrny musí být párováno s voláním {@link #release()}.
+	 *
+	 * @param key klíč konfigurace spojení (viz {@link SSHConnection#createConfigurationKey(SSHConfiguration)}).
+	 * @param cfg konfigurace konektoru.
+	 * @return Sdílená továrna.
+	 */
+	public static SSHSessionFactory acquire(String key, SSHConfiguration cfg) {
+		synchronized (FACTORIES) {
+			SSHSessionFactory factory = FACTORIES.get(key);
+			if (factory == null) {
+				factory = new SSHSessionFactory(key, cfg);
+				FACTORIES.put(key, factory);
+			}
+			factory.references++;
+			return factory;
+		}
+	}
+
+	/**
+	 * Metoda uvolní továrnu získanou metodou {@link #acquire(String, SSHConfiguration)}. Po uvolnění
+	 * posledním spojením se továrna odstraní z registru a z její instance JSch se odstraní
+	 * (a vymažou) načtené privátní klíče, po změně klíče nebo hesla tak v paměti nezůstávají
+	 * staré klíče.
+	 */
+	public void release() {
+		JSch released = null;
+		synchronized (FACTORIES) {
+			references--;
+			if (references <= 0) {
+				if (FACTORIES.get(key) == this) {
+					FACTORIES.remove(key);
+				}
+				released = jsch;
+				jsch = null;
+			}
+		}
+		if (released != null) {
+			try {
+				released.removeAllIdentity();
+			} catch (JSchException ex) {
+				log.warn("Cannot remove private keys from JSch. {0}", ex.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return Klíč konfigurace spojení.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return Konfigurace, podle které továrna navazuje relace.
+	 */
+	public SSHConfiguration getConfiguration() {
+		return config;
+	}
+
+	/**
+	 * @return Skupina hostitelů konfigurace.
+	 */
+	public SSHHostGroup getHostGroup() {
+		return hostGroup;
+	}
+
+	/**
+	 * Metoda pro vytvoření spojení s koncovým systémem. Pokud je uveden privátní klíč, tak
+	 * se implicitně použije pro autentizaci. Jinak se použije dvojice uživatelské jméno a
+	 * heslo. Pokud je uveden otisk veřejného klíče serveru, ke kterému se připojujeme, tak
+	 * se použije pro jeho verifikaci.
+	 *
+	 * @param host hostitel, ke kterému se spojení naváže.
+	 * @return Nová instance třídy Session.
+	 */
+	public Session startConnection(SSHHostGroup.Host host) {
+		String privateKey = SSHConnection.asString(config.getPrivkey());
+		Session session = null;
+		boolean networkFailure = true;
+		try {
+			if (!StringUtil.isBlank(privateKey)) {
+				//Private key used for authentication
+				log.info("Private key used for authentication.");
+				session = createSSHConnectionWithPrivateKey(host);
+			} else {
+				//Authentication via password
+				log.info("Authentication via password.");
+				session = createSSHConnectionWithPassword(host, config.getPassword());
+			}
+		    	
+			session.connect(SSHConfiguration.CONNECTION_TIMEOUT);					
+			log.info("Succesfull connection.");
+		} catch (Exception ex) {
+			if (ex instanceof IOException) {
+				log.warn("IOException caught: " + ex.getMessage());
+			} else {
+				networkFailure = isNetworkFailure(ex);
+				log.error("Connecting to server failed. {0}",ex.getMessage());
+				throw new ConnectionFailedException("Connecting to server failed.");
+			}
+		} finally {
+			//clear user password
+			if (session != null) {
+				session.setPassword("");
+			}
+			if (session != null && session.isConnected()) {
+				hostGroup.markAvailable(host);
+			} else if (networkFailure) {
+				//Chyby autentizace a overeni serveru jistic nepocita.
+				hostGroup.markFailed(host);
+			}
+		}
+		return session;
+	}
+    
+    /**
+     * Metoda rozhodne, zda připojení selhalo kvůli síti (odmítnuté nebo přerušené spojení,
+     * neznámý hostitel, vypršení času připojení). Chyby autentizace nebo ověření klíče
+     * serveru za chyby sítě považovány nejsou.
+     * 
+     * @param ex výjimka vyhozená při připojování.
+     * @return true, pokud jde o chybu sítě.
+     */
+    static boolean isNetworkFailure(Throwable ex) {
+    	for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+    		if (cause instanceof IOException) {
+    			return true;
+    		}
+    	}
+    	String message = ex.getMessage();
+    	return message != null && message.startsWith("timeout");
+    }
+    
+    /**
+     * Metoda slouží pro vytvořeni SSH spojení s koncovým systémem při autentizaci 
+     * uživatelským jménem a heslem.
+     * 
+     * @param host hostitel, ke kterému se spojení naváže.
+     * @param password heslo obsažené v instanci třídy GuardedString.
+     * @return Vytvořená (zatím nenavázaná) relace.
+     * @throws JSchException
+     */
+    private Session createSSHConnectionWithPassword(SSHHostGroup.Host host, final GuardedString password) throws JSchException {
+    	Session session = createSession(getJSch(), host);
+    	session.setPassword(SSHConnection.asString(password));
+
+    	setHostHashCheckingIfNeeded(session);
+    	return session;
+    }
+    
+    
+    /**
+     * Metoda slouží k vytvoření SSH spojení s koncovým systémem při autentizaci 
+     * privátním klíčem. Klíč je načtený (a případně dešifrovaný) v instanci JSch,
+     * která se připravuje pouze jednou pro každou konfiguraci.
+     * 
+     * @param host hostitel, ke kterému se spojení naváže.
+     * @return Vytvořená (zatím nenavázaná) relace.
+     * @throws JSchException
+     */
+    private Session createSSHConnectionWithPrivateKey(SSHHostGroup.Host host) throws JSchException {    	    	    	       	
+    	Session session = createSession(getJSch(), host);
+  
+    	//radek nize je tu kvuli tomu, aby se preskakovala moznost autentizace gssapi-with-mic,
+    	//ktera v tomto pripade stejne nemuze uspet a zapisuje do logu vyjimku
+    	session.setConfig("PreferredAuthentications","publickey,keyboard-interactive,password");
+    	
+    	setHostHashCheckingIfNeeded(session);
+    	return session;
+    }
+    
+    /**
+     * Metoda navrací instanci JSch připravenou pro konfiguraci továrny. Instance se vytváří
+     * pouze jednou a sdílí ji všechny relace a instance konektoru se stejnou konfigurací,
+     * privátní klíč se tak nemusí pro každé spojení znovu načítat a dešifrovat. Instance se
+     * uvolní s uvolněním továrny posledním spojením (viz {@link #release()}).
+     * 
+     * @return Připravená instance JSch.
+     * @throws JSchException
+     */
+    private JSch getJSch() throws JSchException {
+    	synchronized (FACTORIES) {
+    		if (jsch != null) {
+    			return jsch;
+    		}
+    		JSch created = createJSch();
+    		//Po uvolneni tovarny se instance neuklada, uz by ji nikdo neuvolnil.
+    		if (references > 0) {
+    			jsch = created;
+    		}
+    		return created;
+    	}
+    }
+    
+    /**
+     * Metoda vytvoří instanci JSch, načte do ní privátní klíč (pokud je uveden) a nastaví
+     * kontrolu otisku veřejného klíče serveru (pokud je uveden).
+     * 
+     * @return Nová instance JSch.
+     * @throws JSchException
+     */
+    private JSch createJSch() throws JSchException {
+    	JSch jsch = new JSch();
+    	String privateKey = SSHConnection.asString(config.getPrivkey());
+    	if (!StringUtil.isBlank(privateKey)) {
+    		addIdentity(jsch, privateKey, config.getPrivkeyPassword());
+    	}
+    	
+    	String hostKeyFingerPrint = SSHConnection.asString(config.getHostkey());
+    	if (!StringUtil.isBlank(hostKeyFingerPrint)) {
+    		SSHConnection.HostFingerPrints fingerPrints = new SSHConnection.HostFingerPrints(jsch);
+    		fingerPrints.addFingerPrint(hostKeyFingerPrint);  
+    		jsch.setHostKeyRepository(fingerPrints);
+    	}
+    	return jsch;
+    }
+    
+    /**
+     * Metoda načte privátní klíč do instance JSch. Klíč chráněný heslem se dešifruje
+     * již při načtení.
+     * 
+     * @param jsch
+     * @param privateKey privátní klíč uživatele (uzožen v jednom String řetezci).
+     * @param keyPassword heslo k privátnímu klíči, pokud je uvedeno.
+     * @throws JSchException
+     */
+    private void addIdentity(JSch jsch, String privateKey, final GuardedString keyPassword) throws JSchException {
+    	privateKey = privateKey.replaceFirst("\\n(DEK-Info:[^\\n]+\\n)([^\\r\\n]+)", "$1\n$2");    	        	    	    	    	    	
+    	
+    	String hostkey = SSHConnection.asString(config.getHostkey());
+    	String username = config.getUsername();
+    	
+    	//Nacteme si pripadne heslo ke klici a otisk verejneho klice serveru.
+    	boolean isKeyPasswd = (StringUtil.isBlank(SSHConnection.asString(keyPassword))) ? false : true;
+    	boolean isHostKey = (StringUtil.isBlank(hostkey)) ? false : true;    	    
+    	
+    	if (!isKeyPasswd) {
+    		if (!isHostKey) {    			
+    			log.info("Use private key - no key password, no host key.");    			
+    			jsch.addIdentity(username, privateKey.getBytes(), null, null);
+    		} else {
+    			log.info("Use private key - no key password, specified host key.");    			
+    			jsch.addIdentity(username, privateKey.getBytes(), hostkey.getBytes(), null);
+    		}    	
+    	}  else {
+    		if (!isHostKey) {
+    			log.info("Use private key - with key password, no host key.");
+    			jsch.addIdentity(username, 
+    					privateKey.getBytes(), null, SSHConnection.asString(keyPassword).getBytes());
+    		} else {
+    			log.info("Use private key - with key password, specified host key.");
+        		jsch.addIdentity(username, privateKey.getBytes(), 
+        				hostkey.getBytes(), SSHConnection.asString(keyPassword).getBytes());
+    		}
+    	}    	
+    }
+    
+    /**
+     * Metoda pro vytvoření relace. Je nutné, aby bylo uvedeno uživatelské jméno, 
+     * adresa k serveru a číslo portu. 
+     * 
+     * @param jsch
+     * @param host hostitel, ke kterému se relace naváže.
+     * @return Vytvořenou relaci.
+     * @throws JSchException
+     */
+    private Session createSession(JSch jsch, SSHHostGroup.Host host) throws JSchException {    	
+    	Session session = jsch.getSession(config.getUsername(), 
+    			host.getHost(), host.getPort());
+    	return session;
+    }
+        
+    /**
+     * Metoda zajišťující kontrolu otisku veřejného klíče (pokud je zadaný). Samotný otisk
+     * je nastaven v instanci JSch (viz {@link #createJSch()}).
+     *  
+     * @param session Relace, pro kterou se 
+     */
+    private void setHostHashCheckingIfNeeded(Session session) {        
+        String hostKeyFingerPrint = SSHConnection.asString(config.getHostkey());    	    	
+        
+        if (!StringUtil.isBlank(hostKeyFingerPrint)) {        	
+            session.setConfig("StrictHostKeyChecking", "yes");
+        } else {
+            session.setConfig("StrictHostKeyChecking", "no");
+        }
+    }
+
+}
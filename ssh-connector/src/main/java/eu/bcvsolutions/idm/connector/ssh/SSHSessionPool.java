@@ -0,0 +1,434 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
+
+import com.jcraft.jsch.Session;
+
+/**
+ * Omezený pool autentizovaných SSH relací. Relace se po provedení příkazu nezavírají,
+ * ale zůstávají v poolu a další operace je znovu použijí, takže se handshake a autentizace
+ * provádí pouze jednou za dobu života relace.
+ * <p>
+ * Pool nepůjčuje celé relace, ale kanály v nich. Jedna relace může současně obsluhovat
+ * až zadaný počet kanálů (viz MaxSessions v konfiguraci OpenSSH), teprve poté se navazuje
+ * další relace. Pooly jsou sdílené všemi instancemi konektoru se stejnou konfigurací
+ * spojení, paralelní operace tak nepotřebují vlastní TCP spojení.
+ * <p>
+ * Pool obsahuje relace k jednomu hostiteli. Pokud má koncový systém více hostitelů
+ * ({@link SSHHostGroup}), má každý hostitel vlastní pool.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHSessionPool {
+
+	private static final Log log = Log.getLog(SSHSessionPool.class);
+
+	//Interval, ve kterem se z poolu odstranuji necinne relace.
+	private static final long EVICTION_INTERVAL = 10000;
+
+	private static final Map<String, SSHSessionPool> POOLS = new HashMap<String, SSHSessionPool>();
+	private static ScheduledExecutorService evictor;
+
+	private final String key;
+	//Tovarna posledniho spojeni, ktere pool ziskalo (se zamkem poolu).
+	private SSHSessionFactory factory;
+	private final SSHHostGroup.Host host;
+	private final int minSize;
+	private final int maxSize;
+	private final int maxChannels;
+	private final long idleTimeout;
+	private final long maxLifetime;
+
+	//Navazane relace, na zacatku je naposledy pouzita relace.
+	private final LinkedList<PooledSession> sessions = new LinkedList<PooledSession>();
+	private final Map<Session, PooledSession> sessionMap = new HashMap<Session, PooledSession>();
+	//Pocet relaci, ktere se prave navazuji.
+	private int pending = 0;
+	//Pocet instanci SSHConnection, ktere pool pouzivaji.
+	private int references = 0;
+
+	/**
+	 * Konstruktor třídy SSHSessionPool.
+	 *
+	 * @param key klíč, pod kterým je pool sdílen.
+	 * @param factory továrna, pomocí které se vytváří nové relace.
+	 * @param host hostitel, ke kterému se relace navazují.
+	 */
+	private SSHSessionPool(String key, SSHSessionFactory factory, SSHHostGroup.Host host) {
+		SSHConfiguration cfg = factory.getConfiguration();
+		this.key = key;
+		this.factory = factory;
+		this.host = host;
+		this.minSize = cfg.getSessionPoolMinSize();
+		this.maxSize = cfg.getSessionPoolMaxSize();
+		this.maxChannels = cfg.getMaxChannelsPerSession();
+		this.idleTimeout = cfg.getSessionIdleTimeout();
+		this.maxLifetime = cfg.getSessionMaxLifetime();
+	}
+
+	/**
+	 * Metoda navrací pool sdílený pro daný klíč konfigurace a hostitele. Pokud pool ještě
+	 * neexistuje, tak se vytvoří. Každé získání poolu musí být párováno s voláním {@link #release()}.
+	 * <p>
+	 * Nové relace pool navazuje továrnou, se kterou byl naposledy získán. Pool přežívá spojení,
+	 * která ho získala, továrna ukončeného spojení se ale použije nejvýše do dalšího získání.
+	 *
+	 * @param factory továrna relací konfigurace spojení (získaná volajícím spojením).
+	 * @param host hostitel, ke kterému pool navazuje relace.
+	 * @return Sdílený pool.
+	 */
+	public static SSHSessionPool acquire(SSHSessionFactory factory, SSHHostGroup.Host host) {
+		String key = factory.getKey() + "@" + host;
+		synchronized (POOLS) {
+			SSHSessionPool pool = POOLS.get(key);
+			if (pool == null) {
+				pool = new SSHSessionPool(key, factory, host);
+				POOLS.put(key, pool);
+				startEvictor();
+			}
+			synchronized (pool) {
+				pool.factory = factory;
+				pool.references++;
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Metoda uvolní pool získaný metodou {@link #acquire(SSHSessionFactory, SSHHostGroup.Host)}. Relace v poolu
+	 * zůstávají otevřené pro další instance konektoru, dokud nevyprší doba nečinnosti. Minimální
+	 * počet relací se v poolu, který nikdo nepoužívá, nedodržuje.
+	 */
+	public void release() {
+		synchronized (this) {
+			references--;
+		}
+		evictExpired();
+	}
+
+	/**
+	 * Metoda zapůjčí z poolu relaci s volným kanálem. Přednostně se použije již vytížená relace,
+	 * aby se kanály soustředily do co nejmenšího počtu spojení. Pokud žádná relace nemá volný kanál
+	 * a pool ještě nedosáhl maximální velikosti, tak se vytvoří nová relace. Jinak se čeká na
+	 * uvolnění kanálu nejdéle po dobu {@link SSHConfiguration#CONNECTION_TIMEOUT}.
+	 *
+	 * @return Navázaná relace, ve které je pro volajícího rezervován jeden kanál.
+	 * @throws ConnectionFailedException pokud se nepodaří relaci získat.
+	 */
+	public Session borrowSession() {
+		List<PooledSession> toDestroy = new ArrayList<PooledSession>();
+		SSHSessionFactory sessionFactory;
+		try {
+			synchronized (this) {
+				long deadline = System.currentTimeMillis() + SSHConfiguration.CONNECTION_TIMEOUT;
+				while (true) {
+					removeExpired(toDestroy);
+					PooledSession best = null;
+					long now = System.currentTimeMillis();
+					for (PooledSession pooled : sessions) {
+						if (pooled.channels < maxChannels && isUsable(pooled, now)
+								&& (best == null || pooled.channels > best.channels)) {
+							best = pooled;
+						}
+					}
+					if (best != null) {
+						best.channels++;
+						return best.session;
+					}
+					if (sessions.size() + pending < maxSize) {
+						pending++;
+						sessionFactory = factory;
+						break;
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new ConnectionFailedException("No SSH session available in the pool.");
+					}
+					try {
+						wait(remaining);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new ConnectionFailedException("Interrupted while waiting for SSH session.");
+					}
+				}
+			}
+		} finally {
+			destroy(toDestroy);
+		}
+
+		//Novou relaci navazujeme mimo zamek, handshake muze trvat dlouho.
+		Session session = null;
+		try {
+			session = sessionFactory.startConnection(host);
+			if (session == null || !session.isConnected()) {
+				throw new ConnectionFailedException("Connecting to server failed.");
+			}
+		} finally {
+			synchronized (this) {
+				pending--;
+				if (session != null && session.isConnected()) {
+					PooledSession pooled = new PooledSession(session);
+					pooled.channels = 1;
+					sessions.addFirst(pooled);
+					sessionMap.put(session, pooled);
+				}
+				notifyAll();
+			}
+		}
+		return session;
+	}
+
+	/**
+	 * Metoda uvolní kanál v relaci zapůjčené metodou {@link #borrowSession()}. Odpojená relace
+	 * nebo relace, které vypršela doba života, se uzavře, jakmile v ní neběží žádný kanál.
+	 *
+	 * @param session zapůjčená relace.
+	 */
+	public void releaseSession(Session session) {
+		PooledSession pooled;
+		synchronized (this) {
+			pooled = sessionMap.get(session);
+			if (pooled == null) {
+				return;
+			}
+			pooled.channels--;
+			pooled.lastUsed = System.currentTimeMillis();
+			if (pooled.channels > 0 || isUsable(pooled, pooled.lastUsed)) {
+				//Naposledy pouzitou relaci presuneme na zacatek
+				sessions.remove(pooled);
+				sessions.addFirst(pooled);
+				pooled = null;
+			} else {
+				remove(pooled);
+			}
+			notifyAll();
+		}
+		if (pooled != null) {
+			pooled.destroy();
+		}
+	}
+
+	/**
+	 * Metoda odstraní relaci z poolu a uzavře ji. Používá se v případě, že relace
+	 * přestala být použitelná. Ostatní kanály v této relaci tím skončí chybou.
+	 *
+	 * @param session zapůjčená relace.
+	 */
+	public void invalidateSession(Session session) {
+		PooledSession pooled;
+		synchronized (this) {
+			pooled = sessionMap.get(session);
+			if (pooled != null) {
+				remove(pooled);
+			}
+			notifyAll();
+		}
+		if (pooled != null) {
+			pooled.destroy();
+		} else if (session != null) {
+			session.disconnect();
+		}
+	}
+
+	/**
+	 * Metoda uvolní kanál v zapůjčené relaci a relaci vyřadí z používání. Používá se v případě,
+	 * že v relaci nelze otevřít kanál, ale relace je stále připojená a mohou v ní běžet jiné
+	 * kanály. Relace se již nebude půjčovat a uzavře se, jakmile v ní doběhnou ostatní kanály.
+	 *
+	 * @param session zapůjčená relace.
+	 */
+	public void retireSession(Session session) {
+		synchronized (this) {
+			PooledSession pooled = sessionMap.get(session);
+			if (pooled != null) {
+				pooled.retired = true;
+			}
+		}
+		releaseSession(session);
+	}
+
+	/**
+	 * Metoda ověří nečinné relace v poolu zprávou keepalive. Relace, do které se zprávu
+	 * nepodaří odeslat, se z poolu odstraní a uzavře. Relace s běžícími kanály se neověřují,
+	 * jejich funkčnost ukáže samotný provoz.
+	 */
+	public void checkAlive() {
+		List<PooledSession> idle = new ArrayList<PooledSession>();
+		List<PooledSession> toDestroy = new ArrayList<PooledSession>();
+		synchronized (this) {
+			removeExpired(toDestroy);
+			for (PooledSession pooled : sessions) {
+				if (pooled.channels == 0) {
+					idle.add(pooled);
+				}
+			}
+		}
+		destroy(toDestroy);
+		
+		for (PooledSession pooled : idle) {
+			try {
+				pooled.session.sendKeepAliveMsg();
+			} catch (Exception ex) {
+				log.info("Keepalive of pooled SSH session failed. {0}", ex.getMessage());
+				invalidateSession(pooled.session);
+			}
+		}
+	}
+
+	/**
+	 * Metoda uzavře nepoužívané relace, kterým vypršela doba nečinnosti nebo doba života.
+	 * Pool, který nemá žádné relace ani uživatele, se odstraní z registru.
+	 */
+	void evictExpired() {
+		List<PooledSession> toDestroy = new ArrayList<PooledSession>();
+		synchronized (POOLS) {
+			synchronized (this) {
+				removeExpired(toDestroy);
+				if (references <= 0 && sessions.isEmpty() && pending == 0) {
+					POOLS.remove(key);
+				}
+			}
+		}
+		destroy(toDestroy);
+	}
+
+	/**
+	 * Metoda odebere z poolu nepoužívané relace, které jsou odpojené, vypršela jim doba života
+	 * nebo byly příliš dlouho nečinné (pokud pool obsahuje více než minimální počet relací nebo
+	 * pool nikdo nepoužívá). Pokud pool nikdo nepoužívá a doba nečinnosti není omezena, odeberou
+	 * se všechny nepoužívané relace.
+	 *
+	 * @param toDestroy seznam, do kterého se přidají relace k uzavření.
+	 */
+	private void removeExpired(List<PooledSession> toDestroy) {
+		long now = System.currentTimeMillis();
+		Iterator<PooledSession> it = sessions.descendingIterator();
+		while (it.hasNext()) {
+			PooledSession pooled = it.next();
+			if (pooled.channels > 0) {
+				continue;
+			}
+			boolean idleTooLong;
+			if (references <= 0) {
+				//Pool nikdo nepouziva, minimalni pocet relaci neplati.
+				idleTooLong = idleTimeout <= 0 || now - pooled.lastUsed > idleTimeout;
+			} else {
+				idleTooLong = idleTimeout > 0 && now - pooled.lastUsed > idleTimeout
+						&& sessions.size() + pending > minSize;
+			}
+			if (idleTooLong || !isUsable(pooled, now)) {
+				it.remove();
+				sessionMap.remove(pooled.session);
+				toDestroy.add(pooled);
+			}
+		}
+	}
+
+	private void remove(PooledSession pooled) {
+		sessions.remove(pooled);
+		sessionMap.remove(pooled.session);
+	}
+
+	private boolean isUsable(PooledSession pooled, long now) {
+		if (pooled.retired || !pooled.session.isConnected()) {
+			return false;
+		}
+		return maxLifetime <= 0 || now - pooled.created < maxLifetime;
+	}
+
+	private static void destroy(List<PooledSession> sessions) {
+		for (PooledSession pooled : sessions) {
+			pooled.destroy();
+		}
+	}
+
+	/**
+	 * Metoda spustí (pokud ještě neběží) vlákno, které pravidelně uzavírá nečinné relace
+	 * ve všech poolech.
+	 */
+	private static void startEvictor() {
+		if (evictor != null) {
+			return;
+		}
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ssh-session-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				List<SSHSessionPool> pools;
+				synchronized (POOLS) {
+					pools = new ArrayList<SSHSessionPool>(POOLS.values());
+				}
+				for (SSHSessionPool pool : pools) {
+					try {
+						pool.evictExpired();
+					} catch (RuntimeException ex) {
+						log.warn("Eviction of idle SSH sessions failed. {0}", ex.getMessage());
+					}
+				}
+			}
+		}, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Relace uložená v poolu spolu s počtem běžících kanálů a časovými údaji.
+	 */
+	private static class PooledSession {
+
+		private final Session session;
+		private final long created;
+		private long lastUsed;
+		private int channels = 0;
+		//Vyrazena relace se nepujcuje a po dobehnuti kanalu se uzavre.
+		private boolean retired = false;
+
+		private PooledSession(Session session) {
+			this.session = session;
+			this.created = System.currentTimeMillis();
+			this.lastUsed = created;
+		}
+
+		private void destroy() {
+			log.info("Closing pooled SSH session.");
+			session.disconnect();
+		}
+	}
+
+}
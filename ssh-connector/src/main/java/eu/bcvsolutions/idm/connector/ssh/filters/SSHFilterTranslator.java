@@ -0,0 +1,217 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ * 
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ * 
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free 
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, 
+ * Boston, MA 02110-1301 USA
+ * 
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh.filters;
+
+import java.util.List;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
+import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
+
+/**
+ * Společný předek překladačů filtrů. Filtr se překládá do výrazu, který vyhodnocuje skript
+ * search na koncovém systému:
+ * <ul>
+ * <li><code>eq("atribut","hodnota")</code> - atribut má danou hodnotu,</li>
+ * <li><code>startsWith("atribut","hodnota")</code> - hodnota atributu začíná daným řetězcem,</li>
+ * <li><code>contains("atribut","hodnota")</code> - hodnota atributu obsahuje daný řetězec,</li>
+ * <li><code>in("atribut","hodnota1","hodnota2",...)</code> - atribut má jednu z hodnot,</li>
+ * <li><code>and(výraz,výraz)</code>, <code>or(výraz,výraz)</code>, <code>not(výraz)</code>.</li>
+ * </ul>
+ * Názvy atributů a hodnoty jsou vždy v uvozovkách, uvozovky uvnitř se zdvojují. Místo
+ * atributů __NAME__ a __UID__ se používá název sloupce s identifikátorem (AccountId, groupName).
+ * <p>
+ * Samotná shoda identifikátoru se vyhodnocuje GET skriptem (viz {@link #parseEquals(String, String)}).
+ * Pokud skript search není nastaven, tak se překládá pouze shoda identifikátoru a ostatní
+ * filtry vyhodnotí framework nad výpisem všech objektů.
+ * 
+ * @author Jaromír Mlejnek
+ */
+public abstract class SSHFilterTranslator extends AbstractFilterTranslator<String> {
+
+	private static final String EQUALS = "eq(";
+	private static final String IN = "in(";
+
+	private final String identifier;
+	private final boolean searchEnabled;
+
+	/**
+	 * Konstruktor třídy SSHFilterTranslator.
+	 * 
+	 * @param identifier název sloupce s identifikátorem objektu.
+	 * @param searchEnabled true, pokud je nastaven skript search.
+	 */
+	protected SSHFilterTranslator(String identifier, boolean searchEnabled) {
+		this.identifier = identifier;
+		this.searchEnabled = searchEnabled;
+	}
+
+	@Override
+	protected String createEqualsExpression(EqualsFilter filter, boolean not) {
+		Attribute attrib = filter.getAttribute();
+		if (attrib == null) {
+			return null;
+		}
+		String value;
+		if (attrib.is(Name.NAME)) {
+			value = ((Name) attrib).getNameValue();
+		} else if (attrib.is(Uid.NAME)) {
+			value = ((Uid) attrib).getUidValue();
+		} else {
+			value = getValue(attrib.getValue());
+		}
+		String name = getAttributeName(attrib.getName());
+		if (value == null || !searchEnabled && (not || !name.equals(identifier))) {
+			return null;
+		}
+		return createExpression("eq", name, value, not);
+	}
+
+	@Override
+	protected String createStartsWithExpression(StartsWithFilter filter, boolean not) {
+		if (!searchEnabled || filter.getValue() == null) {
+			return null;
+		}
+		return createExpression("startsWith", getAttributeName(filter.getName()), filter.getValue(), not);
+	}
+
+	@Override
+	protected String createContainsExpression(ContainsFilter filter, boolean not) {
+		if (!searchEnabled || filter.getValue() == null) {
+			return null;
+		}
+		return createExpression("contains", getAttributeName(filter.getName()), filter.getValue(), not);
+	}
+
+	@Override
+	protected String createAndExpression(String leftExpression, String rightExpression) {
+		if (!searchEnabled) {
+			return null;
+		}
+		return "and(" + leftExpression + "," + rightExpression + ")";
+	}
+
+	/**
+	 * Metoda spojí dva výrazy operátorem or. Shody (případně výčty hodnot) téhož atributu
+	 * se sloučí do jednoho výčtu in.
+	 */
+	@Override
+	protected String createOrExpression(String leftExpression, String rightExpression) {
+		if (!searchEnabled) {
+			return null;
+		}
+		int leftEnd = getValuesStart(leftExpression);
+		int rightEnd = getValuesStart(rightExpression);
+		if (leftEnd > 0 && rightEnd > 0
+				&& leftExpression.substring(3, leftEnd).equals(rightExpression.substring(3, rightEnd))) {
+			return IN + leftExpression.substring(3, leftEnd) + ","
+					+ leftExpression.substring(leftEnd + 1, leftExpression.length() - 1) + ","
+					+ rightExpression.substring(rightEnd + 1, rightExpression.length() - 1) + ")";
+		}
+		return "or(" + leftExpression + "," + rightExpression + ")";
+	}
+
+	/**
+	 * Metoda zjistí, zda výraz je pouze shodou zadaného atributu s jednou hodnotou.
+	 * 
+	 * @param expression výraz filtru.
+	 * @param attribute název atributu.
+	 * @return Hodnota atributu, nebo null, pokud výraz není shodou daného atributu.
+	 */
+	public static String parseEquals(String expression, String attribute) {
+		String prefix = EQUALS + quote(attribute) + ",";
+		if (expression == null || !expression.startsWith(prefix)
+				|| skipQuoted(expression, prefix.length()) != expression.length() - 1
+				|| expression.charAt(expression.length() - 1) != ')') {
+			return null;
+		}
+		String value = expression.substring(prefix.length() + 1, expression.length() - 2);
+		return value.replace("\"\"", "\"");
+	}
+
+	private String getAttributeName(String name) {
+		return Name.NAME.equals(name) || Uid.NAME.equals(name) ? identifier : name;
+	}
+
+	/**
+	 * @return Hodnota atributu převedená na řetězec, nebo null, pokud atribut nemá právě
+	 * jednu hodnotu, kterou lze předat skriptu.
+	 */
+	private static String getValue(List<Object> values) {
+		if (values == null || values.size() != 1) {
+			return null;
+		}
+		Object value = values.get(0);
+		if (value == null || value instanceof GuardedString || value instanceof byte[]) {
+			return null;
+		}
+		return String.valueOf(value);
+	}
+
+	private static String createExpression(String operator, String name, String value, boolean not) {
+		String expression = operator + "(" + quote(name) + "," + quote(value) + ")";
+		return not ? "not(" + expression + ")" : expression;
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	/**
+	 * @return Index čárky za názvem atributu, pokud je výraz shodou nebo výčtem hodnot, jinak -1.
+	 */
+	private static int getValuesStart(String expression) {
+		if (!expression.startsWith(EQUALS) && !expression.startsWith(IN)) {
+			return -1;
+		}
+		int end = skipQuoted(expression, 3);
+		return end > 0 && end < expression.length() && expression.charAt(end) == ',' ? end : -1;
+	}
+
+	/**
+	 * @return Index za řetězcem v uvozovkách, který začíná na zadaném indexu, nebo -1.
+	 */
+	private static int skipQuoted(String value, int start) {
+		if (start >= value.length() || value.charAt(start) != '"') {
+			return -1;
+		}
+		int i = start + 1;
+		while (i < value.length()) {
+			if (value.charAt(i) == '"') {
+				if (i + 1 < value.length() && value.charAt(i + 1) == '"') {
+					i += 2;
+					continue;
+				}
+				return i + 1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+}
@@ -21,11 +21,6 @@
 
 package eu.bcvsolutions.idm.connector.ssh.filters;
 
-import org.identityconnectors.framework.common.objects.Attribute;
-import org.identityconnectors.framework.common.objects.Name;
-import org.identityconnectors.framework.common.objects.Uid;
-import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
-import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
 import eu.bcvsolutions.idm.connector.ssh.SSHMessages;
 
 /**
@@ -33,41 +28,16 @@ import eu.bcvsolutions.idm.connector.ssh.SSHMessages;
  * 
  * @author Jaromír Mlejnek 
  */
-public class SSHGroupFilterTranslator extends AbstractFilterTranslator<String> {
+public class SSHGroupFilterTranslator extends SSHFilterTranslator {
 
 	/**
-	 * Metoda vytvoří dotaz (ve formě atributů pro příslušný skript koncového systému) 
-	 * pro vyhledání skupiny dle specifikovaného jména skupiny (prozatím). Jméno skupiny je
-	 * uloženo jako atribut v objektu <b>filter</b> jako Name nebo Uid.	
+	 * Konstruktor třídy SSHGroupFilterTranslator.
+	 * 
+	 * @param searchEnabled true, pokud je nastaven skript search. Jinak se překládá pouze
+	 * shoda jména skupiny (Name nebo Uid).
 	 */
-	@Override
-	protected String createEqualsExpression(EqualsFilter filter, boolean not) {
-		if (not) {
-			throw new UnsupportedOperationException("Not supported yet.");
-		}
-		
-		String username = "";
-		Attribute attrib = filter.getAttribute();
-		
-		if (attrib == null) {
-			return null;
-		}
-		
-		if (attrib.is(Name.NAME)) {
-			username = ((Name)attrib).getNameValue();
-		} else if (attrib.is(Uid.NAME)) {
-			username = ((Uid)attrib).getUidValue();
-		} else {
-			username = (String)attrib.getValue().get(0);
-		}		
-		
-		String operationName = SSHMessages.SSH_GETGROUP;
-		//TODO Opet pevna hodnota.
-    	String header = SSHMessages.SSH_HEADER_GROUP_NAME;         
-                
-        String scriptParams = String.format("%s\n%s\n%s\n", operationName, header, username);
-        
-		return scriptParams;
+	public SSHGroupFilterTranslator(boolean searchEnabled) {
+		super(SSHMessages.SSH_HEADER_GROUP_NAME, searchEnabled);
 	}
 	
 }
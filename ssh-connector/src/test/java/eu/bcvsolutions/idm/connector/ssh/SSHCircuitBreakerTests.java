@@ -0,0 +1,132 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Testy stavů jističe {@link SSHCircuitBreaker}.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHCircuitBreakerTests {
+
+	private static final long LONG_INTERVAL = 60000;
+	private static final long SHORT_INTERVAL = 50;
+
+	@Test
+	public void opensAfterThresholdOfConsecutiveFailures() {
+		SSHCircuitBreaker breaker = new SSHCircuitBreaker("host", 3, LONG_INTERVAL);
+		breaker.recordFailure();
+		breaker.recordFailure();
+		assertEquals(SSHCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(SSHCircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.isClosed());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void successResetsFailureCount() {
+		SSHCircuitBreaker breaker = new SSHCircuitBreaker("host", 3, LONG_INTERVAL);
+		breaker.recordFailure();
+		breaker.recordFailure();
+		breaker.recordSuccess();
+		breaker.recordFailure();
+		breaker.recordFailure();
+		assertEquals(SSHCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void zeroThresholdDisablesBreaker() {
+		SSHCircuitBreaker breaker = new SSHCircuitBreaker("host", 0, LONG_INTERVAL);
+		for (int i = 0; i < 100; i++) {
+			breaker.recordFailure();
+		}
+		assertEquals(SSHCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void letsOneTrialThroughAfterProbeInterval() throws InterruptedException {
+		SSHCircuitBreaker breaker = openBreaker();
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(2 * SHORT_INTERVAL);
+		assertTrue(breaker.allowRequest());
+		assertEquals(SSHCircuitBreaker.State.HALF_OPEN, breaker.getState());
+		//Dalsi operace do uplynuti intervalu stale selhavaji.
+		assertFalse(breaker.allowRequest());
+		assertFalse(breaker.isClosed());
+	}
+
+	@Test
+	public void failedTrialOpensBreakerAgain() throws InterruptedException {
+		SSHCircuitBreaker breaker = openBreaker();
+		Thread.sleep(2 * SHORT_INTERVAL);
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+		assertEquals(SSHCircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void successfulTrialClosesBreaker() throws InterruptedException {
+		SSHCircuitBreaker breaker = openBreaker();
+		Thread.sleep(2 * SHORT_INTERVAL);
+		assertTrue(breaker.allowRequest());
+		breaker.recordSuccess();
+		assertEquals(SSHCircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void anySuccessClosesOpenBreaker() {
+		SSHCircuitBreaker breaker = openBreaker();
+		breaker.recordSuccess();
+		assertTrue(breaker.isClosed());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void trialWithoutResultLetsAnotherTrialThrough() throws InterruptedException {
+		SSHCircuitBreaker breaker = openBreaker();
+		Thread.sleep(2 * SHORT_INTERVAL);
+		assertTrue(breaker.allowRequest());
+		Thread.sleep(2 * SHORT_INTERVAL);
+		assertTrue(breaker.allowRequest());
+		assertEquals(SSHCircuitBreaker.State.HALF_OPEN, breaker.getState());
+	}
+
+	private static SSHCircuitBreaker openBreaker() {
+		SSHCircuitBreaker breaker = new SSHCircuitBreaker("host", 1, SHORT_INTERVAL);
+		breaker.recordFailure();
+		assertEquals(SSHCircuitBreaker.State.OPEN, breaker.getState());
+		return breaker;
+	}
+
+}
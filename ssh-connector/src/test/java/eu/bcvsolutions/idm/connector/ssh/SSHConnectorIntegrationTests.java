@@ -0,0 +1,367 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Testy konektoru proti SSH serveru běžícímu v procesu testu ({@link SSHStubServer}).
+ * Ověřují pool relací, sdílení relace více kanály, opakování skriptu v jiné relaci,
+ * asynchronní spouštění skriptů, časové limity a dispečera.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHConnectorIntegrationTests {
+
+	private static final int OUTPUT_SIZE = 4 * 1024 * 1024;
+	private static final long TIMEOUT = 500;
+
+	private static final AtomicInteger accountIndex = new AtomicInteger();
+
+	//Kazdy test ma vlastni server (port), a tedy i vlastni pool relaci.
+	private SSHStubServer server;
+	private SSHConnector connector;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new SSHStubServer();
+		server.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		if (connector != null) {
+			connector.dispose();
+			connector = null;
+		}
+		server.stop();
+	}
+
+	@Test
+	public void sequentialOperationsReuseOneSession() {
+		init(createConfiguration());
+		int sessions = server.getSessionCount();
+		for (int i = 0; i < 5; i++) {
+			String id = create();
+			assertNotNull(get(id));
+		}
+		assertEquals(1, server.getSessionCount() - sessions);
+	}
+
+	@Test(timeout = 60000)
+	public void unusedPoolClosesIdleSessions() throws Exception {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setSessionPoolMinSize(1);
+		cfg.setSessionIdleTimeout(1);
+		init(cfg);
+		create();
+		Thread.sleep(50);
+		create();
+		//Pouzivany pool drzi minimalni pocet relaci i po vyprseni doby necinnosti.
+		assertEquals(1, server.getSessionCount());
+		assertEquals(1, server.getActiveSessionCount());
+		connector.dispose();
+		connector = null;
+		while (server.getActiveSessionCount() > 0) {
+			Thread.sleep(50);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void concurrentOperationsShareOneSession() throws Exception {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setSessionPoolMaxSize(1);
+		init(cfg);
+		final String id = create();
+		int sessions = server.getSessionCount();
+		List<Future<?>> results = runConcurrently(8, new Callable<Object>() {
+			public Object call() {
+				for (int i = 0; i < 10; i++) {
+					assertNotNull(get(id));
+				}
+				return null;
+			}
+		});
+		for (Future<?> result : results) {
+			result.get();
+		}
+		assertEquals(0, server.getSessionCount() - sessions);
+	}
+
+	@Test
+	public void rejectedChannelIsRetriedInAnotherSession() {
+		init(createConfiguration());
+		String id = create();
+		int sessions = server.getSessionCount();
+		server.rejectChannels(1);
+		assertNotNull(get(id));
+		assertEquals(1, server.getSessionCount() - sessions);
+	}
+
+	@Test
+	public void repeatedlyRejectedChannelFailsOperation() {
+		init(createConfiguration());
+		String id = create();
+		server.rejectChannels(2);
+		try {
+			get(id);
+			fail("Operation should fail when no channel can be opened.");
+		} catch (ConnectorException ex) {
+			//Ocekavana chyba
+		}
+		assertNotNull(get(id));
+	}
+
+	@Test(timeout = 60000)
+	public void asyncCommandStreamsWholeOutput() throws Exception {
+		init(createConfiguration());
+		SSHCommandFuture future = runOutputScript(OUTPUT_SIZE);
+		assertEquals(OUTPUT_SIZE, readFully(future.getOutput()));
+		assertEquals(Integer.valueOf(0), future.get());
+		assertEquals(OUTPUT_SIZE, future.getBytesIn());
+	}
+
+	@Test(timeout = 60000)
+	public void cancelledCommandWithUnreadOutputReleasesSession() throws Exception {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setSessionPoolMaxSize(1);
+		init(cfg);
+		String id = create();
+		SSHCommandFuture future = runOutputScript(OUTPUT_SIZE);
+		//Vystup se necte, skript se po zaplneni bufferu zastavi.
+		Thread.sleep(200);
+		assertFalse(future.isDone());
+		assertTrue(future.cancel(true));
+		assertTrue(future.isCancelled());
+		assertNotNull(get(id));
+	}
+
+	@Test(timeout = 60000)
+	public void operationTimeoutStopsScript() throws Exception {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setUser(SSHStubServer.getScriptPath(SSHStubServer.SCRIPT_SLEEP));
+		cfg.setOperationTimeout(TIMEOUT);
+		init(cfg);
+		String id = create();
+		int interrupted = server.getInterruptedCount();
+		long start = System.currentTimeMillis();
+		try {
+			get(id);
+			fail("Operation should time out.");
+		} catch (OperationTimeoutException ex) {
+			//Ocekavana chyba
+		}
+		assertTrue(System.currentTimeMillis() - start < 10 * TIMEOUT);
+		waitForInterrupted(interrupted);
+		//Rychla operace se stejnym limitem dobehne.
+		create();
+	}
+
+	@Test(timeout = 60000)
+	public void timeoutOptionOverridesConfiguration() throws Exception {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setUser(SSHStubServer.getScriptPath(SSHStubServer.SCRIPT_SLEEP));
+		init(cfg);
+		String id = create();
+		int interrupted = server.getInterruptedCount();
+		OperationOptions options = new OperationOptionsBuilder().setOption(SSHConnector.OP_TIMEOUT, TIMEOUT).build();
+		try {
+			get(id, options);
+			fail("Operation should time out.");
+		} catch (OperationTimeoutException ex) {
+			//Ocekavana chyba
+		}
+		waitForInterrupted(interrupted);
+	}
+
+	@Test(timeout = 60000)
+	public void dispatcherRunsConcurrentScripts() throws Exception {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setDispatcher(SSHStubServer.getScriptPath(SSHStubServer.SCRIPT_DISPATCHER));
+		cfg.setSessionPoolMaxSize(1);
+		init(cfg);
+		final String id = create();
+		List<Future<?>> results = runConcurrently(4, new Callable<Object>() {
+			public Object call() {
+				for (int i = 0; i < 10; i++) {
+					assertNotNull(get(id));
+				}
+				return create();
+			}
+		});
+		Set<String> created = new HashSet<String>();
+		created.add(id);
+		for (Future<?> result : results) {
+			created.add((String) result.get());
+		}
+		final Set<String> listed = new HashSet<String>();
+		connector.executeQuery(ObjectClass.ACCOUNT, null, new ResultsHandler() {
+			public boolean handle(ConnectorObject object) {
+				listed.add(object.getUid().getUidValue());
+				return true;
+			}
+		}, null);
+		assertTrue(listed.containsAll(created));
+		assertEquals(server.getAccountCount(), listed.size());
+	}
+
+	@Test(timeout = 60000)
+	public void dispatcherStreamsWholeOutput() throws Exception {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setDispatcher(SSHStubServer.getScriptPath(SSHStubServer.SCRIPT_DISPATCHER));
+		init(cfg);
+		SSHCommandFuture future = runOutputScript(OUTPUT_SIZE);
+		assertEquals(OUTPUT_SIZE, readFully(future.getOutput()));
+		assertEquals(Integer.valueOf(0), future.get());
+	}
+
+	@Test
+	public void batchOperationsAreRejectedInFleetMode() {
+		SSHConfiguration cfg = createConfiguration();
+		cfg.setFleetMode(true);
+		init(cfg);
+		int accounts = server.getAccountCount();
+		Set<Attribute> attrs = new HashSet<Attribute>();
+		attrs.add(new Name("account" + accountIndex.incrementAndGet()));
+		try {
+			connector.createBatch(ObjectClass.ACCOUNT, Collections.singletonList(attrs), null);
+			fail("Batch operation should be rejected in fleet mode.");
+		} catch (ConnectorException ex) {
+			//Ocekavana chyba
+		}
+		try {
+			connector.deleteBatch(ObjectClass.ACCOUNT, Collections.singletonList(new Uid("account")), null);
+			fail("Batch operation should be rejected in fleet mode.");
+		} catch (ConnectorException ex) {
+			//Ocekavana chyba
+		}
+		assertEquals(accounts, server.getAccountCount());
+	}
+
+	private SSHConfiguration createConfiguration() {
+		SSHConfiguration cfg = server.createConfiguration();
+		cfg.setMetricsEnabled(false);
+		return cfg;
+	}
+
+	private void init(SSHConfiguration cfg) {
+		connector = new SSHConnector();
+		connector.init(cfg);
+	}
+
+	private String create() {
+		String id = "account" + accountIndex.incrementAndGet();
+		Set<Attribute> attrs = new HashSet<Attribute>();
+		attrs.add(new Name(id));
+		attrs.add(AttributeBuilder.build("shell", "/bin/bash"));
+		return connector.create(ObjectClass.ACCOUNT, attrs, null).getUidValue();
+	}
+
+	private ConnectorObject get(String id) {
+		return get(id, null);
+	}
+
+	private ConnectorObject get(String id, OperationOptions options) {
+		final List<ConnectorObject> objects = new ArrayList<ConnectorObject>();
+		String query = connector.createFilterTranslator(ObjectClass.ACCOUNT, options)
+				.translate(new EqualsFilter(new Uid(id))).get(0);
+		connector.executeQuery(ObjectClass.ACCOUNT, query, new ResultsHandler() {
+			public boolean handle(ConnectorObject object) {
+				objects.add(object);
+				return true;
+			}
+		}, options);
+		return objects.isEmpty() ? null : objects.get(0);
+	}
+
+	private SSHCommandFuture runOutputScript(int size) {
+		return connector.runCommandAsync(SSHStubServer.getScriptPath(SSHStubServer.SCRIPT_OUTPUT),
+				SSHStubServer.SCRIPT_OUTPUT + "\nsize\n" + size + "\n", null);
+	}
+
+	private static List<Future<?>> runConcurrently(int threads, Callable<Object> task) {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int i = 0; i < threads; i++) {
+				results.add(executor.submit(task));
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static long readFully(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		long count = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			count += read;
+		}
+		return count;
+	}
+
+	/**
+	 * Metoda počká, než server ukončí skript přerušený po vypršení časového limitu.
+	 */
+	private void waitForInterrupted(int interrupted) throws InterruptedException {
+		while (server.getInterruptedCount() <= interrupted) {
+			Thread.sleep(50);
+		}
+	}
+
+}
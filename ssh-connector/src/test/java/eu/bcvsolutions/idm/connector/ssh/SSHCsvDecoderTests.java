@@ -0,0 +1,216 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.csvreader.CsvReader;
+
+/**
+ * Testy dekodéru {@link SSHCsvDecoder}. Výsledky se porovnávají s CsvReader, který se
+ * pro čtení výstupu skriptů používal dříve.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHCsvDecoderTests {
+
+	private static final String[] COMMON = {
+		"a,b,c\n1,2,3\n",
+		"a,b\n1,2",
+		"a,b\r\n1,2\r\n",
+		"a,b\r1,2\r",
+		"\n\n a , b \n\n\n1,2\n\n",
+		"\r\n\r\na,b\r\n\r\n",
+		" \t \n",
+		",\n,,\n",
+		"a,,c\n",
+		"  padded  ,\tvalue\t\n",
+		"\"quoted, with delimiter\",x\n",
+		"\"multi\nline\r\nvalue\",x\n",
+		"\" keep spaces \",x\n",
+		"  \"quoted after spaces\"  ,x\n",
+		"\"quoted\"trailing,x\n",
+		"\"\",\"\"\n",
+		"\"unterminated,x\n",
+		"\"unterminated",
+		"plain\"quote,x\n",
+		"a,b,c\n1\n1,2,3,4\n",
+		"\u017elu\u0165ou\u010dk\u00fd k\u016f\u0148,\u20ac,\ud83d\ude00\n",
+		"\"\u017elu\u0165ou\u010dk\u00fd\n\u20ac\",x\n",
+		"a\\nb,a\\,b, a\\ ,\\\n",
+	};
+
+	private static final String[] DOUBLED = {
+		"\"say \"\"hello\"\"\",x\n",
+		"\"\"\"\"\"\",x\n",
+		"\"a\"\"\nb\",x\n",
+		"\"back\\slash\",x\n",
+	};
+
+	private static final String[] BACKSLASH = {
+		"\"say \\\"hello\\\"\",x\n",
+		"\"a\\\\b\",x\n",
+		"\"\\n\\r\\t\\b\\f\\e\\v\\a\",x\n",
+		"\"\\u0041\\U00e9\\u20ac\",x\n",
+		"\"\\ud83d\\ude00\",x\n",
+		"\"\\x41\\X7a\\xff\",x\n",
+		"\"\\o101\\O060\\o777\",x\n",
+		"\"\\101\\012\\000\",x\n",
+		"\"\\d065\\D048\\d999\",x\n",
+		"\"\\u00411\\x41z\",x\n",
+		"\"\\q\\8\\9\",x\n",
+		"\"a\\,b\",c\n",
+		"\"ends with \\\\\",x\n",
+	};
+
+	@Test
+	public void testCommonInputDoubled() throws IOException {
+		for (String data : COMMON) {
+			assertSameAsCsvReader(data, ',', SSHCsvDecoder.ESCAPE_MODE_DOUBLED);
+		}
+	}
+
+	@Test
+	public void testCommonInputBackslash() throws IOException {
+		for (String data : COMMON) {
+			assertSameAsCsvReader(data, ',', SSHCsvDecoder.ESCAPE_MODE_BACKSLASH);
+		}
+	}
+
+	@Test
+	public void testDoubledEscaping() throws IOException {
+		for (String data : DOUBLED) {
+			assertSameAsCsvReader(data, ',', SSHCsvDecoder.ESCAPE_MODE_DOUBLED);
+		}
+		assertEquals(Arrays.asList("say \"hello\"", "x"), readAll(DOUBLED[0], ',', SSHCsvDecoder.ESCAPE_MODE_DOUBLED).get(0));
+	}
+
+	@Test
+	public void testBackslashEscaping() throws IOException {
+		for (String data : BACKSLASH) {
+			assertSameAsCsvReader(data, ',', SSHCsvDecoder.ESCAPE_MODE_BACKSLASH);
+		}
+		assertEquals(Arrays.asList("A\u00e9\u20ac", "x"), readAll(BACKSLASH[3], ',', SSHCsvDecoder.ESCAPE_MODE_BACKSLASH).get(0));
+		assertEquals(Arrays.asList("\ud83d\ude00", "x"), readAll(BACKSLASH[4], ',', SSHCsvDecoder.ESCAPE_MODE_BACKSLASH).get(0));
+	}
+
+	@Test
+	public void testBackslashIsLiteralOutsideQuotes() throws IOException {
+		assertEquals(Arrays.asList("a\\nb", "a\\", "b"),
+				readAll("a\\nb,a\\,b\n", ',', SSHCsvDecoder.ESCAPE_MODE_BACKSLASH).get(0));
+	}
+
+	@Test
+	public void testLoneSurrogate() throws IOException {
+		//CsvReader vrati samotnou polovinu znaku, v UTF-8 ji zapsat nelze.
+		assertEquals(Arrays.asList("?x", "y"),
+				readAll("\"\\ud83dx\",y\n", ',', SSHCsvDecoder.ESCAPE_MODE_BACKSLASH).get(0));
+	}
+
+	@Test
+	public void testOtherDelimiter() throws IOException {
+		assertSameAsCsvReader("a;b;\"c;d\"\n1;2;3\n", ';', SSHCsvDecoder.ESCAPE_MODE_DOUBLED);
+		assertSameAsCsvReader("a\tb\n \t1\t\n", '\t', SSHCsvDecoder.ESCAPE_MODE_DOUBLED);
+	}
+
+	@Test
+	public void testLargeInput() throws IOException {
+		//Hodnoty presahuji buffer cteni i sloupce, vicebajtove znaky padaji na jeho hranici.
+		StringBuilder data = new StringBuilder("id,value\n");
+		for (int i = 0; i < 2000; i++) {
+			data.append(i).append(",\"");
+			for (int j = 0; j < i % 50; j++) {
+				data.append("\u017e\u20ac,\n\"\"");
+			}
+			data.append("\"\n");
+		}
+		assertSameAsCsvReader(data.toString(), ',', SSHCsvDecoder.ESCAPE_MODE_DOUBLED);
+	}
+
+	@Test
+	public void testHeaders() throws IOException {
+		SSHCsvDecoder decoder = SSHCsvDecoder.parse("\n name , uid,name\nroot,0\n", ',',
+				SSHCsvDecoder.ESCAPE_MODE_DOUBLED);
+		assertTrue(decoder.readHeaders());
+		assertEquals(3, decoder.getHeaderCount());
+		assertEquals(0, decoder.getIndex("name"));
+		assertEquals(-1, decoder.getIndex("missing"));
+		assertEquals("", decoder.getHeader(5));
+		assertTrue(decoder.readRecord());
+		assertEquals("root", decoder.get("name"));
+		assertEquals("0", decoder.get("uid"));
+		assertEquals("", decoder.get("missing"));
+		assertEquals("", decoder.get(2));
+		assertFalse(decoder.readRecord());
+		assertFalse(SSHCsvDecoder.parse("", ',', SSHCsvDecoder.ESCAPE_MODE_DOUBLED).readHeaders());
+		assertFalse(SSHCsvDecoder.parse(null, ',', SSHCsvDecoder.ESCAPE_MODE_DOUBLED).readHeaders());
+	}
+
+	@Test
+	public void testSplit() {
+		String[] values = {"a", "a,b", "a,,b", ",a", "a,", "a,,", ",", ",,", "a,b,,c,,", " a , b "};
+		for (String value : values) {
+			assertEquals(value, Arrays.asList(value.split(Pattern.quote(","))), SSHCsvDecoder.split(value, ','));
+		}
+		//Oddelovac se nebere jako regularni vyraz.
+		assertEquals(Arrays.asList("a", "b"), SSHCsvDecoder.split("a|b", '|'));
+		assertEquals(Arrays.asList("a", "b"), SSHCsvDecoder.split("a.b", '.'));
+		assertEquals(Arrays.asList(""), SSHCsvDecoder.split("", ','));
+	}
+
+	private static void assertSameAsCsvReader(String data, char delimiter, int escapeMode) throws IOException {
+		CsvReader reader = new CsvReader(new StringReader(data), delimiter);
+		reader.setEscapeMode(escapeMode);
+		List<List<String>> expected = new ArrayList<List<String>>();
+		while (reader.readRecord()) {
+			expected.add(Arrays.asList(reader.getValues()));
+		}
+		reader.close();
+		assertEquals(data, expected, readAll(data, delimiter, escapeMode));
+	}
+
+	private static List<List<String>> readAll(String data, char delimiter, int escapeMode) throws IOException {
+		SSHCsvDecoder decoder = SSHCsvDecoder.parse(data, delimiter, escapeMode);
+		List<List<String>> records = new ArrayList<List<String>>();
+		while (decoder.readRecord()) {
+			List<String> record = new ArrayList<String>();
+			for (int i = 0; i < decoder.getColumnCount(); i++) {
+				record.add(decoder.get(i));
+			}
+			records.add(record);
+		}
+		return records;
+	}
+
+}
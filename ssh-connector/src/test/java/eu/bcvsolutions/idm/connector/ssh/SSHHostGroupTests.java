@@ -0,0 +1,198 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Testy zápisu a výběru hostitelů {@link SSHHostGroup}.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHHostGroupTests {
+
+	@Test
+	public void parsesHostWithAndWithoutPort() {
+		assertHost("server", 22, SSHHostGroup.parseHost("server", 22));
+		assertHost("server", 2222, SSHHostGroup.parseHost("server:2222", 22));
+		assertHost("10.0.0.1", 2222, SSHHostGroup.parseHost("10.0.0.1:2222", 22));
+	}
+
+	@Test
+	public void parsesIpv6Host() {
+		assertHost("::1", 2222, SSHHostGroup.parseHost("[::1]:2222", 22));
+		assertHost("::1", 22, SSHHostGroup.parseHost("[::1]", 22));
+		//Vice dvojtecek bez hranatych zavorek je IPv6 adresa bez portu.
+		assertHost("fe80::1", 22, SSHHostGroup.parseHost("fe80::1", 22));
+		assertEquals("[fe80::1]:22", SSHHostGroup.parseHost("fe80::1", 22).toString());
+	}
+
+	@Test
+	public void rejectsInvalidHosts() {
+		String[] invalid = {"[::1", "[::1]2222", "[]:22", "server:", "server:port", "server:0", "server:65536",
+				"[::1]:70000"};
+		for (String value : invalid) {
+			try {
+				SSHHostGroup.parseHost(value, 22);
+				fail("Host " + value + " should be rejected.");
+			} catch (IllegalArgumentException ex) {
+				//Ocekavana chyba
+			}
+		}
+	}
+
+	@Test
+	public void primaryHostIsFirstAndDuplicatesAreSkipped() {
+		SSHConfiguration cfg = createConfiguration("primary", "replica1", " ", "primary:22", "replica2:2222",
+				"replica1");
+		List<SSHHostGroup.Host> hosts = SSHHostGroup.parseHosts(cfg);
+		assertEquals(3, hosts.size());
+		assertHost("primary", 22, hosts.get(0));
+		assertHost("replica1", 22, hosts.get(1));
+		assertHost("replica2", 2222, hosts.get(2));
+	}
+
+	@Test
+	public void roundRobinRotatesFirstHost() {
+		SSHHostGroup group = getGroup(createConfiguration("primary", "replica1", "replica2"));
+		List<String> first = new ArrayList<String>();
+		for (int i = 0; i < 6; i++) {
+			List<SSHHostGroup.Host> selected = group.select(i % 2 == 0);
+			assertEquals(3, selected.size());
+			first.add(selected.get(0).getHost());
+		}
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 2; i++) {
+			expected.add("primary");
+			expected.add("replica1");
+			expected.add("replica2");
+		}
+		assertEquals(expected, first);
+	}
+
+	@Test
+	public void primaryForWritesKeepsOrderOfWrites() {
+		SSHConfiguration cfg = createConfiguration("primary", "replica1", "replica2");
+		cfg.setHostSelectionPolicy(SSHMessages.SSH_HOST_SELECTION_PRIMARY_FOR_WRITES);
+		SSHHostGroup group = getGroup(cfg);
+		for (int i = 0; i < 3; i++) {
+			assertOrder(group.select(true), "primary", "replica1", "replica2");
+		}
+		assertOrder(group.select(false), "primary", "replica1", "replica2");
+		assertOrder(group.select(false), "replica1", "replica2", "primary");
+	}
+
+	@Test
+	public void leastOutstandingPrefersIdleHost() {
+		SSHConfiguration cfg = createConfiguration("primary", "replica1", "replica2");
+		cfg.setHostSelectionPolicy(SSHMessages.SSH_HOST_SELECTION_LEAST_OUTSTANDING);
+		SSHHostGroup group = getGroup(cfg);
+		group.getHosts().get(0).operationStarted();
+		group.getHosts().get(2).operationStarted();
+		for (int i = 0; i < 3; i++) {
+			assertEquals("replica1", group.select(false).get(0).getHost());
+		}
+	}
+
+	@Test
+	public void failedHostIsTriedLast() {
+		SSHHostGroup group = getGroup(createConfiguration("primary", "replica1", "replica2"));
+		SSHHostGroup.Host primary = group.getHosts().get(0);
+		group.markFailed(primary);
+		for (int i = 0; i < 3; i++) {
+			List<SSHHostGroup.Host> selected = group.select(true);
+			assertEquals(primary, selected.get(2));
+		}
+		//Jedno selhani jistic nerozepne.
+		assertTrue(primary.isAvailable());
+		group.markAvailable(primary);
+		assertEquals(primary, group.select(true).get(0));
+	}
+
+	@Test
+	public void hostWithOpenBreakerIsTriedLastAndRejected() {
+		SSHConfiguration cfg = createConfiguration("primary", "replica1");
+		cfg.setCircuitBreakerThreshold(2);
+		cfg.setCircuitBreakerProbeInterval(60000);
+		cfg.setHostRetryInterval(0);
+		SSHHostGroup group = getGroup(cfg);
+		SSHHostGroup.Host primary = group.getHosts().get(0);
+		group.markFailed(primary);
+		assertTrue(primary.allowRequest());
+		group.markFailed(primary);
+		assertFalse(primary.isAvailable());
+		assertFalse(primary.allowRequest());
+		for (int i = 0; i < 2; i++) {
+			assertOrder(group.select(true), "replica1", "primary");
+		}
+		group.markAvailable(primary);
+		assertTrue(primary.isAvailable());
+		assertTrue(primary.allowRequest());
+	}
+
+	@Test
+	public void primaryOperationsIgnoreSelectionPolicy() {
+		SSHConfiguration cfg = createConfiguration("primary", "replica1", "replica2");
+		cfg.setHostSelectionPolicy(SSHMessages.SSH_HOST_SELECTION_ROUND_ROBIN);
+		SSHHostGroup group = getGroup(cfg);
+		for (int i = 0; i < 5; i++) {
+			group.select(false);
+			List<SSHHostGroup.Host> selected = group.selectPrimary();
+			assertEquals(1, selected.size());
+			assertEquals("primary", selected.get(0).getHost());
+		}
+	}
+
+	private static void assertHost(String host, int port, SSHHostGroup.Host actual) {
+		assertEquals(host, actual.getHost());
+		assertEquals(port, actual.getPort());
+	}
+
+	private static void assertOrder(List<SSHHostGroup.Host> selected, String... hosts) {
+		assertEquals(hosts.length, selected.size());
+		for (int i = 0; i < hosts.length; i++) {
+			assertEquals(hosts[i], selected.get(i).getHost());
+		}
+	}
+
+	private static SSHConfiguration createConfiguration(String host, String... hosts) {
+		SSHConfiguration cfg = new SSHConfiguration();
+		cfg.setHost(host);
+		cfg.setHosts(hosts);
+		return cfg;
+	}
+
+	private static SSHHostGroup getGroup(SSHConfiguration cfg) {
+		//Skupiny se sdileji podle klice, kazdy test ma vlastni skupinu.
+		return SSHHostGroup.getGroup(SSHConnection.createConfigurationKey(cfg) + System.nanoTime(), cfg);
+	}
+
+}
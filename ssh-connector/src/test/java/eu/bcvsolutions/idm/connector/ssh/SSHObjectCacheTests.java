@@ -0,0 +1,103 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.junit.Test;
+
+/**
+ * Testy cache objektů {@link SSHObjectCache}.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHObjectCacheTests {
+
+	private static final String QUERY = "getUser\nAccountId\njdoe\n";
+	private static final AtomicInteger cacheIndex = new AtomicInteger();
+
+	@Test
+	public void loadedObjectIsCached() {
+		SSHObjectCache cache = createCache();
+		ConnectorObject object = createObject("jdoe");
+		long generation = cache.getGeneration();
+		cache.put(ObjectClass.ACCOUNT, QUERY, object, generation);
+		assertSame(object, cache.get(ObjectClass.ACCOUNT, QUERY));
+	}
+
+	@Test
+	public void invalidateRemovesObject() {
+		SSHObjectCache cache = createCache();
+		cache.put(ObjectClass.ACCOUNT, QUERY, createObject("jdoe"), cache.getGeneration());
+		cache.invalidate(ObjectClass.ACCOUNT, new Uid("jdoe"));
+		assertNull(cache.get(ObjectClass.ACCOUNT, QUERY));
+	}
+
+	@Test
+	public void objectLoadedBeforeConcurrentChangeIsNotCached() {
+		SSHObjectCache cache = createCache();
+		//GET skript zacne nacitat objekt.
+		long generation = cache.getGeneration();
+		ConnectorObject stale = createObject("jdoe");
+		//Soubezny update dobehne a odstrani zaznamy objektu.
+		cache.invalidate(ObjectClass.ACCOUNT, new Uid("jdoe"));
+		//GET skript dobehne s puvodnim stavem objektu.
+		cache.put(ObjectClass.ACCOUNT, QUERY, stale, generation);
+		assertNull(cache.get(ObjectClass.ACCOUNT, QUERY));
+
+		//Dalsi GET uz objekt ulozi.
+		ConnectorObject current = createObject("jdoe");
+		cache.put(ObjectClass.ACCOUNT, QUERY, current, cache.getGeneration());
+		assertSame(current, cache.get(ObjectClass.ACCOUNT, QUERY));
+	}
+
+	@Test
+	public void objectLoadedBeforeClearIsNotCached() {
+		SSHObjectCache cache = createCache();
+		long generation = cache.getGeneration();
+		cache.clear();
+		cache.put(ObjectClass.ACCOUNT, QUERY, createObject("jdoe"), generation);
+		assertNull(cache.get(ObjectClass.ACCOUNT, QUERY));
+	}
+
+	private static SSHObjectCache createCache() {
+		SSHConfiguration cfg = new SSHConfiguration();
+		//Cache se sdileji podle konfigurace, kazdy test ma vlastni cache.
+		cfg.setHost("host" + cacheIndex.incrementAndGet());
+		cfg.setObjectCacheTtl(60000);
+		cfg.setObjectCacheMaxEntries(100);
+		return SSHObjectCache.getCache(cfg);
+	}
+
+	private static ConnectorObject createObject(String id) {
+		return new ConnectorObjectBuilder().setObjectClass(ObjectClass.ACCOUNT).setUid(id).setName(id).build();
+	}
+
+}
@@ -0,0 +1,476 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.server.Command;
+import org.apache.sshd.server.CommandFactory;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.Signal;
+import org.apache.sshd.server.SignalListener;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.password.PasswordAuthenticator;
+import org.apache.sshd.server.channel.ChannelSessionFactory;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.identityconnectors.common.security.GuardedString;
+
+/**
+ * SSH server (Apache MINA sshd) běžící v procesu testu nebo benchmarku na localhostu. Místo
+ * skriptů obsahuje jednoduché implementace CSV protokolu konektoru pro účty, které drží data
+ * v paměti. Měří se tak pouze SSH a zpracování na straně konektoru, ne práce koncového systému.
+ * <p>
+ * Pro testy obsahuje navíc skripty {@link #SCRIPT_SLEEP} (běží, dokud není ukončen)
+ * a {@link #SCRIPT_OUTPUT} (vypíše zadaný počet bajtů) a dispečera {@link #SCRIPT_DISPATCHER}
+ * (viz {@link SSHDispatcher}). Počítá navázané relace a umí odmítnout otevření kanálu.
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHStubServer {
+
+	public static final String USERNAME = "benchmark";
+	public static final String PASSWORD = "benchmark";
+
+	/** Skript, který běží (nejvýše minutu), dokud ho neukončí signál TERM nebo uzavření kanálu. */
+	public static final String SCRIPT_SLEEP = "sleep";
+	/** Skript, který vypíše tolik bajtů, kolik je uvedeno na třetím řádku jeho vstupu. */
+	public static final String SCRIPT_OUTPUT = "output";
+	/** Dispečer, který spouští skripty tohoto serveru. */
+	public static final String SCRIPT_DISPATCHER = "dispatcher";
+
+	private static final String SCRIPT_DIR = "/stub/";
+	private static final String ENCODING = "UTF-8";
+	private static final int CHUNK_SIZE = 8192;
+	private static final long SLEEP_LIMIT = 60000;
+
+	//Klic serveru se generuje jednou pro vsechny instance.
+	private static final SimpleGeneratorHostKeyProvider HOST_KEY_PROVIDER = new SimpleGeneratorHostKeyProvider();
+
+	static {
+		HOST_KEY_PROVIDER.setAlgorithm("RSA");
+	}
+
+	private final SshServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	//Ucty podle AccountId, hodnota je dvojice radku hlavicka a data.
+	private final ConcurrentMap<String, String[]> accounts = new ConcurrentHashMap<String, String[]>();
+	private final AtomicInteger sessions = new AtomicInteger();
+	private final AtomicInteger interrupted = new AtomicInteger();
+	private final AtomicInteger rejectedChannels = new AtomicInteger();
+
+	public SSHStubServer() {
+		server = SshServer.setUpDefaultServer();
+		server.setHost("127.0.0.1");
+		server.setPort(0);
+		server.setKeyPairProvider(HOST_KEY_PROVIDER);
+		server.setPasswordAuthenticator(new PasswordAuthenticator() {
+			public boolean authenticate(String username, String password, ServerSession session) {
+				boolean authenticated = USERNAME.equals(username) && PASSWORD.equals(password);
+				if (authenticated) {
+					sessions.incrementAndGet();
+				}
+				return authenticated;
+			}
+		});
+		server.setChannelFactories(Collections.<NamedFactory<Channel>>singletonList(new ChannelSessionFactory() {
+			@Override
+			public Channel create() {
+				if (rejectedChannels.getAndDecrement() > 0) {
+					//Server otevreni kanalu odmitne.
+					return null;
+				}
+				rejectedChannels.set(0);
+				return super.create();
+			}
+		}));
+		server.setCommandFactory(new CommandFactory() {
+			public Command createCommand(String command) {
+				String script = getScriptName(command);
+				return script.equals(SCRIPT_DISPATCHER) ? new StubDispatcher() : new StubScript(script);
+			}
+		});
+	}
+
+	public void start() throws IOException {
+		server.start();
+	}
+
+	public void stop() throws IOException {
+		server.stop(true);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return Konfigurace konektoru napojená na tento server.
+	 */
+	public SSHConfiguration createConfiguration() {
+		SSHConfiguration cfg = new SSHConfiguration();
+		cfg.setHost("127.0.0.1");
+		cfg.setPort(server.getPort());
+		cfg.setUsername(USERNAME);
+		cfg.setPassword(new GuardedString(PASSWORD.toCharArray()));
+		cfg.setUser(getScriptPath(SSHMessages.SSH_GETUSER));
+		cfg.setCreateUser(getScriptPath(SSHMessages.SSH_CREATEUSER));
+		cfg.setUpdateUser(getScriptPath(SSHMessages.SSH_UPDATEUSER));
+		cfg.setDeleteUser(getScriptPath(SSHMessages.SSH_DELETEUSER));
+		cfg.setAuthenticate(getScriptPath(SSHMessages.SSH_AUTHENTICATE));
+		cfg.setListObjects(getScriptPath(SSHMessages.SSH_LISTOBJECTS));
+		return cfg;
+	}
+
+	/**
+	 * @param script název skriptu.
+	 * @return Cesta, pod kterou se skript na serveru spouští.
+	 */
+	public static String getScriptPath(String script) {
+		return SCRIPT_DIR + script;
+	}
+
+	/**
+	 * @return Počet relací, které se k serveru od jeho spuštění přihlásily.
+	 */
+	public int getSessionCount() {
+		return sessions.get();
+	}
+
+	/**
+	 * @return Počet právě otevřených relací.
+	 */
+	public int getActiveSessionCount() {
+		return server.getActiveSessions().size();
+	}
+
+	/**
+	 * @return Počet skriptů, které byly ukončeny signálem nebo uzavřením kanálu dříve, než doběhly.
+	 */
+	public int getInterruptedCount() {
+		return interrupted.get();
+	}
+
+	/**
+	 * Metoda nastaví, kolik následujících pokusů o otevření kanálu server odmítne.
+	 *
+	 * @param count počet odmítnutých kanálů.
+	 */
+	public void rejectChannels(int count) {
+		rejectedChannels.set(count);
+	}
+
+	/**
+	 * @return Počet účtů uložených na serveru.
+	 */
+	public int getAccountCount() {
+		return accounts.size();
+	}
+
+	private static String getScriptName(String command) {
+		return command.startsWith(SCRIPT_DIR) ? command.substring(SCRIPT_DIR.length()) : command;
+	}
+
+	/**
+	 * Metoda zpracuje příkaz předaný skriptu a zapíše jeho výstup.
+	 *
+	 * @param script název skriptu.
+	 * @param input standardní vstup skriptu (CSV příkaz).
+	 * @param out standardní výstup skriptu.
+	 */
+	private void execute(String script, String input, OutputStream out) throws IOException, InterruptedException {
+		String[] lines = input.split("\n");
+		String header = lines.length > 1 ? lines[1] : "";
+		String data = lines.length > 2 ? lines[2] : "";
+
+		if (script.equals(SCRIPT_SLEEP)) {
+			try {
+				Thread.sleep(SLEEP_LIMIT);
+			} catch (InterruptedException ex) {
+				interrupted.incrementAndGet();
+				throw ex;
+			}
+			return;
+		} else if (script.equals(SCRIPT_OUTPUT)) {
+			long remaining = Long.parseLong(data.trim());
+			byte[] chunk = new byte[CHUNK_SIZE];
+			for (int i = 0; i < chunk.length; i++) {
+				chunk[i] = (byte) ('a' + i % 26);
+			}
+			while (remaining > 0) {
+				int count = (int) Math.min(remaining, chunk.length);
+				out.write(chunk, 0, count);
+				out.flush();
+				remaining -= count;
+			}
+			return;
+		}
+
+		String accountId = getAccountId(header, data);
+		String output;
+		if (script.equals(SSHMessages.SSH_CREATEUSER) || script.equals(SSHMessages.SSH_UPDATEUSER)) {
+			accounts.put(accountId, new String[] {header, data});
+			output = SSHMessages.SSH_HEADER_ACCOUNTID + "\n" + accountId + "\n";
+		} else if (script.equals(SSHMessages.SSH_DELETEUSER)) {
+			accounts.remove(accountId);
+			output = "";
+		} else if (script.equals(SSHMessages.SSH_GETUSER)) {
+			String[] account = accounts.get(accountId);
+			output = account == null ? "" : account[0] + "\n" + account[1] + "\n";
+		} else if (script.equals(SSHMessages.SSH_AUTHENTICATE)) {
+			output = accounts.containsKey(accountId) ? accountId + "\n" : "";
+		} else if (script.equals(SSHMessages.SSH_LISTOBJECTS)) {
+			StringBuilder list = new StringBuilder(SSHMessages.SSH_HEADER_ACCOUNTID).append('\n');
+			for (String id : accounts.keySet()) {
+				list.append(id).append('\n');
+			}
+			output = list.toString();
+		} else {
+			throw new IOException("Unknown script " + script);
+		}
+		out.write(output.getBytes(ENCODING));
+		out.flush();
+	}
+
+	private static String getAccountId(String header, String data) throws IOException {
+		SSHCsvDecoder reader = SSHCsvDecoder.parse(header + "\n" + data + "\n",
+				SSHConfiguration.DELIMITER, SSHCsvDecoder.ESCAPE_MODE_DOUBLED);
+		if (!reader.readHeaders() || !reader.readRecord()) {
+			return "";
+		}
+		return reader.get(SSHMessages.SSH_HEADER_ACCOUNTID);
+	}
+
+	private static byte[] readFully(InputStream in, int length) throws IOException {
+		byte[] data = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int read = in.read(data, offset, length - offset);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of input.");
+			}
+			offset += read;
+		}
+		return data;
+	}
+
+	/**
+	 * Společný předek příkazů spuštěných příkazem exec. Příkaz běží ve vlastním vlákně, které
+	 * se přeruší signálem TERM nebo uzavřením kanálu.
+	 */
+	private abstract class StubCommand implements Command {
+
+		protected InputStream in;
+		protected OutputStream out;
+		protected OutputStream err;
+		private ExitCallback callback;
+		private volatile Future<?> worker;
+
+		public void setInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		public void setOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		public void setErrorStream(OutputStream err) {
+			this.err = err;
+		}
+
+		public void setExitCallback(ExitCallback callback) {
+			this.callback = callback;
+		}
+
+		public void start(Environment env) throws IOException {
+			env.addSignalListener(new SignalListener() {
+				public void signal(Signal signal) {
+					destroy();
+				}
+			}, Signal.TERM);
+			worker = executor.submit(new Runnable() {
+				public void run() {
+					callback.onExit(StubCommand.this.run());
+				}
+			});
+		}
+
+		/**
+		 * @return Návratový kód příkazu.
+		 */
+		protected abstract int run();
+
+		public void destroy() {
+			Future<?> current = worker;
+			if (current != null) {
+				current.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Skript spuštěný příkazem exec. Přečte celý standardní vstup, zpracuje ho a ukončí se.
+	 */
+	private class StubScript extends StubCommand {
+
+		private final String script;
+
+		private StubScript(String script) {
+			this.script = script;
+		}
+
+		protected int run() {
+			try {
+				ByteArrayOutputStream input = new ByteArrayOutputStream();
+				byte[] buffer = new byte[CHUNK_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					input.write(buffer, 0, read);
+				}
+				execute(script, input.toString(ENCODING), out);
+				return 0;
+			} catch (Exception ex) {
+				try {
+					err.write(String.valueOf(ex.getMessage()).getBytes(ENCODING));
+					err.flush();
+				} catch (IOException ioExc) {
+					//Kanal je uzavreny
+				}
+				return 1;
+			}
+		}
+	}
+
+	/**
+	 * Dispečer (viz {@link SSHDispatcher}). Každý požadavek zpracuje ve vlastním vlákně
+	 * a výstup posílá po částech jako rámce, rámce souběžných požadavků se tedy prokládají.
+	 */
+	private class StubDispatcher extends StubCommand {
+
+		protected int run() {
+			List<Future<?>> requests = new ArrayList<Future<?>>();
+			try {
+				String header;
+				while ((header = readLine()) != null) {
+					String[] parts = header.split(" ");
+					final long id = Long.parseLong(parts[0]);
+					final String script = getScriptName(new String(readFully(in, Integer.parseInt(parts[1])), ENCODING));
+					final String params = new String(readFully(in, Integer.parseInt(parts[2])), ENCODING);
+					requests.add(executor.submit(new Runnable() {
+						public void run() {
+							handle(id, script, params);
+						}
+					}));
+				}
+				for (Future<?> request : requests) {
+					request.get();
+				}
+				return 0;
+			} catch (Exception ex) {
+				return 1;
+			}
+		}
+
+		private void handle(long id, String script, String params) {
+			int exitStatus = 0;
+			try {
+				execute(script, params, new FrameOutputStream(id, "out"));
+			} catch (Exception ex) {
+				exitStatus = 1;
+				try {
+					new FrameOutputStream(id, "err").write(String.valueOf(ex.getMessage()).getBytes(ENCODING));
+				} catch (IOException ioExc) {
+					//Kanal je uzavreny
+				}
+			}
+			try {
+				writeFrame(id + " exit " + exitStatus + "\n", null, 0, 0);
+			} catch (IOException ioExc) {
+				//Kanal je uzavreny
+			}
+		}
+
+		private String readLine() throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != -1) {
+				if (b == '\n') {
+					return line.toString(ENCODING);
+				}
+				line.write(b);
+			}
+			return null;
+		}
+
+		private void writeFrame(String header, byte[] data, int off, int len) throws IOException {
+			synchronized (out) {
+				out.write(header.getBytes(ENCODING));
+				if (len > 0) {
+					out.write(data, off, len);
+				}
+				out.flush();
+			}
+		}
+
+		/**
+		 * Proud, který každý zápis pošle jako jeden rámec daného požadavku.
+		 */
+		private class FrameOutputStream extends OutputStream {
+
+			private final long id;
+			private final String type;
+
+			private FrameOutputStream(long id, String type) {
+				this.id = id;
+				this.type = type;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (len > 0) {
+					writeFrame(id + " " + type + " " + len + "\n", b, off, len);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,160 @@
+/**
+ * CzechIdM
+ * Copyright (C) 2014 BCV solutions s.r.o., Czech Republic
+ *
+ * This software is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License 2.1 as published by the Free Software Foundation;
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301 USA
+ *
+ * You can contact us on website http://www.bcvsolutions.eu.
+ */
+
+
+package eu.bcvsolutions.idm.connector.ssh.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.junit.Test;
+
+import eu.bcvsolutions.idm.connector.ssh.SSHMessages;
+
+/**
+ * Testy překladu filtrů na výrazy skriptu search ({@link SSHFilterTranslator}).
+ *
+ * @author Jaromír Mlejnek
+ */
+public class SSHFilterTranslatorTests {
+
+	private static final Filter SHELL_SH = FilterBuilder.equalTo(AttributeBuilder.build("Shell", "/bin/sh"));
+	private static final Filter SHELL_BASH = FilterBuilder.equalTo(AttributeBuilder.build("Shell", "/bin/bash"));
+	private static final Filter SHELL_ZSH = FilterBuilder.equalTo(AttributeBuilder.build("Shell", "/bin/zsh"));
+	private static final Filter GECOS = FilterBuilder.contains(AttributeBuilder.build("GECOS", "Doe"));
+
+	@Test
+	public void testIdentifier() {
+		assertEquals(Arrays.asList("eq(\"AccountId\",\"jdoe\")"),
+				new SSHUserFilterTranslator(false).translate(FilterBuilder.equalTo(new Name("jdoe"))));
+		assertEquals(Arrays.asList("eq(\"AccountId\",\"jdoe\")"),
+				new SSHUserFilterTranslator(true).translate(FilterBuilder.equalTo(new Uid("jdoe"))));
+		assertEquals(Arrays.asList("eq(\"" + SSHMessages.SSH_HEADER_GROUP_NAME + "\",\"wheel\")"),
+				new SSHGroupFilterTranslator(false).translate(FilterBuilder.equalTo(new Name("wheel"))));
+	}
+
+	@Test
+	public void testSearchDisabled() {
+		SSHFilterTranslator translator = new SSHUserFilterTranslator(false);
+		assertTrue(translator.translate(SHELL_SH).isEmpty());
+		assertTrue(translator.translate(GECOS).isEmpty());
+		assertTrue(translator.translate(FilterBuilder.not(FilterBuilder.equalTo(new Name("jdoe")))).isEmpty());
+		//Bez skriptu search se vyrazy or nespojuji, kazda shoda identifikatoru je samostatny dotaz.
+		assertEquals(Arrays.asList("eq(\"AccountId\",\"a\")", "eq(\"AccountId\",\"b\")"),
+				translator.translate(FilterBuilder.or(FilterBuilder.equalTo(new Name("a")),
+						FilterBuilder.equalTo(new Name("b")))));
+	}
+
+	@Test
+	public void testOperators() {
+		SSHFilterTranslator translator = new SSHUserFilterTranslator(true);
+		assertEquals(Arrays.asList("startsWith(\"Shell\",\"/bin\")"),
+				translator.translate(FilterBuilder.startsWith(AttributeBuilder.build("Shell", "/bin"))));
+		assertEquals(Arrays.asList("contains(\"GECOS\",\"Doe\")"), translator.translate(GECOS));
+		assertEquals(Arrays.asList("eq(\"UID\",\"1000\")"),
+				translator.translate(FilterBuilder.equalTo(AttributeBuilder.build("UID", 1000))));
+		assertEquals(Arrays.asList("and(eq(\"Shell\",\"/bin/sh\"),contains(\"GECOS\",\"Doe\"))"),
+				translator.translate(FilterBuilder.and(SHELL_SH, GECOS)));
+		assertEquals(Arrays.asList("or(eq(\"Shell\",\"/bin/sh\"),contains(\"GECOS\",\"Doe\"))"),
+				translator.translate(FilterBuilder.or(SHELL_SH, GECOS)));
+		assertEquals(Arrays.asList("not(eq(\"Shell\",\"/bin/sh\"))"),
+				translator.translate(FilterBuilder.not(SHELL_SH)));
+		assertEquals(Arrays.asList("or(not(eq(\"Shell\",\"/bin/sh\")),not(contains(\"GECOS\",\"Doe\")))"),
+				translator.translate(FilterBuilder.not(FilterBuilder.and(SHELL_SH, GECOS))));
+	}
+
+	@Test
+	public void testUntranslatableValues() {
+		SSHFilterTranslator translator = new SSHUserFilterTranslator(true);
+		assertTrue(translator.translate(FilterBuilder.equalTo(
+				AttributeBuilder.build("password", new GuardedString("secret".toCharArray())))).isEmpty());
+		assertTrue(translator.translate(FilterBuilder.equalTo(AttributeBuilder.build("Groups", "a", "b"))).isEmpty());
+		assertTrue(translator.translate(FilterBuilder.equalTo(AttributeBuilder.build("Groups"))).isEmpty());
+	}
+
+	@Test
+	public void testOrMergesEqualsIntoIn() {
+		SSHFilterTranslator translator = new SSHUserFilterTranslator(true);
+		assertEquals(Arrays.asList("in(\"Shell\",\"/bin/sh\",\"/bin/bash\")"),
+				translator.translate(FilterBuilder.or(SHELL_SH, SHELL_BASH)));
+		assertEquals(Arrays.asList("in(\"Shell\",\"/bin/sh\",\"/bin/bash\",\"/bin/zsh\")"),
+				translator.translate(FilterBuilder.or(FilterBuilder.or(SHELL_SH, SHELL_BASH), SHELL_ZSH)));
+		assertEquals(Arrays.asList("in(\"Shell\",\"/bin/sh\",\"/bin/bash\",\"/bin/zsh\")"),
+				translator.translate(FilterBuilder.or(SHELL_SH, FilterBuilder.or(SHELL_BASH, SHELL_ZSH))));
+		assertEquals(Arrays.asList("in(\"AccountId\",\"a\",\"b\")"),
+				translator.translate(FilterBuilder.or(FilterBuilder.equalTo(new Name("a")),
+						FilterBuilder.equalTo(new Uid("b")))));
+		//Ruzne atributy nebo negace se neslucuji.
+		assertEquals(Arrays.asList("or(eq(\"Shell\",\"/bin/sh\"),eq(\"Sh\",\"x\"))"),
+				translator.translate(FilterBuilder.or(SHELL_SH, FilterBuilder.equalTo(AttributeBuilder.build("Sh", "x")))));
+		assertEquals(Arrays.asList("or(not(eq(\"Shell\",\"/bin/sh\")),eq(\"Shell\",\"/bin/bash\"))"),
+				translator.translate(FilterBuilder.or(FilterBuilder.not(SHELL_SH), SHELL_BASH)));
+	}
+
+	@Test
+	public void testQuoting() {
+		SSHFilterTranslator translator = new SSHUserFilterTranslator(true);
+		Filter quoted = FilterBuilder.equalTo(AttributeBuilder.build("GECOS", "say \"a\",\"b\""));
+		assertEquals(Arrays.asList("eq(\"GECOS\",\"say \"\"a\"\",\"\"b\"\"\")"), translator.translate(quoted));
+		Filter attribute = FilterBuilder.equalTo(AttributeBuilder.build("GECOS\",\"x", "y"));
+		assertEquals(Arrays.asList("or(eq(\"GECOS\",\"say \"\"a\"\",\"\"b\"\"\"),eq(\"GECOS\"\",\"\"x\",\"y\"))"),
+				translator.translate(FilterBuilder.or(quoted, attribute)));
+		assertEquals(Arrays.asList("in(\"GECOS\",\"say \"\"a\"\",\"\"b\"\"\",\"z\")"),
+				translator.translate(FilterBuilder.or(quoted, FilterBuilder.equalTo(AttributeBuilder.build("GECOS", "z")))));
+	}
+
+	@Test
+	public void testParseEquals() {
+		assertEquals("jdoe", SSHFilterTranslator.parseEquals("eq(\"AccountId\",\"jdoe\")", "AccountId"));
+		assertEquals("", SSHFilterTranslator.parseEquals("eq(\"AccountId\",\"\")", "AccountId"));
+		assertEquals("a\",\"b", SSHFilterTranslator.parseEquals("eq(\"AccountId\",\"a\"\",\"\"b\")", "AccountId"));
+		assertEquals("x\"", SSHFilterTranslator.parseEquals("eq(\"A\"\"B\",\"x\"\"\")", "A\"B"));
+		assertNull(SSHFilterTranslator.parseEquals(null, "AccountId"));
+		assertNull(SSHFilterTranslator.parseEquals("eq(\"groupName\",\"jdoe\")", "AccountId"));
+		assertNull(SSHFilterTranslator.parseEquals("eq(\"AccountId\",\"a\",\"b\")", "AccountId"));
+		assertNull(SSHFilterTranslator.parseEquals("eq(\"AccountId\",\"a\")x", "AccountId"));
+		assertNull(SSHFilterTranslator.parseEquals("eq(\"AccountId\",\"a)", "AccountId"));
+		assertNull(SSHFilterTranslator.parseEquals("eq(\"AccountId\",a)", "AccountId"));
+		assertNull(SSHFilterTranslator.parseEquals("not(eq(\"AccountId\",\"a\"))", "AccountId"));
+		assertNull(SSHFilterTranslator.parseEquals("in(\"AccountId\",\"a\",\"b\")", "AccountId"));
+	}
+
+	@Test
+	public void testParseEqualsOfTranslatedFilter() {
+		SSHFilterTranslator translator = new SSHUserFilterTranslator(true);
+		String[] values = {"jdoe", "o\"brien", "a,b", "\"", "eq(\"AccountId\",\"x\")"};
+		for (String value : values) {
+			List<String> translated = translator.translate(FilterBuilder.equalTo(new Name(value)));
+			assertEquals(value, SSHFilterTranslator.parseEquals(translated.get(0), SSHMessages.SSH_HEADER_ACCOUNTID));
+		}
+	}
+
+}